@@ -120,11 +120,20 @@ android {
         jvmTarget = "17"
     }
 
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
+
     buildFeatures {
         compose = true
         buildConfig = true
     }
 
+    androidResources {
+        // Seekable zstd archives are read through a file descriptor, which requires uncompressed assets
+        noCompress += "tzst"
+    }
+
     ksp {
         arg("room.schemaLocation", "$projectDir/schemas")
         arg("room.incremental", "true")
@@ -224,6 +233,8 @@ dependencies {
     androidTestImplementation(libs.androidx.ui.test.junit4)
     debugImplementation(libs.androidx.ui.test.manifest)
     testImplementation(libs.junit)
+    // the jar flavor bundles the desktop natives the JVM unit tests load
+    testImplementation(libs.zstd.jni)
 
     // Add PostHog Android SDK dependency
     implementation("com.posthog:posthog-android:3.+")
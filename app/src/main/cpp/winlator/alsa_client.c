@@ -1,6 +1,7 @@
 #include <aaudio/AAudio.h>
 #include <jni.h>
 #include <android/log.h>
+#include <stdint.h>
 
 #define WAIT_COMPLETION_TIMEOUT 100 * 1000000L
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
@@ -139,4 +140,15 @@ JNIEXPORT void JNICALL
 Java_com_winlator_alsaserver_ALSAClient_close(JNIEnv *env, jobject obj, jlong streamPtr) {
     AAudioStream *aaudioStream = (AAudioStream*)jlong_to_ptr(streamPtr);
     if (aaudioStream) AAudioStream_close(aaudioStream);
-}
\ No newline at end of file
+}
+JNIEXPORT jint JNICALL
+Java_com_winlator_alsaserver_SharedRingBuffer_loadInt(JNIEnv *env, jclass obj, jobject buffer, jint offset) {
+    int32_t *ptr = (int32_t*)((char*)(*env)->GetDirectBufferAddress(env, buffer) + offset);
+    return __atomic_load_n(ptr, __ATOMIC_SEQ_CST);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_alsaserver_SharedRingBuffer_storeInt(JNIEnv *env, jclass obj, jobject buffer, jint offset, jint value) {
+    int32_t *ptr = (int32_t*)((char*)(*env)->GetDirectBufferAddress(env, buffer) + offset);
+    __atomic_store_n(ptr, value, __ATOMIC_SEQ_CST);
+}
@@ -0,0 +1,31 @@
+#include <jni.h>
+#include <fcntl.h>
+#include <sys/ioctl.h>
+#include <unistd.h>
+#include <errno.h>
+
+#ifndef FICLONE
+#define FICLONE _IOW(0x94, 9, int)
+#endif
+
+JNIEXPORT jboolean JNICALL
+Java_com_winlator_container_ContentStore_cloneFile(JNIEnv *env, jclass obj, jstring srcPath, jstring dstPath) {
+    const char *srcPathPtr = (*env)->GetStringUTFChars(env, srcPath, NULL);
+    const char *dstPathPtr = (*env)->GetStringUTFChars(env, dstPath, NULL);
+    jboolean result = JNI_FALSE;
+
+    int srcFd = open(srcPathPtr, O_RDONLY | O_CLOEXEC);
+    if (srcFd >= 0) {
+        int dstFd = open(dstPathPtr, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0771);
+        if (dstFd >= 0) {
+            result = ioctl(dstFd, FICLONE, srcFd) == 0 ? JNI_TRUE : JNI_FALSE;
+            close(dstFd);
+            if (!result) unlink(dstPathPtr);
+        }
+        close(srcFd);
+    }
+
+    (*env)->ReleaseStringUTFChars(env, srcPath, srcPathPtr);
+    (*env)->ReleaseStringUTFChars(env, dstPath, dstPathPtr);
+    return result;
+}
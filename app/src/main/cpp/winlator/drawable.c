@@ -73,7 +73,7 @@ static int setPixelOp(int srcColor, int dstColor, enum GCFunction gcFunction) {
 }
 
 JNIEXPORT void JNICALL
-Java_com_winlator_xserver_Drawable_drawBitmap(JNIEnv *env, jclass obj,
+Java_com_winlator_xserver_NativePixelOps_drawBitmap(JNIEnv *env, jobject obj,
                                               jshort width, jshort height, jobject srcData,
                                               jobject dstData) {
     uint8_t *srcDataAddr = (*env)->GetDirectBufferAddress(env, srcData);
@@ -92,7 +92,7 @@ Java_com_winlator_xserver_Drawable_drawBitmap(JNIEnv *env, jclass obj,
 }
 
 JNIEXPORT void JNICALL
-Java_com_winlator_xserver_Drawable_copyArea(JNIEnv *env, jclass obj, jshort srcX,
+Java_com_winlator_xserver_NativePixelOps_copyArea(JNIEnv *env, jobject obj, jshort srcX,
                                             jshort srcY, jshort dstX, jshort dstY,
                                             jshort width, jshort height, jshort srcStride,
                                             jshort dstStride, jobject srcData,
@@ -124,7 +124,7 @@ Java_com_winlator_xserver_Drawable_copyArea(JNIEnv *env, jclass obj, jshort srcX
 }
 
 JNIEXPORT void JNICALL
-Java_com_winlator_xserver_Drawable_copyAreaOp(JNIEnv *env, jclass obj, jshort srcX,
+Java_com_winlator_xserver_NativePixelOps_copyAreaOp(JNIEnv *env, jobject obj, jshort srcX,
                                               jshort srcY, jshort dstX, jshort dstY,
                                               jshort width, jshort height, jshort srcStride,
                                               jshort dstStride, jobject srcData,
@@ -154,7 +154,7 @@ Java_com_winlator_xserver_Drawable_copyAreaOp(JNIEnv *env, jclass obj, jshort sr
 }
 
 JNIEXPORT void JNICALL
-Java_com_winlator_xserver_Drawable_fillRect(JNIEnv *env, jclass obj, jshort x, jshort y,
+Java_com_winlator_xserver_NativePixelOps_fillRect(JNIEnv *env, jobject obj, jshort x, jshort y,
                                             jshort width, jshort height, jint color, jshort stride,
                                             jobject data) {
     uint8_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
@@ -183,7 +183,7 @@ Java_com_winlator_xserver_Drawable_fillRect(JNIEnv *env, jclass obj, jshort x, j
 }
 
 JNIEXPORT void JNICALL
-Java_com_winlator_xserver_Drawable_drawLine(JNIEnv *env, jclass obj, jshort x0, jshort y0,
+Java_com_winlator_xserver_NativePixelOps_drawLine(JNIEnv *env, jobject obj, jshort x0, jshort y0,
                                             jshort x1, jshort y1, jint color, jshort lineWidth,
                                             jshort stride, jobject data) {
     uint8_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
@@ -234,7 +234,7 @@ Java_com_winlator_xserver_Drawable_drawLine(JNIEnv *env, jclass obj, jshort x0,
 }
 
 JNIEXPORT void JNICALL
-Java_com_winlator_xserver_Drawable_drawAlphaMaskedBitmap(JNIEnv *env, jclass obj,
+Java_com_winlator_xserver_NativePixelOps_drawAlphaMaskedBitmap(JNIEnv *env, jobject obj,
                                                          jbyte foreRed, jbyte foreGreen,
                                                          jbyte foreBlue, jbyte backRed,
                                                          jbyte backGreen, jbyte backBlue,
@@ -258,29 +258,8 @@ Java_com_winlator_xserver_Drawable_drawAlphaMaskedBitmap(JNIEnv *env, jclass obj
     }
 }
 
-/* replace the whole JNI body */
 JNIEXPORT void JNICALL
-Java_com_winlator_xserver_Drawable_fromBitmap(JNIEnv *env, jclass obj,
-        jobject bitmap, jobject data) {
-    uint8_t *dst = (*env)->GetDirectBufferAddress(env, data);
-    if (!dst) {
-        printf("Error: NULL buffer address in fromBitmap\n");
-        return;
-    }
-
-    AndroidBitmapInfo info;
-    uint8_t *pixels;
-
-    if (AndroidBitmap_getInfo(env, bitmap, &info) < 0) return;
-    if (AndroidBitmap_lockPixels(env, bitmap, (void **)&pixels) < 0) return;
-
-    memcpy(dst, pixels, (size_t)info.width * info.height * 4);
-
-    AndroidBitmap_unlockPixels(env, bitmap);
-}
-
-JNIEXPORT void JNICALL
-Java_com_winlator_xserver_Pixmap_toBitmap(JNIEnv *env, jclass obj, jobject colorData,
+Java_com_winlator_renderer_BitmapConverter_toBitmap(JNIEnv *env, jclass obj, jobject colorData,
                                           jobject maskData, jobject bitmap) {
     char *colorDataAddr = (*env)->GetDirectBufferAddress(env, colorData);
     char *maskDataAddr = maskData ? (*env)->GetDirectBufferAddress(env, maskData) : NULL;
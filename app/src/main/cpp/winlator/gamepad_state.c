@@ -0,0 +1,43 @@
+#include <jni.h>
+#include <stdint.h>
+#include <stdbool.h>
+
+#define SLOT_FLAG_CONNECTED 1
+
+struct GamepadSlot {
+    uint32_t sequence;
+    int32_t deviceId;
+    uint8_t flags;
+    int8_t povHat;
+    uint16_t buttons;
+    int16_t thumbLX;
+    int16_t thumbLY;
+    int16_t thumbRX;
+    int16_t thumbRY;
+    uint8_t triggerL;
+    uint8_t triggerR;
+};
+
+JNIEXPORT void JNICALL
+Java_com_winlator_winhandler_GamepadStateChannel_writeSlot(JNIEnv *env, jclass obj, jobject buffer, jint offset, jint deviceId,
+                                                           jboolean connected, jshort buttons, jbyte povHat, jshort thumbLX, jshort thumbLY,
+                                                           jshort thumbRX, jshort thumbRY, jbyte triggerL, jbyte triggerR) {
+    struct GamepadSlot *slot = (struct GamepadSlot*)((char*)(*env)->GetDirectBufferAddress(env, buffer) + offset);
+
+    uint32_t sequence = __atomic_load_n(&slot->sequence, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->sequence, sequence + 1, __ATOMIC_RELAXED);
+    __atomic_thread_fence(__ATOMIC_RELEASE);
+
+    __atomic_store_n(&slot->deviceId, deviceId, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->flags, connected ? SLOT_FLAG_CONNECTED : 0, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->povHat, povHat, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->buttons, (uint16_t)buttons, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->thumbLX, thumbLX, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->thumbLY, thumbLY, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->thumbRX, thumbRX, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->thumbRY, thumbRY, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->triggerL, (uint8_t)triggerL, __ATOMIC_RELAXED);
+    __atomic_store_n(&slot->triggerR, (uint8_t)triggerR, __ATOMIC_RELAXED);
+
+    __atomic_store_n(&slot->sequence, sequence + 2, __ATOMIC_RELEASE);
+}
@@ -0,0 +1,89 @@
+#include <jni.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#include <stdint.h>
+#include <errno.h>
+
+#ifndef __NR_pidfd_open
+#define __NR_pidfd_open 434
+#endif
+
+#define MAX_EVENTS 64
+#define READ_CHUNK_SIZE 8192
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_core_ProcessSupervisor_createEpollFd(JNIEnv *env, jclass obj) {
+    return epoll_create1(EPOLL_CLOEXEC);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_core_ProcessSupervisor_createEventFd(JNIEnv *env, jclass obj) {
+    return eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_core_ProcessSupervisor_signalEventFd(JNIEnv *env, jclass obj, jint fd) {
+    uint64_t value = 1;
+    while (write(fd, &value, sizeof(uint64_t)) < 0 && errno == EINTR);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_core_ProcessSupervisor_clearEventFd(JNIEnv *env, jclass obj, jint fd) {
+    uint64_t value;
+    while (read(fd, &value, sizeof(uint64_t)) < 0 && errno == EINTR);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_core_ProcessSupervisor_openPidFd(JNIEnv *env, jclass obj, jint pid) {
+    int fd = syscall(__NR_pidfd_open, pid, 0);
+    return fd >= 0 ? fd : -1;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_winlator_core_ProcessSupervisor_addFd(JNIEnv *env, jclass obj, jint epollFd, jint fd) {
+    struct epoll_event event = {0};
+    event.events = EPOLLIN;
+    event.data.fd = fd;
+    return epoll_ctl(epollFd, EPOLL_CTL_ADD, fd, &event) == 0;
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_core_ProcessSupervisor_removeFd(JNIEnv *env, jclass obj, jint epollFd, jint fd) {
+    epoll_ctl(epollFd, EPOLL_CTL_DEL, fd, NULL);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_core_ProcessSupervisor_waitForFds(JNIEnv *env, jclass obj, jint epollFd, jintArray readyFds, jint timeout) {
+    struct epoll_event events[MAX_EVENTS];
+    jint maxEvents = (*env)->GetArrayLength(env, readyFds);
+    if (maxEvents > MAX_EVENTS) maxEvents = MAX_EVENTS;
+
+    int count = epoll_wait(epollFd, events, maxEvents, timeout);
+    if (count < 0) return errno == EINTR ? 0 : -1;
+
+    jint fds[MAX_EVENTS];
+    for (int i = 0; i < count; i++) fds[i] = events[i].data.fd;
+    (*env)->SetIntArrayRegion(env, readyFds, 0, count, fds);
+    return count;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_core_ProcessSupervisor_readFd(JNIEnv *env, jclass obj, jint fd, jbyteArray buffer) {
+    char data[READ_CHUNK_SIZE];
+    jint length = (*env)->GetArrayLength(env, buffer);
+    if (length > READ_CHUNK_SIZE) length = READ_CHUNK_SIZE;
+
+    ssize_t bytesRead;
+    while ((bytesRead = read(fd, data, length)) < 0 && errno == EINTR);
+    if (bytesRead < 0) return errno == EAGAIN ? -2 : -1;
+
+    (*env)->SetByteArrayRegion(env, buffer, 0, bytesRead, (jbyte*)data);
+    return bytesRead;
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_core_ProcessSupervisor_closeFd(JNIEnv *env, jclass obj, jint fd) {
+    close(fd);
+}
@@ -21,6 +21,19 @@
 
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
 
+#ifndef MADV_POPULATE_READ
+#define MADV_POPULATE_READ 22
+#endif
+
+#define MAP_FLAG_POPULATE 1
+#define MAP_FLAG_HUGE_PAGES 2
+
+struct PrefaultArgs {
+    int fd;
+    int64_t size;
+    bool hugePages;
+};
+
 static int ashmemCreateRegion(const char *name, int64_t size) {
     return ASharedMemory_create(name, size);
 }
@@ -76,6 +89,28 @@ Java_com_winlator_sysvshm_SysVSharedMemory_ashmemCreateRegion(JNIEnv *env, jobje
     return ashmemCreateRegion(name, size);
 }
 
+static void prefaultRegion(char *data, int64_t size) {
+    if (madvise(data, size, MADV_POPULATE_READ) == 0) return;
+
+    long pageSize = sysconf(_SC_PAGESIZE);
+    volatile char value;
+    for (int64_t i = 0; i < size; i += pageSize) value = data[i];
+    (void)value;
+}
+
+static void *prefaultThread(void *param) {
+    struct PrefaultArgs *args = param;
+    char *data = mmap(NULL, args->size, PROT_READ, MAP_SHARED, args->fd, 0);
+    if (data != MAP_FAILED) {
+        if (args->hugePages) madvise(data, args->size, MADV_HUGEPAGE);
+        prefaultRegion(data, args->size);
+        munmap(data, args->size);
+    }
+    close(args->fd);
+    free(args);
+    return NULL;
+}
+
 JNIEXPORT jobject JNICALL
 Java_com_winlator_sysvshm_SysVSharedMemory_mapSHMSegment(JNIEnv *env, jobject obj, jint fd, jlong size, jint offset, jboolean readonly) {
     char *data = mmap(NULL, size, readonly ? PROT_READ : PROT_WRITE | PROT_READ, MAP_SHARED, fd, offset);
@@ -83,6 +118,48 @@ Java_com_winlator_sysvshm_SysVSharedMemory_mapSHMSegment(JNIEnv *env, jobject ob
     return (*env)->NewDirectByteBuffer(env, data, size);
 }
 
+JNIEXPORT jobject JNICALL
+Java_com_winlator_sysvshm_SysVSharedMemory_mapSHMSegmentWithFlags(JNIEnv *env, jclass obj, jint fd, jlong size, jint offset, jboolean readonly, jint flags) {
+    int mapFlags = MAP_SHARED;
+    if ((flags & MAP_FLAG_POPULATE) && !(flags & MAP_FLAG_HUGE_PAGES)) mapFlags |= MAP_POPULATE;
+
+    char *data = mmap(NULL, size, readonly ? PROT_READ : PROT_WRITE | PROT_READ, mapFlags, fd, offset);
+    if (data == MAP_FAILED) return NULL;
+
+    if (flags & MAP_FLAG_HUGE_PAGES) {
+        madvise(data, size, MADV_HUGEPAGE);
+        if (flags & MAP_FLAG_POPULATE) prefaultRegion(data, size);
+    }
+    return (*env)->NewDirectByteBuffer(env, data, size);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_winlator_sysvshm_SysVSharedMemory_prefaultSHMRegion(JNIEnv *env, jclass obj, jint fd, jlong size, jboolean hugePages) {
+    struct PrefaultArgs *args = malloc(sizeof(struct PrefaultArgs));
+    if (!args) return JNI_FALSE;
+
+    args->fd = dup(fd);
+    args->size = size;
+    args->hugePages = hugePages;
+    if (args->fd < 0) {
+        free(args);
+        return JNI_FALSE;
+    }
+
+    pthread_t thread;
+    pthread_attr_t attr;
+    pthread_attr_init(&attr);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    int res = pthread_create(&thread, &attr, prefaultThread, args);
+    pthread_attr_destroy(&attr);
+    if (res != 0) {
+        close(args->fd);
+        free(args);
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
+}
+
 JNIEXPORT void JNICALL
 Java_com_winlator_sysvshm_SysVSharedMemory_unmapSHMSegment(JNIEnv *env, jobject obj, jobject data,
                                                            jlong size) {
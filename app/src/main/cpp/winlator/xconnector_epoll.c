@@ -276,6 +276,14 @@ Java_com_winlator_xconnector_ClientSocket_sendAncillaryMsg(JNIEnv *env, jobject
     return size;
 }
 
+JNIEXPORT jint JNICALL
+Java_com_winlator_xconnector_ClientSocket_getPeerPid(JNIEnv *env, jobject obj, jint clientFd) {
+    struct ucred cred;
+    socklen_t len = sizeof(cred);
+    if (getsockopt(clientFd, SOL_SOCKET, SO_PEERCRED, &cred, &len) < 0) return -1;
+    return cred.pid;
+}
+
 JNIEXPORT jboolean JNICALL
 Java_com_winlator_xconnector_XConnectorEpoll_waitForSocketRead(JNIEnv *env, jobject obj, jint clientFd, jint shutdownFd) {
     struct pollfd pfds[2];
@@ -552,4 +552,15 @@ object PrefManager {
     var wineDebugChannels: String
         get() = getPref(WINE_DEBUG_CHANNELS, Constants.XServer.DEFAULT_WINE_DEBUG_CHANNELS)
         set(value) = setPref(WINE_DEBUG_CHANNELS, value)
+
+    // Records per-request X server timings, dumped to wine_logs/x_request_profile.txt
+    private val ENABLE_X_REQUEST_PROFILER = booleanPreferencesKey("enable_x_request_profiler")
+    var enableXRequestProfiler: Boolean
+        get() = getPref(ENABLE_X_REQUEST_PROFILER, false)
+        set(value) = setPref(ENABLE_X_REQUEST_PROFILER, value)
+
+    private val ENABLE_X_CONNECTION_RECORDER = booleanPreferencesKey("enable_x_connection_recorder")
+    var enableXConnectionRecorder: Boolean
+        get() = getPref(ENABLE_X_CONNECTION_RECORDER, false)
+        set(value) = setPref(ENABLE_X_CONNECTION_RECORDER, value)
 }
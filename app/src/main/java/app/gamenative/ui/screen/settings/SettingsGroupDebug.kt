@@ -12,6 +12,7 @@ import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
+import androidx.compose.runtime.rememberCoroutineScope
 import androidx.compose.runtime.saveable.rememberSaveable
 import androidx.compose.runtime.setValue
 import androidx.compose.ui.Modifier
@@ -26,9 +27,16 @@ import com.alorma.compose.settings.ui.SettingsGroup
 import com.alorma.compose.settings.ui.SettingsMenuLink
 import com.alorma.compose.settings.ui.SettingsSwitch
 import app.gamenative.PrefManager
+import app.gamenative.PluviaApp
+import app.gamenative.ui.screen.xserver.dumpXRequestProfile
+import com.winlator.xenvironment.components.XServerComponent
 import app.gamenative.ui.theme.settingsTileColorsAlt
 import com.winlator.PrefManager as WinlatorPrefManager
+import com.winlator.xenvironment.ImageFsInstaller
 import java.io.File
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import kotlinx.serialization.decodeFromString
 import kotlinx.serialization.json.Json
 import app.gamenative.ui.component.dialog.WineDebugChannelsDialog
@@ -65,11 +73,17 @@ fun SettingsGroupDebug() {
         onDismiss = { showChannelsDialog = false }
     )
 
+    /* System files verification */
+    val scope = rememberCoroutineScope()
+    var verifyProgress: Int? by remember { mutableStateOf(null) }
+
     /* Crash Log stuff */
     var showLogcatDialog by rememberSaveable { mutableStateOf(false) }
     // states for debug toggles
     var enableWineDebugPref by rememberSaveable { mutableStateOf(PrefManager.enableWineDebug) }
     var enableBox86Logs by rememberSaveable { mutableStateOf(WinlatorPrefManager.getBoolean("enable_box86_64_logs", false)) }
+    var enableXRequestProfiler by rememberSaveable { mutableStateOf(PrefManager.enableXRequestProfiler) }
+    var enableXConnectionRecorder by rememberSaveable { mutableStateOf(PrefManager.enableXConnectionRecorder) }
     var latestCrashFile: File? by rememberSaveable { mutableStateOf(null) }
     LaunchedEffect(Unit) {
         val crashDir = File(context.getExternalFilesDir(null), "crash_logs")
@@ -162,6 +176,43 @@ fun SettingsGroupDebug() {
                 WinlatorPrefManager.putBoolean("enable_box86_64_logs", it)
             },
         )
+        SettingsSwitch(
+            colors = settingsTileColorsAlt(),
+            state = enableXRequestProfiler,
+            title = { Text(text = "Enable X Request Profiler") },
+            subtitle = { Text(text = "Record X server request timings, written to x_request_profile.txt on exit") },
+            onCheckedChange = {
+                enableXRequestProfiler = it
+                PrefManager.enableXRequestProfiler = it
+                PluviaApp.xEnvironment?.getComponent<XServerComponent>(XServerComponent::class.java)?.xServer?.requestProfiler?.setEnabled(it)
+            },
+        )
+        SettingsMenuLink(
+            colors = settingsTileColors(),
+            title = { Text(text = "Dump X Request Profile") },
+            subtitle = { Text(text = "Write the profile of the running game to x_request_profile.txt") },
+            enabled = enableXRequestProfiler,
+            onClick = {
+                val xServer = PluviaApp.xEnvironment?.getComponent<XServerComponent>(XServerComponent::class.java)?.xServer
+                val profileFile = xServer?.let { dumpXRequestProfile(context, it) }
+                val message = when {
+                    xServer == null -> "No game is running"
+                    profileFile == null -> "Failed to write the X request profile"
+                    else -> "X request profile written to ${profileFile.path}"
+                }
+                Toast.makeText(context, message, Toast.LENGTH_LONG).show()
+            },
+        )
+        SettingsSwitch(
+            colors = settingsTileColorsAlt(),
+            state = enableXConnectionRecorder,
+            title = { Text(text = "Record X Connections") },
+            subtitle = { Text(text = "Write all X client traffic of the next game to x_connection_trace.bin for offline replay") },
+            onCheckedChange = {
+                enableXConnectionRecorder = it
+                PrefManager.enableXConnectionRecorder = it
+            },
+        )
         SettingsMenuLink(
             colors = settingsTileColors(),
             title = { Text(text = "View latest crash") },
@@ -192,6 +243,31 @@ fun SettingsGroupDebug() {
             onClick = { showWineLogDialog = true },
         )
 
+        SettingsMenuLink(
+            colors = settingsTileColors(),
+            title = { Text(text = "Verify System Files") },
+            subtitle = {
+                val text = verifyProgress?.let { "Verifying... $it%" } ?: "Checks the installed system files against their checksums"
+                Text(text = text)
+            },
+            enabled = verifyProgress == null,
+            onClick = {
+                verifyProgress = 0
+                scope.launch {
+                    val failedPaths = withContext(Dispatchers.IO) {
+                        ImageFsInstaller.verifyFuture(context) { progress -> verifyProgress = progress }.get()
+                    }
+                    verifyProgress = null
+                    val message = when {
+                        failedPaths == null -> "No manifest found, system files were installed by an older version"
+                        failedPaths.isEmpty() -> "All system files are intact"
+                        else -> "${failedPaths.size} system files are missing or modified"
+                    }
+                    Toast.makeText(context, message, Toast.LENGTH_LONG).show()
+                }
+            },
+        )
+
         SettingsMenuLink(
             modifier = Modifier.combinedClickable(
                 onLongClick = {
@@ -74,9 +74,11 @@ import com.winlator.widget.FrameRating
 import com.winlator.widget.InputControlsView
 import com.winlator.widget.TouchpadView
 import com.winlator.widget.XServerView
+import com.winlator.winhandler.GamepadStateChannel
 import com.winlator.winhandler.WinHandler
 import com.winlator.winhandler.WinHandler.PreferredInputApi
 import com.winlator.xconnector.UnixSocketConfig
+import com.winlator.xconnector.XConnectionRecorder
 import com.winlator.xenvironment.ImageFs
 import com.winlator.xenvironment.XEnvironment
 import com.winlator.xenvironment.components.ALSAServerComponent
@@ -400,6 +402,7 @@ fun XServerScreen(
                     ?.getComponent<XServerComponent>(XServerComponent::class.java)
                     ?.xServer
             val xServerToUse = existingXServer ?: XServer(ScreenInfo(xServerState.value.screenSize))
+            xServerToUse.requestProfiler.setEnabled(PrefManager.enableXRequestProfiler)
             val xServerView = XServerView(
                 context,
                 xServerToUse,
@@ -908,16 +911,19 @@ private fun shiftXEnvironmentToContext(
 ): XEnvironment {
     val environment = XEnvironment(context, xEnvironment.imageFs)
     val rootPath = xEnvironment.imageFs.rootDir.path
-    xEnvironment.getComponent<SysVSharedMemoryComponent>(SysVSharedMemoryComponent::class.java).stop()
+    val previousSysVSharedMemoryComponent = xEnvironment.getComponent<SysVSharedMemoryComponent>(SysVSharedMemoryComponent::class.java)
+    previousSysVSharedMemoryComponent.stop()
     val sysVSharedMemoryComponent = SysVSharedMemoryComponent(
         xServer,
         UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH),
     )
+    sysVSharedMemoryComponent.prefaultThreshold = previousSysVSharedMemoryComponent.prefaultThreshold
+    sysVSharedMemoryComponent.hugePageThreshold = previousSysVSharedMemoryComponent.hugePageThreshold
     // val sysVSharedMemoryComponent = xEnvironment.getComponent<SysVSharedMemoryComponent>(SysVSharedMemoryComponent::class.java)
     // sysVSharedMemoryComponent.connectToXServer(xServer)
     environment.addComponent(sysVSharedMemoryComponent)
     xEnvironment.getComponent<XServerComponent>(XServerComponent::class.java).stop()
-    val xServerComponent = XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH))
+    val xServerComponent = createXServerComponent(context, xServer, rootPath)
     // val xServerComponent = xEnvironment.getComponent<XServerComponent>(XServerComponent::class.java)
     // xServerComponent.connectToXServer(xServer)
     environment.addComponent(xServerComponent)
@@ -1029,10 +1035,9 @@ private fun setupXEnvironment(
         val wineLogDir = File(context.getExternalFilesDir(null), "wine_logs")
         wineLogDir.mkdirs()
         val logFile = File(wineLogDir, "wine_debug.log")
-        if (logFile.exists()) logFile.delete()
-        ProcessHelper.addDebugCallback { line ->
-            logFile.appendText(line + "\n")
-        }
+        ProcessHelper.setLogFile(logFile, 16L * 1024 * 1024, 3)
+    } else {
+        ProcessHelper.setLogFile(null, 0, 0)
     }
 
     val rootPath = imageFs.getRootDir().getPath()
@@ -1084,13 +1089,15 @@ private fun setupXEnvironment(
     }
 
     val environment = XEnvironment(context, imageFs)
-    environment.addComponent(
-        SysVSharedMemoryComponent(
-            xServer,
-            UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH),
-        ),
+    val sysVSharedMemoryComponent = SysVSharedMemoryComponent(
+        xServer,
+        UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH),
     )
-    environment.addComponent(XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH)))
+    // per container overrides in bytes, 0 disables pre-faulting or huge pages
+    container.getExtra("shmPrefaultThreshold").toLongOrNull()?.let { sysVSharedMemoryComponent.prefaultThreshold = it }
+    container.getExtra("shmHugePageThreshold").toLongOrNull()?.let { sysVSharedMemoryComponent.hugePageThreshold = it }
+    environment.addComponent(sysVSharedMemoryComponent)
+    environment.addComponent(createXServerComponent(context, xServer, rootPath))
     environment.addComponent(NetworkInfoUpdateComponent())
     environment.addComponent(SteamClientComponent())
 
@@ -1101,6 +1108,10 @@ private fun setupXEnvironment(
     // environment.addComponent(SteamClientComponent(UnixSocketConfig.createSocket(SteamService.getAppDirPath(appId), "/steam_pipe")))
     // environment.addComponent(SteamClientComponent(UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.STEAM_PIPE_PATH)))
 
+    val gamepadStateFile = File(rootPath + GamepadStateChannel.PATH)
+    xServer.winHandler.setGamepadStateChannel(GamepadStateChannel.create(gamepadStateFile))
+    envVars.put("WINHANDLER_GAMEPAD_STATE", gamepadStateFile.path)
+
     if (xServerState.value.audioDriver == "alsa") {
         envVars.put("ANDROID_ALSA_SERVER", imageFs.getRootDir().getPath() + UnixSocketConfig.ALSA_SERVER_PATH)
         envVars.put("ANDROID_ASERVER_USE_SHM", "true")
@@ -1256,9 +1267,48 @@ private fun getSteamlessTarget(
     }
     return "$drive:\\${executablePath}"
 }
+/**
+ * Creates the X server component, attaching a connection recorder that writes
+ * wine_logs/x_connection_trace.bin when recording is enabled in the debug settings.
+ */
+private fun createXServerComponent(context: Context, xServer: XServer, rootPath: String): XServerComponent {
+    val xServerComponent = XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH))
+    if (PrefManager.enableXConnectionRecorder) {
+        val wineLogDir = File(context.getExternalFilesDir(null), "wine_logs")
+        wineLogDir.mkdirs()
+        try {
+            xServerComponent.setConnectionRecorder(XConnectionRecorder(File(wineLogDir, "x_connection_trace.bin")))
+        } catch (e: IOException) {
+            Timber.e(e, "Failed to create X connection trace")
+        }
+    }
+    return xServerComponent
+}
+
+/**
+ * Writes the X request profile of xServer to wine_logs/x_request_profile.txt, returns the file or
+ * null if the profiler is off or the file could not be written.
+ */
+fun dumpXRequestProfile(context: Context, xServer: XServer): File? {
+    if (!xServer.requestProfiler.isEnabled) return null
+    val wineLogDir = File(context.getExternalFilesDir(null), "wine_logs")
+    wineLogDir.mkdirs()
+    val profileFile = File(wineLogDir, "x_request_profile.txt")
+    return try {
+        xServer.dumpRequestProfile(profileFile)
+        profileFile
+    } catch (e: IOException) {
+        Timber.e(e, "Failed to write X request profile")
+        null
+    }
+}
+
 private fun exit(winHandler: WinHandler?, environment: XEnvironment?, onExit: () -> Unit) {
     Timber.i("Exit called")
     PostHog.capture(event = "game_exited")
+    environment?.let { env ->
+        env.getComponent<XServerComponent>(XServerComponent::class.java)?.xServer?.let { dumpXRequestProfile(env.context, it) }
+    }
     winHandler?.stop()
     environment?.stopEnvironmentComponents()
     // AppUtils.restartApplication(this)
@@ -1,31 +1,44 @@
 package com.winlator.alsaserver;
 
 import android.content.Context;
-import android.media.AudioFormat;
 import android.media.AudioManager;
-import android.media.AudioTrack;
-import android.util.Log;
 
 import com.winlator.core.KeyValueSet;
 import com.winlator.math.Mathf;
 import com.winlator.sysvshm.SysVSharedMemory;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 
 public class ALSAClient {
     private static short framesPerBuffer = 256;
-    private ByteBuffer auxBuffer;
-    private int bufferCapacity;
+    private static final int QUEUE_BUFFERS = 2;
+    private Period auxPeriod;
+    private Period currentPeriod;
     private int bufferSize;
     private byte frameBytes;
     protected final Options options;
-    private int position;
-    private ByteBuffer sharedBuffer;
+    private final ALSAMixer mixer;
+    private volatile long position;
+    private volatile long mixedFrames;
+    private long reportedFrames;
+    private volatile ByteBuffer sharedBuffer;
+    private volatile SharedRingBuffer ringBuffer;
+    private final Object queueLock = new Object();
+    private ByteBuffer queue;
+    private int queueReadIndex;
+    private int queueLength;
+    private final SampleConverter converter = new SampleConverter();
+    private volatile boolean playing = false;
+    private volatile boolean discardRequested = false;
+    private volatile float volume;
+    private volatile int underrunCount = 0;
+    private volatile int overrunCount = 0;
+    private boolean starved = true;
     private DataType dataType = DataType.U8;
-    private AudioTrack audioTrack = null;
     private byte channels = 2;
     private int sampleRate = 0;
-    private short previousUnderrunCount = 0;
 
     public enum DataType {
         U8(1),
@@ -41,6 +54,18 @@ public class ALSAClient {
         }
     }
 
+    private static class Period {
+        private final ByteBuffer data;
+        private final ShortBuffer shorts;
+        private final FloatBuffer floats;
+
+        private Period(int size, ByteOrder byteOrder) {
+            data = ByteBuffer.allocateDirect(size).order(byteOrder);
+            shorts = data.asShortBuffer();
+            floats = data.asFloatBuffer();
+        }
+    }
+
     public static class Options {
         public short latencyMillis = 40;
         public byte performanceMode = 1;
@@ -69,23 +94,30 @@ public class ALSAClient {
         }
     }
 
-    public ALSAClient(Options options) {
+    public ALSAClient(Options options, ALSAMixer mixer) {
         this.options = options;
+        this.mixer = mixer;
+        this.volume = options.volume;
     }
 
     public void release() {
+        mixer.removeClient(this);
+        playing = false;
+        ringBuffer = null;
+        synchronized (queueLock) {
+            queue = null;
+            queueReadIndex = 0;
+            queueLength = 0;
+            queueLock.notifyAll();
+        }
+        currentPeriod = null;
+        auxPeriod = null;
+
         ByteBuffer byteBuffer = this.sharedBuffer;
         if (byteBuffer != null) {
             SysVSharedMemory.unmapSHMSegment(byteBuffer, byteBuffer.capacity());
             this.sharedBuffer = null;
         }
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.pause();
-            this.audioTrack.flush();
-            this.audioTrack.release();
-            this.audioTrack = null;
-        }
     }
 
     public static int getPCMEncoding(DataType dataType) {
@@ -113,93 +145,229 @@ public class ALSAClient {
     }
 
     public void prepare() {
+        release();
         this.position = 0;
-        this.previousUnderrunCount = (short) 0;
+        this.mixedFrames = 0;
+        synchronized (this) {
+            this.reportedFrames = 0;
+        }
+        this.underrunCount = 0;
+        this.overrunCount = 0;
         this.frameBytes = (byte) (this.channels * this.dataType.byteCount);
-        release();
         if (isValidBufferSize()) {
-            AudioFormat format = new AudioFormat.Builder().setEncoding(getPCMEncoding(this.dataType)).setSampleRate(this.sampleRate).setChannelMask(getChannelConfig(this.channels)).build();
-            AudioTrack build = new AudioTrack.Builder().setPerformanceMode(this.options.performanceMode).setAudioFormat(format).setBufferSizeInBytes(getBufferSizeInBytes()).build();
-            this.audioTrack = build;
-            this.bufferCapacity = build.getBufferCapacityInFrames();
-            float f = this.options.volume;
-            if (f != 1.0f) {
-                this.audioTrack.setVolume(f);
+            ByteOrder byteOrder = dataType == DataType.S16BE || dataType == DataType.FLOATBE ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            int periodSize = getBufferSizeInBytes();
+            synchronized (queueLock) {
+                queue = ByteBuffer.allocateDirect(periodSize * QUEUE_BUFFERS);
             }
-            this.audioTrack.play();
+            auxPeriod = new Period(periodSize, byteOrder);
+            converter.configure(dataType, channels, sampleRate, mixer.getSampleRate());
+
+            starved = true;
+            discardRequested = false;
+            playing = true;
+            mixer.addClient(this);
         }
     }
 
     public void start() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null && audioTrack.getPlayState() != 3) {
-            this.audioTrack.play();
+        if (!playing && auxPeriod != null) {
+            playing = true;
+            mixer.wakeUp();
         }
     }
 
     public void stop() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.stop();
-            this.audioTrack.flush();
-        }
+        playing = false;
+        discardRequested = true;
     }
 
     public void pause() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.pause();
-        }
+        playing = false;
     }
 
     public void drain() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.flush();
-        }
+        discardRequested = true;
     }
 
-    public void writeDataToTrack(ByteBuffer data) {
-        DataType dataType = this.dataType;
-        if (dataType == DataType.S16LE || dataType == DataType.FLOATLE) {
-            data.order(ByteOrder.LITTLE_ENDIAN);
-        } else if (dataType == DataType.S16BE || dataType == DataType.FLOATBE) {
-            data.order(ByteOrder.BIG_ENDIAN);
-        }
-        if (this.audioTrack != null) {
-            data.position(0);
-            do {
-                try {
-                    int bytesWritten = this.audioTrack.write(data, data.remaining(), 0);
-                    if (bytesWritten < 0) {
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * Appends data to the byte queue the mixer drains. The queue holds twice the negotiated ALSA
+     * buffer, so a client that never writes past the pointer always fits. Otherwise the caller
+     * waits for the mixer to make room, for at most the duration of one buffer; whatever still
+     * does not fit after that is rejected and counted as an overrun, data already queued is never
+     * dropped.
+     */
+    public void queueData(ByteBuffer data) {
+        synchronized (queueLock) {
+            long deadline = System.currentTimeMillis() + Math.max(1000L * bufferSize / Math.max(sampleRate, 1), 1);
+            while (queue != null && data.hasRemaining()) {
+                int capacity = queue.capacity();
+                int space = capacity - queueLength;
+                if (space == 0) {
+                    long timeout = deadline - System.currentTimeMillis();
+                    if (timeout <= 0) break;
+                    try {
+                        queueLock.wait(timeout);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
                         break;
-                    } else {
-                        increaseBufferSizeIfUnderrunOccurs();
                     }
-                } catch (Exception e) {
+                    continue;
                 }
-            } while (data.position() != data.limit());
-            this.position += data.position();
-            data.rewind();
+
+                int writeIndex = (queueReadIndex + queueLength) % capacity;
+                int length = Math.min(Math.min(space, capacity - writeIndex), data.remaining());
+                ByteBuffer src = data.duplicate();
+                src.limit(src.position() + length);
+                queue.position(writeIndex);
+                queue.put(src);
+                data.position(data.position() + length);
+                queueLength += length;
+            }
+
+            if (data.hasRemaining()) {
+                data.position(data.limit());
+                overrunCount++;
+            }
+        }
+    }
+
+    /**
+     * Converts this stream to the mixer format and adds it to the interleaved stereo mix buffer.
+     * Called on the mixer thread only, returns false if the stream did not contribute anything.
+     */
+    boolean mixInto(float[] mixBuffer, int frames) {
+        if (discardRequested) discardPendingData();
+        if (!playing) return false;
+
+        float volume = this.volume;
+        int mixed = converter.mixInto(mixBuffer, 0, frames, volume);
+        while (mixed < frames && fillConverter()) {
+            mixed += converter.mixInto(mixBuffer, mixed, frames - mixed, volume);
+        }
+
+        mixedFrames = position / frameBytes - converter.getBufferedFrames();
+        if (mixed < frames) {
+            if (!starved && position > 0) underrunCount++;
+            starved = true;
+        }
+        else starved = false;
+
+        ByteBuffer sharedBuffer = this.sharedBuffer;
+        if (sharedBuffer != null) sharedBuffer.putInt(0, pointer());
+        return mixed > 0;
+    }
+
+    private boolean fillConverter() {
+        Period period = currentPeriod;
+        if (period == null || period.data.remaining() < frameBytes) {
+            currentPeriod = period = nextPeriod();
+            if (period == null) return false;
         }
+
+        int frames = Math.min(period.data.remaining() / frameBytes, converter.getInputSpace());
+        if (frames == 0) return false;
+        frames = converter.write(period.data, period.shorts, period.floats, frames);
+        position += frames * frameBytes;
+        return true;
     }
 
-    private void increaseBufferSizeIfUnderrunOccurs() {
-        int i;
-        int underrunCount = this.audioTrack.getUnderrunCount();
-        if (underrunCount > this.previousUnderrunCount && (i = this.bufferSize) < this.bufferCapacity) {
-            this.previousUnderrunCount = (short) underrunCount;
-            int i2 = i + framesPerBuffer;
-            this.bufferSize = i2;
-            this.audioTrack.setBufferSizeInFrames(i2);
+    private Period nextPeriod() {
+        ByteBuffer data = auxPeriod.data;
+        data.clear();
+        int maxLength = data.capacity() - data.capacity() % frameBytes;
+        SharedRingBuffer ringBuffer = this.ringBuffer;
+        if (ringBuffer != null) {
+            if (ringBuffer.read(data, maxLength) == 0) return null;
         }
+        else if (readQueue(data, maxLength) == 0) return null;
+        data.flip();
+        return auxPeriod;
     }
 
-    public int pointer() {
-        if (this.audioTrack != null) {
-            return this.position / this.frameBytes;
+    private int readQueue(ByteBuffer dst, int maxLength) {
+        synchronized (queueLock) {
+            if (queue == null) return 0;
+            int capacity = queue.capacity();
+            int length = Math.min(queueLength, maxLength);
+            length -= length % frameBytes;
+            int firstLength = Math.min(length, capacity - queueReadIndex);
+
+            ByteBuffer src = queue.duplicate();
+            src.limit(queueReadIndex + firstLength).position(queueReadIndex);
+            dst.put(src);
+            if (firstLength < length) {
+                src.limit(length - firstLength).position(0);
+                dst.put(src);
+            }
+
+            queueReadIndex = (queueReadIndex + length) % capacity;
+            queueLength -= length;
+            if (length > 0) queueLock.notifyAll();
+            return length;
         }
-        return 0;
+    }
+
+    private void discardPendingData() {
+        discardRequested = false;
+        if (ringBuffer != null) ringBuffer.discard();
+        currentPeriod = null;
+        converter.reset();
+        synchronized (queueLock) {
+            queueReadIndex = 0;
+            queueLength = 0;
+            queueLock.notifyAll();
+        }
+    }
+
+    /**
+     * Switches the stream to the shared memory ring protocol: the Wine side stops sending WRITE
+     * requests and publishes periods directly into the segment, which the mixer drains instead of
+     * the byte queue. Returns false if the stream has no shared memory segment.
+     */
+    public boolean enableRingBuffer() {
+        if (ringBuffer != null) return true;
+        if (sharedBuffer == null || auxPeriod == null) return false;
+        ringBuffer = new SharedRingBuffer(sharedBuffer, getBufferSizeInBytes());
+        return true;
+    }
+
+    public SharedRingBuffer getRingBuffer() {
+        return ringBuffer;
+    }
+
+    public int getUnderrunCount() {
+        return underrunCount;
+    }
+
+    public int getOverrunCount() {
+        return overrunCount;
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    public void setVolume(float volume) {
+        this.volume = volume;
+    }
+
+    /**
+     * Frames of this stream that have actually been played: frames handed to the mixer minus the
+     * mixer's output queue, scaled from the device rate to the stream rate. Never goes backwards
+     * between two prepares.
+     */
+    public synchronized int pointer() {
+        if (this.auxPeriod == null) return 0;
+        long delay = mixer.getOutputDelayFrames() * sampleRate / mixer.getSampleRate();
+        long playedFrames = mixedFrames - delay;
+        if (playedFrames > reportedFrames) reportedFrames = playedFrames;
+        return (int) reportedFrames;
     }
 
     public void setDataType(DataType dataType) {
@@ -223,19 +391,7 @@ public class ALSAClient {
     }
 
     public void setSharedBuffer(ByteBuffer sharedBuffer) {
-        if (sharedBuffer != null) {
-            ByteBuffer allocateDirect = ByteBuffer.allocateDirect(getBufferSizeInBytes());
-            ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
-            this.auxBuffer = allocateDirect.order(byteOrder);
-            this.sharedBuffer = sharedBuffer.order(byteOrder);
-            return;
-        }
-        this.auxBuffer = null;
-        this.sharedBuffer = null;
-    }
-
-    public ByteBuffer getAuxBuffer() {
-        return this.auxBuffer;
+        this.sharedBuffer = sharedBuffer != null ? sharedBuffer.order(ByteOrder.LITTLE_ENDIAN) : null;
     }
 
     public int getBufferSizeInBytes() {
@@ -253,6 +409,10 @@ public class ALSAClient {
         return i % this.frameBytes == 0 && i > 0;
     }
 
+    static short getFramesPerBuffer() {
+        return framesPerBuffer;
+    }
+
     public static void assignFramesPerBuffer(Context context) {
         try {
             AudioManager am = (AudioManager) context.getSystemService("audio");
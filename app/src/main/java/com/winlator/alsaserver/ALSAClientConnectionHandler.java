@@ -5,15 +5,17 @@ import com.winlator.xconnector.ConnectionHandler;
 
 public class ALSAClientConnectionHandler implements ConnectionHandler {
     private final ALSAClient.Options options;
+    private final ALSAMixer mixer;
 
-    public ALSAClientConnectionHandler(ALSAClient.Options options) {
+    public ALSAClientConnectionHandler(ALSAClient.Options options, ALSAMixer mixer) {
         this.options = options;
+        this.mixer = mixer;
     }
 
     @Override
     public void handleNewConnection(Client client) {
         client.createIOStreams();
-        client.setTag(new ALSAClient(this.options));
+        client.setTag(new ALSAClient(this.options, this.mixer));
     }
 
     @Override
@@ -0,0 +1,296 @@
+package com.winlator.alsaserver;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Process;
+
+import java.util.Arrays;
+
+/**
+ * Sums every prepared ALSAClient into a single stereo float AudioTrack running at the device's
+ * native sample rate, so games that open several PCM streams only pay for one Android output.
+ * The mixer thread is the only writer of the track and the only reader of the client queues.
+ */
+public class ALSAMixer implements Runnable {
+    private static final int OUTPUT_CHANNELS = 2;
+    private static final long TIMESTAMP_INTERVAL_NANOS = 250000000L;
+    private final ALSAClient.Options options;
+    private final Object lock = new Object();
+    private final int sampleRate;
+    private final int framesPerBuffer;
+    private final float[] mixBuffer;
+    private ALSAClient[] clients = new ALSAClient[0];
+    private AudioTrack audioTrack;
+    private LatencyController.Track latencyTrack;
+    private volatile Thread mixerThread;
+    private final LatencyController latencyController;
+    private volatile int activeStreamCount = 0;
+    private volatile float load = 0;
+    private volatile float peakLoad = 0;
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+    private final Object timestampLock = new Object();
+    private long framesWritten;
+    private long timestampFrames;
+    private long timestampNanos;
+    private boolean timestampValid;
+    private boolean trackPlaying;
+
+    public ALSAMixer(Context context, ALSAClient.Options options) {
+        this.options = options;
+        this.sampleRate = getNativeSampleRate(context);
+        this.framesPerBuffer = ALSAClient.getFramesPerBuffer();
+        this.mixBuffer = new float[framesPerBuffer * OUTPUT_CHANNELS];
+        this.latencyController = new LatencyController(sampleRate, framesPerBuffer, options.latencyMillis);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void addClient(ALSAClient client) {
+        synchronized (lock) {
+            for (ALSAClient other : clients) if (other == client) return;
+            ALSAClient[] newClients = Arrays.copyOf(clients, clients.length + 1);
+            newClients[clients.length] = client;
+            clients = newClients;
+            if (mixerThread == null) start();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Detaches a client, returns only once the mixer is no longer reading from it so the caller
+     * can safely unmap its shared memory.
+     */
+    public void removeClient(ALSAClient client) {
+        boolean stopMixer = false;
+        synchronized (lock) {
+            for (int i = 0; i < clients.length; i++) {
+                if (clients[i] == client) {
+                    ALSAClient[] newClients = new ALSAClient[clients.length - 1];
+                    System.arraycopy(clients, 0, newClients, 0, i);
+                    System.arraycopy(clients, i + 1, newClients, i, clients.length - i - 1);
+                    clients = newClients;
+                    stopMixer = clients.length == 0;
+                    break;
+                }
+            }
+        }
+        if (stopMixer) stop();
+    }
+
+    public void wakeUp() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    public void release() {
+        synchronized (lock) {
+            clients = new ALSAClient[0];
+        }
+        stop();
+    }
+
+    private void start() {
+        AudioFormat format = new AudioFormat.Builder().setEncoding(AudioFormat.ENCODING_PCM_FLOAT).setSampleRate(sampleRate).setChannelMask(AudioFormat.CHANNEL_OUT_STEREO).build();
+        int bufferSizeInBytes = ALSAClient.latencyMillisToBufferSize(options.latencyMillis, OUTPUT_CHANNELS, ALSAClient.DataType.FLOATLE, sampleRate);
+        audioTrack = new AudioTrack.Builder().setPerformanceMode(options.performanceMode).setAudioFormat(format).setBufferSizeInBytes(bufferSizeInBytes).build();
+        latencyTrack = LatencyController.Track.of(audioTrack);
+        latencyController.reset(latencyTrack);
+        synchronized (timestampLock) {
+            framesWritten = 0;
+            timestampFrames = 0;
+            timestampNanos = System.nanoTime();
+            timestampValid = false;
+            trackPlaying = false;
+        }
+
+        mixerThread = new Thread(this, "ALSAMixer");
+        mixerThread.setPriority(Thread.MAX_PRIORITY);
+        mixerThread.start();
+    }
+
+    private void stop() {
+        Thread mixerThread;
+        AudioTrack audioTrack;
+        synchronized (lock) {
+            if (this.mixerThread == null || clients.length > 0) return;
+            mixerThread = this.mixerThread;
+            audioTrack = this.audioTrack;
+            this.mixerThread = null;
+            this.audioTrack = null;
+            this.latencyTrack = null;
+            lock.notifyAll();
+        }
+
+        audioTrack.stop();
+        audioTrack.flush();
+        while (mixerThread.isAlive()) {
+            try {
+                mixerThread.join();
+            }
+            catch (InterruptedException e) {}
+        }
+        audioTrack.release();
+        activeStreamCount = 0;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        Thread currentThread = Thread.currentThread();
+        AudioTrack audioTrack = this.audioTrack;
+        LatencyController.Track latencyTrack = this.latencyTrack;
+        long blockNanos = framesPerBuffer * 1000000000L / sampleRate;
+
+        while (mixerThread == currentThread) {
+            int activeStreamCount = 0;
+            long startTime = System.nanoTime();
+            synchronized (lock) {
+                while (mixerThread == currentThread && !hasPlayingClient()) {
+                    if (audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+                        audioTrack.pause();
+                        freezePlaybackPosition();
+                    }
+                    this.activeStreamCount = 0;
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e) {}
+                    startTime = System.nanoTime();
+                }
+                if (mixerThread != currentThread) break;
+
+                Arrays.fill(mixBuffer, 0.0f);
+                for (ALSAClient client : clients) {
+                    if (client.mixInto(mixBuffer, framesPerBuffer)) activeStreamCount++;
+                }
+            }
+
+            for (int i = 0; i < mixBuffer.length; i++) {
+                float sample = mixBuffer[i];
+                mixBuffer[i] = sample > 1.0f ? 1.0f : (sample < -1.0f ? -1.0f : sample);
+            }
+            updateLoad((float) (System.nanoTime() - startTime) / blockNanos);
+            this.activeStreamCount = activeStreamCount;
+
+            if (audioTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) audioTrack.play();
+            int offset = 0;
+            while (offset < mixBuffer.length && mixerThread == currentThread) {
+                int written = audioTrack.write(mixBuffer, offset, mixBuffer.length - offset, AudioTrack.WRITE_BLOCKING);
+                if (written <= 0) break;
+                offset += written;
+            }
+            latencyController.update(latencyTrack, offset / OUTPUT_CHANNELS);
+
+            synchronized (timestampLock) {
+                framesWritten += offset / OUTPUT_CHANNELS;
+            }
+            updatePlaybackPosition(audioTrack);
+        }
+    }
+
+    /**
+     * Refreshes the hardware timestamp a few times per second, in between getPlayedFrames()
+     * extrapolates from the last one. Until the HAL delivers a timestamp the head position is used.
+     */
+    private void updatePlaybackPosition(AudioTrack audioTrack) {
+        long now = System.nanoTime();
+        if (trackPlaying && timestampValid && now - timestampNanos < TIMESTAMP_INTERVAL_NANOS) return;
+
+        boolean valid = audioTrack.getTimestamp(timestamp);
+        synchronized (timestampLock) {
+            if (valid) {
+                timestampFrames = timestamp.framePosition;
+                timestampNanos = timestamp.nanoTime;
+                timestampValid = true;
+            }
+            else {
+                timestampFrames = audioTrack.getPlaybackHeadPosition() & 0xffffffffL;
+                timestampNanos = now;
+            }
+            trackPlaying = true;
+        }
+    }
+
+    private void freezePlaybackPosition() {
+        synchronized (timestampLock) {
+            timestampFrames = getPlayedFrames();
+            timestampNanos = System.nanoTime();
+            trackPlaying = false;
+        }
+    }
+
+    /**
+     * Output frames the track has actually played, interpolated from the last hardware timestamp
+     * and never ahead of what the mixer has written.
+     */
+    public long getPlayedFrames() {
+        synchronized (timestampLock) {
+            long playedFrames = timestampFrames;
+            if (trackPlaying) playedFrames += Math.max(0, System.nanoTime() - timestampNanos) * sampleRate / 1000000000L;
+            return Math.min(playedFrames, framesWritten);
+        }
+    }
+
+    /**
+     * Output frames written to the track that have not been played yet.
+     */
+    public long getOutputDelayFrames() {
+        synchronized (timestampLock) {
+            return Math.max(0, framesWritten - getPlayedFrames());
+        }
+    }
+
+    private boolean hasPlayingClient() {
+        for (ALSAClient client : clients) if (client.isPlaying()) return true;
+        return false;
+    }
+
+    private void updateLoad(float blockLoad) {
+        load += (blockLoad - load) * 0.05f;
+        if (blockLoad > peakLoad) peakLoad = blockLoad;
+    }
+
+    /**
+     * Average time spent mixing one block as a fraction of the block's playback duration.
+     */
+    public float getLoad() {
+        return load;
+    }
+
+    public float getPeakLoad() {
+        return peakLoad;
+    }
+
+    public void resetPeakLoad() {
+        peakLoad = 0;
+    }
+
+    public LatencyController getLatencyController() {
+        return latencyController;
+    }
+
+    public int getActiveStreamCount() {
+        return activeStreamCount;
+    }
+
+    public int getUnderrunCount() {
+        return latencyController.getUnderrunCount();
+    }
+
+    private static int getNativeSampleRate(Context context) {
+        try {
+            AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+            int sampleRate = Integer.parseInt(am.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE));
+            return sampleRate > 0 ? sampleRate : 48000;
+        }
+        catch (Exception e) {
+            return 48000;
+        }
+    }
+}
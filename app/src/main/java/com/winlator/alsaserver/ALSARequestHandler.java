@@ -56,14 +56,16 @@ public class ALSARequestHandler implements RequestHandler {
                 ByteBuffer sharedBuffer = alsaClient.getSharedBuffer();
                 if (sharedBuffer != null) {
                     copySharedBuffer(alsaClient, requestLength, outputStream);
-                    alsaClient.writeDataToTrack(alsaClient.getAuxBuffer());
                     sharedBuffer.putInt(0, alsaClient.pointer());
                     return true;
                 }
                 if (inputStream.available() < requestLength) {
                     return false;
                 }
-                alsaClient.writeDataToTrack(inputStream.readByteBuffer(requestLength));
+                alsaClient.queueData(inputStream.readByteBuffer(requestLength));
+                return true;
+            case RequestCodes.ENABLE_RING_BUFFER:
+                enableRingBuffer(alsaClient, outputStream);
                 return true;
             case RequestCodes.DRAIN:
                 alsaClient.drain();
@@ -101,10 +103,9 @@ public class ALSARequestHandler implements RequestHandler {
 
     private void copySharedBuffer(ALSAClient alsaClient, int requestLength, XOutputStream outputStream) throws IOException {
         ByteBuffer sharedBuffer = alsaClient.getSharedBuffer();
-        ByteBuffer auxBuffer = alsaClient.getAuxBuffer();
-        auxBuffer.position(0).limit(requestLength);
         sharedBuffer.position(4).limit(requestLength + 4);
-        auxBuffer.put(sharedBuffer);
+        alsaClient.queueData(sharedBuffer);
+        sharedBuffer.clear();
         XStreamLock lock = outputStream.lock();
         try {
             outputStream.writeByte((byte) 1);
@@ -123,9 +124,20 @@ public class ALSARequestHandler implements RequestHandler {
         }
     }
 
+    private void enableRingBuffer(ALSAClient alsaClient, XOutputStream outputStream) throws IOException {
+        boolean enabled = alsaClient.enableRingBuffer();
+        try (XStreamLock lock = outputStream.lock()) {
+            if (enabled) {
+                outputStream.writeByte((byte) 1);
+                outputStream.writeInt(alsaClient.getRingBuffer().getHeaderOffset());
+            }
+            else outputStream.writeByte((byte) 0);
+        }
+    }
+
     private void createSharedMemory(ALSAClient alsaClient, XOutputStream outputStream) throws IOException {
         ByteBuffer buffer;
-        int shmSize = alsaClient.getBufferSizeInBytes() + 4;
+        int shmSize = SharedRingBuffer.getSegmentSize(alsaClient.getBufferSizeInBytes());
         StringBuilder sb = new StringBuilder();
         sb.append("alsa-shm");
         int i = this.maxSHMemoryId + 1;
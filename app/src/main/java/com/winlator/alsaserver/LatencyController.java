@@ -0,0 +1,158 @@
+package com.winlator.alsaserver;
+
+import android.media.AudioTrack;
+
+/**
+ * Sizes the mixer's AudioTrack buffer between two bursts and the configured latency. An underrun
+ * grows the buffer by one burst right away; a full observation window without underruns in which
+ * the slack never dropped to two bursts shrinks it by one burst. Growth blocks shrinking for a
+ * few windows so a single hiccup does not make the size oscillate.
+ *
+ * The slack is the audio that was still queued ahead of a block when the blocking write returned.
+ * Before the write the track is always nearly full, because the previous write only returned once
+ * there was room; the time the track drains is spent waiting for the write to wake up, so only a
+ * sample taken after it shows how close the track came to running dry.
+ */
+public class LatencyController {
+    private static final int WINDOW_MILLIS = 1000;
+    private static final int SHRINK_HOLDOFF_WINDOWS = 3;
+    private final int sampleRate;
+    private final int framesPerBuffer;
+    private final int minBufferSize;
+    private final int maxLatencyFrames;
+    private final int blocksPerWindow;
+    private int maxBufferSize;
+    private int bufferSize;
+    private int previousUnderrunCount;
+    private int windowBlocks;
+    private int windowUnderruns;
+    private int windowMinSlack;
+    private int holdoffWindows;
+    private long framesWritten;
+    private volatile int underrunCount;
+    private volatile float averageDepth;
+    private volatile float underrunsPerMinute;
+
+    /**
+     * The parts of an AudioTrack the controller reads and sets.
+     */
+    public interface Track {
+        int getPlaybackHeadPosition();
+
+        int getUnderrunCount();
+
+        int getBufferCapacityInFrames();
+
+        int setBufferSizeInFrames(int bufferSizeInFrames);
+
+        static Track of(AudioTrack audioTrack) {
+            return new Track() {
+                @Override
+                public int getPlaybackHeadPosition() {
+                    return audioTrack.getPlaybackHeadPosition();
+                }
+
+                @Override
+                public int getUnderrunCount() {
+                    return audioTrack.getUnderrunCount();
+                }
+
+                @Override
+                public int getBufferCapacityInFrames() {
+                    return audioTrack.getBufferCapacityInFrames();
+                }
+
+                @Override
+                public int setBufferSizeInFrames(int bufferSizeInFrames) {
+                    return audioTrack.setBufferSizeInFrames(bufferSizeInFrames);
+                }
+            };
+        }
+    }
+
+    public LatencyController(int sampleRate, int framesPerBuffer, int latencyMillis) {
+        this.sampleRate = sampleRate;
+        this.framesPerBuffer = framesPerBuffer;
+        this.minBufferSize = framesPerBuffer * 2;
+        this.maxLatencyFrames = Math.max(minBufferSize, latencyMillis * sampleRate / 1000);
+        this.blocksPerWindow = Math.max(1, WINDOW_MILLIS * sampleRate / 1000 / framesPerBuffer);
+    }
+
+    public void reset(Track audioTrack) {
+        maxBufferSize = Math.max(minBufferSize, Math.min(maxLatencyFrames, audioTrack.getBufferCapacityInFrames()));
+        bufferSize = audioTrack.setBufferSizeInFrames(Math.max(minBufferSize, maxBufferSize / 2));
+        previousUnderrunCount = audioTrack.getUnderrunCount();
+        framesWritten = 0;
+        underrunCount = 0;
+        averageDepth = bufferSize;
+        underrunsPerMinute = 0;
+        holdoffWindows = 0;
+        startWindow();
+    }
+
+    /**
+     * Called by the mixer thread right after the blocking write of a block returns.
+     */
+    public void update(Track audioTrack, int framesWritten) {
+        this.framesWritten += framesWritten;
+        int depth = (int) (this.framesWritten - (audioTrack.getPlaybackHeadPosition() & 0xffffffffL));
+        int slack = Math.max(depth - framesWritten, 0);
+        // the queue saws between the slack and the slack plus a block
+        averageDepth += (slack + framesWritten / 2.0f - averageDepth) * 0.05f;
+        if (slack < windowMinSlack) windowMinSlack = slack;
+
+        int underrunCount = audioTrack.getUnderrunCount();
+        if (underrunCount > previousUnderrunCount) {
+            windowUnderruns += underrunCount - previousUnderrunCount;
+            this.underrunCount += underrunCount - previousUnderrunCount;
+            previousUnderrunCount = underrunCount;
+            if (bufferSize < maxBufferSize) {
+                bufferSize = audioTrack.setBufferSizeInFrames(Math.min(bufferSize + framesPerBuffer, maxBufferSize));
+            }
+            holdoffWindows = SHRINK_HOLDOFF_WINDOWS;
+        }
+
+        if (++windowBlocks >= blocksPerWindow) endWindow(audioTrack);
+    }
+
+    private void endWindow(Track audioTrack) {
+        underrunsPerMinute += (windowUnderruns * (60000.0f / WINDOW_MILLIS) - underrunsPerMinute) * 0.2f;
+
+        if (holdoffWindows > 0) {
+            holdoffWindows--;
+        }
+        else if (windowUnderruns == 0 && windowMinSlack > framesPerBuffer * 2 && bufferSize > minBufferSize) {
+            bufferSize = audioTrack.setBufferSizeInFrames(Math.max(bufferSize - framesPerBuffer, minBufferSize));
+        }
+        startWindow();
+    }
+
+    private void startWindow() {
+        windowBlocks = 0;
+        windowUnderruns = 0;
+        windowMinSlack = Integer.MAX_VALUE;
+    }
+
+    public int getBufferSizeInFrames() {
+        return bufferSize;
+    }
+
+    /**
+     * Average amount of audio queued in the track, which is the output latency the mixer achieves.
+     */
+    public float getLatencyMillis() {
+        return averageDepth * 1000.0f / sampleRate;
+    }
+
+    public float getBufferLatencyMillis() {
+        return bufferSize * 1000.0f / sampleRate;
+    }
+
+    public float getUnderrunsPerMinute() {
+        return underrunsPerMinute;
+    }
+
+    public int getUnderrunCount() {
+        return underrunCount;
+    }
+}
@@ -0,0 +1,221 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Per-stream conversion stage between an ALSA period and the mixer: decodes any ALSA sample format
+ * to float (byte swapping through the big endian views of the period), clamps float input,
+ * up/down-mixes to stereo and resamples to the mixer rate with a windowed-sinc polyphase filter.
+ * All buffers are sized in configure(), the per-block path does not allocate.
+ */
+public class SampleConverter {
+    public static final int OUTPUT_CHANNELS = 2;
+    private static final int WINDOW_FRAMES = 1024;
+    private static final int PHASES = 128;
+    private static final int TAPS = 16;
+    private static final int HALF_TAPS = TAPS / 2;
+    private static final float CUTOFF = 0.9f;
+    private final float[] coefficients = new float[(PHASES + 1) * TAPS];
+    private final float[] input = new float[(WINDOW_FRAMES + TAPS) * OUTPUT_CHANNELS];
+    private float[] leftGains = new float[0];
+    private float[] rightGains = new float[0];
+    private byte[] byteScratch = new byte[0];
+    private short[] shortScratch = new short[0];
+    private float[] floatScratch = new float[0];
+    private ALSAClient.DataType dataType = ALSAClient.DataType.U8;
+    private int channels;
+    private boolean passthrough;
+    private double step;
+    private double position;
+    private int inputFrames;
+
+    public void configure(ALSAClient.DataType dataType, int channels, int inputRate, int outputRate) {
+        this.dataType = dataType;
+        this.channels = channels;
+        this.passthrough = inputRate == outputRate;
+        this.step = (double) inputRate / outputRate;
+
+        int samples = WINDOW_FRAMES * channels;
+        if (byteScratch.length < samples) byteScratch = new byte[samples];
+        if (shortScratch.length < samples) shortScratch = new short[samples];
+        if (floatScratch.length < samples) floatScratch = new float[samples];
+
+        computeChannelGains(channels);
+        if (!passthrough) computeCoefficients(Math.min(1.0f, (float) outputRate / inputRate) * CUTOFF);
+        reset();
+    }
+
+    /**
+     * Drops all buffered input, the next output frame lines up with the next decoded frame.
+     */
+    public void reset() {
+        inputFrames = passthrough ? 0 : HALF_TAPS - 1;
+        position = inputFrames;
+        for (int i = 0; i < inputFrames * OUTPUT_CHANNELS; i++) input[i] = 0;
+    }
+
+    /**
+     * Source frames decoded but not yet consumed by the resampler.
+     */
+    public int getBufferedFrames() {
+        return Math.max(0, (int) (inputFrames - position));
+    }
+
+    /**
+     * Number of source frames write() can still take without overflowing the input window.
+     */
+    public int getInputSpace() {
+        compact();
+        return WINDOW_FRAMES + TAPS - inputFrames;
+    }
+
+    /**
+     * Decodes frames from data at its current position into the input window and advances data
+     * past them. shorts and floats must be views created from data at position 0. Returns the
+     * number of frames taken.
+     */
+    public int write(ByteBuffer data, ShortBuffer shorts, FloatBuffer floats, int frames) {
+        frames = Math.min(frames, Math.min(getInputSpace(), WINDOW_FRAMES));
+        int samples = frames * channels;
+        float[] source = floatScratch;
+
+        switch (dataType) {
+            case U8:
+                data.get(byteScratch, 0, samples);
+                for (int i = 0; i < samples; i++) source[i] = ((byteScratch[i] & 0xff) - 128) * (1.0f / 128.0f);
+                break;
+            case S16LE:
+            case S16BE:
+                shorts.position(data.position() >> 1);
+                shorts.get(shortScratch, 0, samples);
+                data.position(data.position() + samples * 2);
+                for (int i = 0; i < samples; i++) source[i] = shortScratch[i] * (1.0f / 32768.0f);
+                break;
+            default:
+                floats.position(data.position() >> 2);
+                floats.get(source, 0, samples);
+                data.position(data.position() + samples * 4);
+                for (int i = 0; i < samples; i++) {
+                    float sample = source[i];
+                    source[i] = sample > 1.0f ? 1.0f : (sample >= -1.0f ? sample : (sample < -1.0f ? -1.0f : 0.0f));
+                }
+                break;
+        }
+
+        int j = inputFrames * OUTPUT_CHANNELS;
+        if (channels == 1) {
+            for (int i = 0; i < samples; i++, j += 2) input[j] = input[j+1] = source[i];
+        }
+        else if (channels == 2) {
+            System.arraycopy(source, 0, input, j, samples);
+        }
+        else {
+            for (int i = 0; i < samples; i += channels, j += 2) {
+                float left = 0, right = 0;
+                for (int c = 0; c < channels; c++) {
+                    left += source[i+c] * leftGains[c];
+                    right += source[i+c] * rightGains[c];
+                }
+                input[j] = left;
+                input[j+1] = right;
+            }
+        }
+        inputFrames += frames;
+        return frames;
+    }
+
+    /**
+     * Resamples buffered input into up to frames output frames, scales them by volume and adds them
+     * to the interleaved stereo mix buffer starting at frame offset. Returns the frames produced,
+     * less than requested once the input window runs dry.
+     */
+    public int mixInto(float[] mixBuffer, int offset, int frames, float volume) {
+        int j = offset * OUTPUT_CHANNELS;
+        int i = 0;
+        if (passthrough) {
+            int base = (int) position;
+            int count = Math.min(frames, inputFrames - base);
+            for (int s = base * OUTPUT_CHANNELS, end = j + count * OUTPUT_CHANNELS; j < end; s++, j++) mixBuffer[j] += input[s] * volume;
+            position += count;
+            return count;
+        }
+
+        for (; i < frames; i++, j += 2) {
+            int base = (int) position;
+            if (base + HALF_TAPS >= inputFrames) break;
+
+            float phase = (float) (position - base) * PHASES;
+            int p = Math.min((int) phase, PHASES - 1);
+            float t = phase - p;
+            int c0 = p * TAPS;
+            int c1 = c0 + TAPS;
+            int s = (base - HALF_TAPS + 1) * OUTPUT_CHANNELS;
+            float left = 0, right = 0;
+            for (int k = 0; k < TAPS; k++, s += 2) {
+                float h = coefficients[c0+k] + (coefficients[c1+k] - coefficients[c0+k]) * t;
+                left += h * input[s];
+                right += h * input[s+1];
+            }
+            mixBuffer[j] += left * volume;
+            mixBuffer[j+1] += right * volume;
+            position += step;
+        }
+        return i;
+    }
+
+    private void compact() {
+        int drop = passthrough ? (int) position : (int) position - HALF_TAPS + 1;
+        if (drop <= 0) return;
+        System.arraycopy(input, drop * OUTPUT_CHANNELS, input, 0, (inputFrames - drop) * OUTPUT_CHANNELS);
+        inputFrames -= drop;
+        position -= drop;
+    }
+
+    /**
+     * Gains for the standard ALSA channel order FL FR RL RR FC LFE SL SR. Each output side is
+     * normalized so a full scale signal on every channel cannot clip, LFE is dropped.
+     */
+    private void computeChannelGains(int channels) {
+        leftGains = new float[channels];
+        rightGains = new float[channels];
+        if (channels <= 2) return;
+
+        final float diagonal = 0.7071f;
+        for (int c = 0; c < channels; c++) {
+            switch (c) {
+                case 0: leftGains[c] = 1.0f; break;
+                case 1: rightGains[c] = 1.0f; break;
+                case 2: case 6: leftGains[c] = diagonal; break;
+                case 3: case 7: rightGains[c] = diagonal; break;
+                case 4: leftGains[c] = rightGains[c] = diagonal; break;
+            }
+        }
+
+        float leftSum = 0, rightSum = 0;
+        for (int c = 0; c < channels; c++) {
+            leftSum += leftGains[c];
+            rightSum += rightGains[c];
+        }
+        for (int c = 0; c < channels; c++) {
+            leftGains[c] /= leftSum;
+            rightGains[c] /= rightSum;
+        }
+    }
+
+    private void computeCoefficients(float cutoff) {
+        for (int p = 0; p <= PHASES; p++) {
+            float sum = 0;
+            for (int k = 0; k < TAPS; k++) {
+                double x = k - (HALF_TAPS - 1) - (double) p / PHASES;
+                double sinc = x == 0 ? cutoff : Math.sin(Math.PI * cutoff * x) / (Math.PI * x);
+                double window = 0.42 + 0.5 * Math.cos(Math.PI * x / HALF_TAPS) + 0.08 * Math.cos(2 * Math.PI * x / HALF_TAPS);
+                float h = (float) (sinc * window);
+                coefficients[p * TAPS + k] = h;
+                sum += h;
+            }
+            for (int k = 0; k < TAPS; k++) coefficients[p * TAPS + k] /= sum;
+        }
+    }
+}
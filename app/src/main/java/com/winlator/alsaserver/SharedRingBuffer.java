@@ -0,0 +1,105 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Single-producer/single-consumer byte ring living inside the ALSA shared memory segment.
+ *
+ * Segment layout, all integers little endian:
+ *   [0, 4)                         playback position in frames, written by the server
+ *   [4, 4 + capacity)              ring storage (the period buffer of the legacy WRITE protocol)
+ *   [headerOffset + 0, +4)         write index, advanced by the producer (Wine ALSA plugin)
+ *   [headerOffset + 64, +4)        read index, advanced by the consumer (mixer thread)
+ *
+ * Indices run modulo 2 * capacity so a full ring can be told apart from an empty one for any
+ * capacity, the storage offset of an index is index % capacity. Each index sits on its own cache
+ * line and both sides access them with sequentially consistent atomics.
+ *
+ * There is no wake-up signal: the consumer is the mixer thread, which is paced by the AudioTrack
+ * and polls every ring once per block, an empty ring just mixes silence for that stream. Blocking
+ * it on one stream's ring would stall all the others.
+ */
+public class SharedRingBuffer {
+    public static final int DATA_OFFSET = 4;
+    private static final int CACHE_LINE_SIZE = 64;
+    private static final int WRITE_INDEX_OFFSET = 0;
+    private static final int READ_INDEX_OFFSET = CACHE_LINE_SIZE;
+    private static final int HEADER_SIZE = CACHE_LINE_SIZE * 2;
+    private final ByteBuffer sharedBuffer;
+    private final ByteBuffer ringData;
+    private final int capacity;
+    private final int headerOffset;
+
+    static {
+        System.loadLibrary("winlator");
+    }
+
+    public SharedRingBuffer(ByteBuffer sharedBuffer, int capacity) {
+        this.sharedBuffer = sharedBuffer;
+        this.ringData = sharedBuffer.duplicate();
+        this.capacity = capacity;
+        this.headerOffset = getHeaderOffset(capacity);
+
+        storeInt(sharedBuffer, headerOffset + WRITE_INDEX_OFFSET, 0);
+        storeInt(sharedBuffer, headerOffset + READ_INDEX_OFFSET, 0);
+    }
+
+    public static int getHeaderOffset(int capacity) {
+        int end = DATA_OFFSET + capacity;
+        return (end + CACHE_LINE_SIZE - 1) & ~(CACHE_LINE_SIZE - 1);
+    }
+
+    public static int getSegmentSize(int capacity) {
+        return getHeaderOffset(capacity) + HEADER_SIZE;
+    }
+
+    public int getHeaderOffset() {
+        return headerOffset;
+    }
+
+    public int available() {
+        int writeIndex = loadInt(sharedBuffer, headerOffset + WRITE_INDEX_OFFSET);
+        int readIndex = loadInt(sharedBuffer, headerOffset + READ_INDEX_OFFSET);
+        return distance(readIndex, writeIndex);
+    }
+
+    /**
+     * Copies up to maxBytes of pending data into dst starting at its current position and
+     * releases the consumed space back to the producer. Returns the number of bytes copied.
+     */
+    public int read(ByteBuffer dst, int maxBytes) {
+        int writeIndex = loadInt(sharedBuffer, headerOffset + WRITE_INDEX_OFFSET);
+        int readIndex = loadInt(sharedBuffer, headerOffset + READ_INDEX_OFFSET);
+        int length = Math.min(Math.min(distance(readIndex, writeIndex), capacity), Math.min(maxBytes, dst.remaining()));
+        if (length <= 0) return 0;
+
+        int start = readIndex % capacity;
+        int firstPart = Math.min(length, capacity - start);
+        ringData.limit(DATA_OFFSET + start + firstPart).position(DATA_OFFSET + start);
+        dst.put(ringData);
+        if (firstPart < length) {
+            ringData.limit(DATA_OFFSET + length - firstPart).position(DATA_OFFSET);
+            dst.put(ringData);
+        }
+
+        storeInt(sharedBuffer, headerOffset + READ_INDEX_OFFSET, (readIndex + length) % (capacity * 2));
+        return length;
+    }
+
+    /**
+     * Drops all pending data, must only be called from the consumer thread.
+     */
+    public void discard() {
+        int writeIndex = loadInt(sharedBuffer, headerOffset + WRITE_INDEX_OFFSET);
+        storeInt(sharedBuffer, headerOffset + READ_INDEX_OFFSET, writeIndex);
+    }
+
+    private int distance(int readIndex, int writeIndex) {
+        int length = writeIndex - readIndex;
+        return length < 0 ? length + capacity * 2 : length;
+    }
+
+    private static native int loadInt(ByteBuffer buffer, int offset);
+
+    private static native void storeInt(ByteBuffer buffer, int offset, int value);
+}
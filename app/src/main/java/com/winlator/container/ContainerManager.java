@@ -28,10 +28,12 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 public class ContainerManager {
+    private static final String[] DEDUPLICATED_DIRS = {".wine/drive_c/windows/system32", ".wine/drive_c/windows/syswow64"};
     private final ArrayList<Container> containers = new ArrayList<>();
     private int maxContainerId = 0;
     private final File homeDir;
     private final Context context;
+    private final ContentStore contentStore;
 
     public ContainerManager(Context context) {
         this.context = context;
@@ -45,6 +47,7 @@ public class ContainerManager {
         }
         File rootDir = ImageFs.find(context).getRootDir();
         homeDir = new File(rootDir, "home");
+        contentStore = ContentStore.getInstance(ImageFs.find(context).getContentStoreDir());
         loadContainers();
     }
 
@@ -202,7 +205,7 @@ public class ContainerManager {
         File dstDir = new File(homeDir, ImageFs.USER+"-"+id);
         if (!dstDir.mkdirs()) return;
 
-        if (!FileUtils.copy(srcContainer.getRootDir(), dstDir, (file) -> FileUtils.chmod(file, 0771))) {
+        if (!contentStore.copy(srcContainer.getRootDir(), dstDir)) {
             FileUtils.delete(dstDir);
             return;
         }
@@ -236,8 +239,17 @@ public class ContainerManager {
         containers.add(dstContainer);
     }
 
+    private void deduplicateContainerFiles(File containerDir) {
+        contentStore.deduplicateTrees(containerDir, DEDUPLICATED_DIRS);
+    }
+
     private void removeContainer(Container container) {
-        if (FileUtils.delete(container.getRootDir())) containers.remove(container);
+        if (FileUtils.delete(container.getRootDir())) {
+            containers.remove(container);
+            ArrayList<File> rootDirs = new ArrayList<>();
+            for (Container remaining : containers) rootDirs.add(remaining.getRootDir());
+            contentStore.collectGarbage(rootDirs);
+        }
     }
 
     public ArrayList<Shortcut> loadShortcuts() {
@@ -280,7 +292,7 @@ public class ContainerManager {
                 dstFile = onExtractFileListener.onExtractFile(dstFile, 0);
                 if (dstFile == null) continue;
             }
-            FileUtils.copy(new File(srcDir, dlname), dstFile);
+            contentStore.copy(new File(srcDir, dlname), dstFile);
         }
     }
 
@@ -297,6 +309,7 @@ public class ContainerManager {
                 catch (JSONException e) {
                     return false;
                 }
+                deduplicateContainerFiles(containerDir);
             }
 
             return result;
@@ -306,7 +319,9 @@ public class ContainerManager {
             WineInfo wineInfo = WineInfo.fromIdentifier(context, wineVersion);
             String suffix = wineInfo.fullVersion()+"-"+wineInfo.getArch();
             File file = new File(installedWineDir, "container-pattern-"+suffix+".tzst");
-            return TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, file, containerDir, onExtractFileListener);
+            boolean result = TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, file, containerDir, onExtractFileListener);
+            if (result) deduplicateContainerFiles(containerDir);
+            return result;
         }
     }
 }
@@ -0,0 +1,236 @@
+package com.winlator.container;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.util.Log;
+
+import com.winlator.core.FileUtils;
+import com.winlator.core.StreamUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Content addressed store for container files, kept under the image root. Every distinct file
+ * content is stored once as objects/<first 2 hex digits>/<rest of its SHA-256> and container files
+ * with that content are reflink clones of it (FICLONE): they share data blocks on disk, but the
+ * filesystem copies a block as soon as anyone writes to it, so a guest rewriting a DLL in one
+ * container never affects another container or the store.
+ *
+ * Sharing needs reflink support (btrfs, xfs, bcachefs). The ext4 and f2fs data partitions of most
+ * devices have none, there nothing is shared and files are plainly copied. Hard links are not a
+ * fallback: guest processes write files in place through their own fds, so there is no point at
+ * which a link could be broken before a write reaches every container.
+ *
+ * Each deduplicated container records the objects its files were cloned from in .content_refs,
+ * with the size and modification time of the file, so objects no unchanged file refers to any
+ * more can be collected without hashing the containers again.
+ *
+ * There is one instance per store directory, so all ContainerManagers serialize on the same lock.
+ */
+class ContentStore {
+    private static final String REFS_FILE = ".content_refs";
+    private static final HashMap<File, ContentStore> instances = new HashMap<>();
+    private final File storeDir;
+    private final File objectsDir;
+    private Boolean reflinkSupported;
+
+    static {
+        System.loadLibrary("winlator");
+    }
+
+    private ContentStore(File storeDir) {
+        this.storeDir = storeDir;
+        this.objectsDir = new File(storeDir, "objects");
+    }
+
+    public static synchronized ContentStore getInstance(File storeDir) {
+        File key = storeDir.getAbsoluteFile();
+        ContentStore instance = instances.get(key);
+        if (instance == null) {
+            instance = new ContentStore(key);
+            instances.put(key, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Checks once whether the filesystem holding the store can clone files.
+     */
+    public synchronized boolean isReflinkSupported() {
+        if (reflinkSupported == null) {
+            storeDir.mkdirs();
+            File srcFile = new File(storeDir, ".probe");
+            File dstFile = new File(storeDir, ".probe-clone");
+            try (FileOutputStream outStream = new FileOutputStream(srcFile)) {
+                outStream.write(0);
+                outStream.close();
+                reflinkSupported = cloneFile(srcFile.getPath(), dstFile.getPath());
+            }
+            catch (IOException e) {
+                reflinkSupported = false;
+            }
+            srcFile.delete();
+            dstFile.delete();
+            Log.d("ContentStore", "Reflink support: " + reflinkSupported);
+        }
+        return reflinkSupported;
+    }
+
+    /**
+     * Replaces file by a clone of the stored object with the same content, adding it to the store
+     * if there is none. Returns the hash of the object, null if nothing was shared.
+     */
+    private String deduplicate(File file) {
+        String path = file.getPath();
+        try {
+            StructStat stat = Os.lstat(path);
+            if (!OsConstants.S_ISREG(stat.st_mode)) return null;
+
+            String hash = hashFile(file);
+            File objectFile = getObjectFile(hash);
+            if (objectFile.isFile() && objectFile.length() == stat.st_size) {
+                File cloneFile = new File(path+".clone");
+                if (!cloneFile(objectFile.getPath(), cloneFile.getPath())) return null;
+                Os.chmod(cloneFile.getPath(), stat.st_mode & 07777);
+                Os.rename(cloneFile.getPath(), path);
+            }
+            else {
+                File parent = objectFile.getParentFile();
+                if (!parent.isDirectory()) parent.mkdirs();
+                File cloneFile = new File(objectFile.getPath()+".tmp");
+                if (!cloneFile(path, cloneFile.getPath())) return null;
+                Os.rename(cloneFile.getPath(), objectFile.getPath());
+            }
+            return hash;
+        }
+        catch (ErrnoException | IOException e) {
+            Log.w("ContentStore", "Failed to store "+path+": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Deduplicates every regular file below the given subdirectories of rootDir, symlinks are left
+     * alone, and replaces the references recorded for rootDir.
+     */
+    public synchronized void deduplicateTrees(File rootDir, String[] dirs) {
+        if (!isReflinkSupported()) return;
+        StringBuilder refs = new StringBuilder();
+        for (String dir : dirs) deduplicateTree(new File(rootDir, dir), dir, refs);
+        FileUtils.writeString(new File(rootDir, REFS_FILE), refs.toString());
+    }
+
+    private void deduplicateTree(File dir, String relativePath, StringBuilder refs) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (FileUtils.isSymlink(file)) continue;
+            String filePath = relativePath+"/"+file.getName();
+            if (file.isDirectory()) {
+                deduplicateTree(file, filePath, refs);
+            }
+            else {
+                String hash = deduplicate(file);
+                if (hash != null) refs.append(hash).append(' ').append(file.length()).append(' ').append(file.lastModified()).append(' ').append(filePath).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Like FileUtils.copy, but regular files are cloned instead of copied when the filesystem
+     * supports it.
+     */
+    public boolean copy(File srcFile, File dstFile) {
+        if (FileUtils.isSymlink(srcFile)) return true;
+        if (srcFile.isDirectory()) {
+            if (!dstFile.exists() && !dstFile.mkdirs()) return false;
+            FileUtils.chmod(dstFile, 0771);
+
+            String[] filenames = srcFile.list();
+            if (filenames != null) {
+                for (String filename : filenames) {
+                    if (!copy(new File(srcFile, filename), new File(dstFile, filename))) return false;
+                }
+            }
+            return true;
+        }
+
+        File parent = dstFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) return false;
+        if (isReflinkSupported() && cloneFile(srcFile.getPath(), dstFile.getPath())) return true;
+        return FileUtils.copy(srcFile, dstFile, (file) -> FileUtils.chmod(file, 0771));
+    }
+
+    /**
+     * Removes the stored objects that no unchanged file below rootDirs was cloned from. Clones keep
+     * their data, so this only releases the blocks no container shares any more.
+     */
+    public synchronized void collectGarbage(List<File> rootDirs) {
+        if (!objectsDir.isDirectory()) return;
+        HashSet<String> liveHashes = new HashSet<>();
+        for (File rootDir : rootDirs) {
+            File refsFile = new File(rootDir, REFS_FILE);
+            if (!refsFile.isFile()) continue;
+            for (String line : FileUtils.readLines(refsFile)) {
+                String[] parts = line.split(" ", 4);
+                if (parts.length < 4) continue;
+                File file = new File(rootDir, parts[3]);
+                try {
+                    if (file.length() == Long.parseLong(parts[1]) && file.lastModified() == Long.parseLong(parts[2])) liveHashes.add(parts[0]);
+                }
+                catch (NumberFormatException e) {}
+            }
+        }
+
+        int removedCount = 0;
+        File[] prefixDirs = objectsDir.listFiles();
+        if (prefixDirs == null) return;
+        for (File prefixDir : prefixDirs) {
+            File[] objectFiles = prefixDir.listFiles();
+            if (objectFiles == null) continue;
+            for (File objectFile : objectFiles) {
+                if (!liveHashes.contains(prefixDir.getName()+objectFile.getName()) && objectFile.delete()) removedCount++;
+            }
+            String[] remaining = prefixDir.list();
+            if (remaining != null && remaining.length == 0) prefixDir.delete();
+        }
+        if (removedCount > 0) Log.d("ContentStore", "Removed "+removedCount+" unreferenced objects");
+    }
+
+    private File getObjectFile(String hash) {
+        return new File(objectsDir, hash.substring(0, 2)+"/"+hash.substring(2));
+    }
+
+    private static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        try (InputStream inStream = new FileInputStream(file)) {
+            byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = inStream.read(buffer)) != -1) digest.update(buffer, 0, bytesRead);
+        }
+
+        StringBuilder hash = new StringBuilder();
+        for (byte value : digest.digest()) hash.append(String.format("%02x", value & 0xff));
+        return hash.toString();
+    }
+
+    private static native boolean cloneFile(String srcPath, String dstPath);
+}
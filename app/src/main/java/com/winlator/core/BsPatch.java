@@ -0,0 +1,95 @@
+package com.winlator.core;
+
+import android.util.Log;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Applies patches in the BSDIFF40 format produced by bsdiff: a 32 byte header (magic, length of
+ * the control block, length of the diff block, size of the new file) followed by the bzip2
+ * compressed control, diff and extra blocks.
+ */
+public abstract class BsPatch {
+    private static final String MAGIC = "BSDIFF40";
+
+    public static boolean apply(File oldFile, File patchFile, File newFile) {
+        try {
+            byte[] oldData = Files.readAllBytes(oldFile.toPath());
+            byte[] patch = Files.readAllBytes(patchFile.toPath());
+            byte[] newData = apply(oldData, patch);
+            try (FileOutputStream outStream = new FileOutputStream(newFile)) {
+                outStream.write(newData);
+            }
+            return true;
+        }
+        catch (IOException e) {
+            Log.e("BsPatch", "Failed to patch "+oldFile+": " + e);
+            newFile.delete();
+            return false;
+        }
+    }
+
+    public static byte[] apply(byte[] oldData, byte[] patch) throws IOException {
+        if (patch.length < 32 || !new String(patch, 0, 8).equals(MAGIC)) throw new IOException("Corrupt patch");
+        long controlLength = readOffset(patch, 8);
+        long diffLength = readOffset(patch, 16);
+        long newSize = readOffset(patch, 24);
+        if (controlLength < 0 || diffLength < 0 || newSize < 0 || newSize > Integer.MAX_VALUE ||
+            32 + controlLength + diffLength > patch.length) throw new IOException("Corrupt patch");
+
+        byte[] newData = new byte[(int)newSize];
+        try (InputStream controlStream = openBlock(patch, 32, controlLength);
+             InputStream diffStream = openBlock(patch, 32 + controlLength, diffLength);
+             InputStream extraStream = openBlock(patch, 32 + controlLength + diffLength, patch.length - 32 - controlLength - diffLength)) {
+            byte[] control = new byte[24];
+            int oldPosition = 0;
+            int newPosition = 0;
+            while (newPosition < newSize) {
+                readFully(controlStream, control, 0, 24);
+                long diffSize = readOffset(control, 0);
+                long extraSize = readOffset(control, 8);
+                long seek = readOffset(control, 16);
+                if (diffSize < 0 || extraSize < 0 || newPosition + diffSize + extraSize > newSize) throw new IOException("Corrupt patch");
+
+                readFully(diffStream, newData, newPosition, (int)diffSize);
+                for (int i = 0; i < diffSize; i++) {
+                    long position = (long)oldPosition + i;
+                    if (position >= 0 && position < oldData.length) newData[newPosition + i] += oldData[(int)position];
+                }
+                newPosition += (int)diffSize;
+                oldPosition += (int)diffSize;
+
+                readFully(extraStream, newData, newPosition, (int)extraSize);
+                newPosition += (int)extraSize;
+                oldPosition += (int)seek;
+            }
+        }
+        return newData;
+    }
+
+    private static InputStream openBlock(byte[] patch, long offset, long length) throws IOException {
+        return new BZip2CompressorInputStream(new ByteArrayInputStream(patch, (int)offset, (int)length));
+    }
+
+    private static void readFully(InputStream inStream, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int bytesRead = inStream.read(buffer, offset, length);
+            if (bytesRead == -1) throw new IOException("Corrupt patch");
+            offset += bytesRead;
+            length -= bytesRead;
+        }
+    }
+
+    private static long readOffset(byte[] buffer, int offset) {
+        long value = buffer[offset + 7] & 0x7f;
+        for (int i = 6; i >= 0; i--) value = (value << 8) | (buffer[offset + i] & 0xff);
+        return (buffer[offset + 7] & 0x80) != 0 ? -value : value;
+    }
+}
@@ -0,0 +1,311 @@
+package com.winlator.core;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decouples guest stdout/stderr from everything that consumes it. Producers put lines into a
+ * bounded lock-free ring and never wait: when the ring is full the line is dropped and counted,
+ * and each source is limited to a number of lines per second. A single writer thread delivers the
+ * lines to the sink and, if set, to a log file that is rotated into gzip compressed backups. The
+ * writer also reports how many lines each source had suppressed, once per second while there is
+ * anything to report, so the summary does not wait for the source to speak again.
+ * Rotation only renames the full file on the writer thread, the backup is compressed on a
+ * separate thread.
+ */
+public class GuestLogPipeline implements Runnable {
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int DEFAULT_LINES_PER_SECOND = 1000;
+    private static final long SUMMARY_INTERVAL_NANOS = 1000000000L;
+    private final int capacity;
+    private final AtomicReferenceArray<String> lines;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    private final AtomicLong totalDroppedCount = new AtomicLong();
+    private volatile boolean writerWaiting = false;
+    private final ConcurrentLinkedQueue<Source> suppressingSources = new ConcurrentLinkedQueue<>();
+    private long lastSummaryTime = 0;
+    private final Callback<String> sink;
+    private volatile Thread writerThread;
+    private final Object fileLock = new Object();
+    private File logFile;
+    private OutputStream logStream;
+    private long logFileSize;
+    private long maxLogFileSize;
+    private int maxBackupCount;
+    private int rotationCount = 0;
+    private ExecutorService compressExecutor;
+
+    /**
+     * Rate limiting state of one producer (a pipe of a process). Only the producing thread may
+     * offer lines for a given source.
+     */
+    public static class Source {
+        private final String name;
+        private final int linesPerSecond;
+        private float tokens;
+        private long lastRefillTime;
+        private final AtomicInteger suppressedCount = new AtomicInteger();
+        private final AtomicBoolean summaryQueued = new AtomicBoolean();
+
+        public Source(String name) {
+            this(name, DEFAULT_LINES_PER_SECOND);
+        }
+
+        public Source(String name, int linesPerSecond) {
+            this.name = name;
+            this.linesPerSecond = linesPerSecond;
+            this.tokens = linesPerSecond;
+            this.lastRefillTime = System.nanoTime();
+        }
+
+        private boolean tryAcquire() {
+            long currentTime = System.nanoTime();
+            tokens = Math.min(linesPerSecond, tokens + (currentTime - lastRefillTime) * linesPerSecond / 1e9f);
+            lastRefillTime = currentTime;
+            if (tokens < 1) return false;
+            tokens -= 1;
+            return true;
+        }
+    }
+
+    public GuestLogPipeline(Callback<String> sink) {
+        this(sink, DEFAULT_CAPACITY);
+    }
+
+    public GuestLogPipeline(Callback<String> sink, int capacity) {
+        this.sink = sink;
+        this.capacity = capacity;
+        this.lines = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequences.set(i, i);
+    }
+
+    public synchronized void start() {
+        if (writerThread != null) return;
+        writerThread = new Thread(this, "GuestLogPipeline");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a line without blocking, returns false if it was rate limited or dropped.
+     */
+    public boolean offer(Source source, String line) {
+        if (source != null && !source.tryAcquire()) {
+            source.suppressedCount.incrementAndGet();
+            if (!source.summaryQueued.getAndSet(true)) {
+                suppressingSources.offer(source);
+                if (writerWaiting) LockSupport.unpark(writerThread);
+            }
+            return false;
+        }
+        return enqueue(line);
+    }
+
+    private boolean enqueue(String line) {
+        while (true) {
+            long position = tail.get();
+            int index = (int)(position % capacity);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (!tail.compareAndSet(position, position + 1)) continue;
+                lines.set(index, line);
+                sequences.set(index, position + 1);
+                if (writerWaiting) LockSupport.unpark(writerThread);
+                return true;
+            }
+            else if (sequence < position) {
+                droppedCount.incrementAndGet();
+                totalDroppedCount.incrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    private String poll() {
+        int index = (int)(head % capacity);
+        if (sequences.get(index) != head + 1) return null;
+        String line = lines.get(index);
+        lines.set(index, null);
+        sequences.set(index, head + capacity);
+        head++;
+        return line;
+    }
+
+    @Override
+    public void run() {
+        while (writerThread == Thread.currentThread()) {
+            int droppedCount = this.droppedCount.getAndSet(0);
+            if (droppedCount > 0) deliver(droppedCount+" log lines dropped, the log pipeline is full");
+
+            long currentTime = System.nanoTime();
+            if (currentTime - lastSummaryTime >= SUMMARY_INTERVAL_NANOS) {
+                lastSummaryTime = currentTime;
+                deliverSuppressedCounts();
+            }
+
+            String line = poll();
+            if (line == null) {
+                flushLogFile();
+                writerWaiting = true;
+                if ((line = poll()) == null) {
+                    if (suppressingSources.isEmpty()) LockSupport.park(this);
+                    else LockSupport.parkNanos(this, lastSummaryTime + SUMMARY_INTERVAL_NANOS - System.nanoTime());
+                }
+                writerWaiting = false;
+                if (line == null) continue;
+            }
+
+            do {
+                deliver(line);
+            }
+            while ((line = poll()) != null);
+        }
+    }
+
+    /**
+     * Reports the lines each source had suppressed since its last summary. A source is requeued by
+     * the producer if it suppresses another line after its flag was cleared here.
+     */
+    private void deliverSuppressedCounts() {
+        Source source;
+        while ((source = suppressingSources.poll()) != null) {
+            source.summaryQueued.set(false);
+            int suppressedCount = source.suppressedCount.getAndSet(0);
+            if (suppressedCount > 0) deliver("["+source.name+"] "+suppressedCount+" lines suppressed by the rate limit");
+        }
+    }
+
+    private void deliver(String line) {
+        if (sink != null) sink.call(line);
+        synchronized (fileLock) {
+            if (logStream == null) return;
+            try {
+                byte[] bytes = (line+"\n").getBytes(StandardCharsets.UTF_8);
+                logStream.write(bytes);
+                logFileSize += bytes.length;
+                if (maxLogFileSize > 0 && logFileSize >= maxLogFileSize) rotateLogFile();
+            }
+            catch (IOException e) {
+                Log.e("GuestLogPipeline", "Failed to write log file: " + e);
+                closeLogFile();
+            }
+        }
+    }
+
+    /**
+     * Also writes every line to file, replacing its previous contents. Once the file reaches
+     * maxSize bytes it is compressed to file.1.gz (shifting older backups up to maxBackups) and
+     * started over. A maxSize of 0 disables rotation, a null file stops writing.
+     */
+    public void setLogFile(File file, long maxSize, int maxBackups) {
+        synchronized (fileLock) {
+            closeLogFile();
+            logFile = file;
+            maxLogFileSize = maxSize;
+            maxBackupCount = maxBackups;
+            if (file != null) openLogFile();
+        }
+    }
+
+    private void openLogFile() {
+        try {
+            logStream = new BufferedOutputStream(new FileOutputStream(logFile, false), 64 * 1024);
+            logFileSize = 0;
+        }
+        catch (IOException e) {
+            Log.e("GuestLogPipeline", "Failed to open log file: " + e);
+            logStream = null;
+        }
+    }
+
+    private void closeLogFile() {
+        if (logStream == null) return;
+        try {
+            logStream.close();
+        }
+        catch (IOException e) {}
+        logStream = null;
+    }
+
+    private void flushLogFile() {
+        synchronized (fileLock) {
+            if (logStream == null) return;
+            try {
+                logStream.flush();
+            }
+            catch (IOException e) {}
+        }
+    }
+
+    /**
+     * Moves the full log file aside and starts a new one. Shifting the backups and compressing the
+     * moved file happen on the compress thread, one rotation after another, so neither the writer
+     * thread nor fileLock wait for gzip.
+     */
+    private void rotateLogFile() {
+        closeLogFile();
+        if (maxBackupCount > 0) {
+            final String path = logFile.getPath();
+            final int maxBackupCount = this.maxBackupCount;
+            final File rotatedFile = new File(path+".rotated"+(++rotationCount));
+            if (logFile.renameTo(rotatedFile)) {
+                if (compressExecutor == null) {
+                    compressExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "GuestLogCompressor");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                compressExecutor.execute(() -> {
+                    new File(path+"."+maxBackupCount+".gz").delete();
+                    for (int i = maxBackupCount - 1; i >= 1; i--) {
+                        File backupFile = new File(path+"."+i+".gz");
+                        if (backupFile.isFile()) backupFile.renameTo(new File(path+"."+(i+1)+".gz"));
+                    }
+                    compressFile(rotatedFile, new File(path+".1.gz"));
+                    rotatedFile.delete();
+                });
+            }
+        }
+        openLogFile();
+    }
+
+    private static void compressFile(File source, File target) {
+        try (InputStream inStream = new FileInputStream(source);
+             OutputStream outStream = new GZIPOutputStream(new FileOutputStream(target))) {
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = inStream.read(buffer)) != -1) outStream.write(buffer, 0, bytesRead);
+        }
+        catch (IOException e) {
+            Log.e("GuestLogPipeline", "Failed to compress log file: " + e);
+            target.delete();
+        }
+    }
+
+    public long getDroppedCount() {
+        return totalDroppedCount.get();
+    }
+}
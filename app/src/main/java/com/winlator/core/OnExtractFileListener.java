@@ -4,4 +4,13 @@ import java.io.File;
 
 public interface OnExtractFileListener {
     File onExtractFile(File destination, long size);
+
+    /**
+     * Called right before a regular file is written, from a writer thread for files small enough
+     * to be buffered. Returning false keeps whatever is already at destination, so checks that
+     * read the existing file stay off the thread decompressing the archive.
+     */
+    default boolean onWriteFile(File destination, long size) {
+        return true;
+    }
 }
@@ -0,0 +1,9 @@
+package com.winlator.core;
+
+public interface OnExtractProgressListener {
+    /**
+     * Called with the number of compressed source bytes consumed so far and the source size, which
+     * is -1 when it is not known.
+     */
+    void onExtractProgress(long bytesRead, long totalBytes);
+}
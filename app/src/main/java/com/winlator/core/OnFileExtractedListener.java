@@ -0,0 +1,11 @@
+package com.winlator.core;
+
+import java.io.File;
+
+public interface OnFileExtractedListener {
+    /**
+     * Called once a regular file has been completely written, with its size and the CRC32 of its
+     * contents. May be called from several writer threads at the same time.
+     */
+    void onFileExtracted(File file, long size, long checksum);
+}
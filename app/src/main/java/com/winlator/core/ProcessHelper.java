@@ -1,22 +1,20 @@
 package com.winlator.core;
 
 import android.os.Process;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Executors;
 
 public abstract class ProcessHelper {
     public static final boolean PRINT_DEBUG = true; // FIXME change to false
     private static final ArrayList<Callback<String>> debugCallbacks = new ArrayList<>();
+    private static final GuestLogPipeline logPipeline = new GuestLogPipeline(ProcessHelper::dispatchDebugLine);
     private static final byte SIGCONT = 18;
     private static final byte SIGSTOP = 19;
 
@@ -63,15 +61,15 @@ public abstract class ProcessHelper {
             pid = pidField.getInt(process);
             pidField.setAccessible(false);
 
-            if (!debugCallbacks.isEmpty()) {
-                createDebugThread(process.getInputStream());
-                createDebugThread(process.getErrorStream());
+            ProcessSupervisor supervisor = ProcessSupervisor.getInstance();
+            if (supervisor != null) {
+                supervisor.supervise(process, pid, terminationCallback);
+            }
+            else {
+                ProcessSupervisor.startOutputThread(process.getInputStream(), pid+":stdout");
+                ProcessSupervisor.startOutputThread(process.getErrorStream(), pid+":stderr");
+                if (terminationCallback != null) createWaitForThread(process, pid, terminationCallback);
             }
-//            Uncomment the following lines to see logs from wine
-//            createDebugThread(process.getInputStream(), "STDOUT", pid);
-//            createDebugThread(process.getErrorStream(), "STDERR", pid);
-
-            if (terminationCallback != null) createWaitForThread(process, terminationCallback);
         }
         catch (Exception e) {
             Log.e("ProcessHelper", "Failed to execute command: " + e);
@@ -79,119 +77,105 @@ public abstract class ProcessHelper {
         return pid;
     }
 
+    /**
+     * Fallback for when the process supervisor is unavailable (no epoll), waits for the process on
+     * a thread of its own.
+     */
+    private static void createWaitForThread(java.lang.Process process, int pid, Callback<Integer> terminationCallback) {
+        Thread thread = new Thread(() -> {
+            try {
+                int status = process.waitFor();
+                terminationCallback.call(status);
+            }
+            catch (InterruptedException e) {
+                Log.e("ProcessHelper", "Error while waiting for process: " + e);
+            }
+        }, "ProcessWaitFor-"+pid);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Every process of this app's user except this one, read straight from /proc.
+     */
     public static List<ProcessInfo> listSubProcesses() {
         List<ProcessInfo> processes = new ArrayList<>();
-        String myUser = null;
+        File[] procDirs = new File("/proc").listFiles();
+        if (procDirs == null) return processes;
 
-        // First get our username using the id command
-        try {
-            java.lang.Process idProcess = Runtime.getRuntime().exec("id");
-            BufferedReader idReader = new BufferedReader(new InputStreamReader(idProcess.getInputStream()));
-            String idOutput = idReader.readLine();
-            if (idOutput != null) {
-                // id output format: uid=10290(u0_a290) gid=10290(u0_a290) ...
-                int startIndex = idOutput.indexOf('(');
-                int endIndex = idOutput.indexOf(')');
-                if (startIndex != -1 && endIndex != -1) {
-                    myUser = idOutput.substring(startIndex + 1, endIndex);
-                }
-            }
-        } catch (IOException e) {
-            Log.e("ProcessHelper", "Failed to retrieve user id in order to list processes: " + e);
-            return processes;
-        }
+        int myPid = Process.myPid();
+        int myUid = Process.myUid();
+        for (File procDir : procDirs) {
+            int pid = parsePid(procDir.getName());
+            if (pid <= 0 || pid == myPid) continue;
 
-        if (myUser == null) {
-            return processes;
+            try {
+                if (Os.stat(procDir.getPath()).st_uid != myUid) continue;
+                String stat = FileUtils.readString(new File(procDir, "stat"));
+                if (stat == null) continue;
+
+                // pid (comm) state ppid ..., comm may itself contain spaces and parentheses
+                int commEnd = stat.lastIndexOf(')');
+                String[] fields = stat.substring(commEnd + 2).split(" ", 3);
+                int ppid = Integer.parseInt(fields[1]);
+                String name = readProcessName(procDir);
+                if (name == null) name = stat.substring(stat.indexOf('(') + 1, commEnd);
+                processes.add(new ProcessInfo(pid, ppid, name));
+            }
+            catch (ErrnoException | RuntimeException e) {
+                // the process exited while it was being read
+            }
         }
 
-        // Log.d("ProcessHelper", "Found user value to be: " + myUser);
+        return processes;
+    }
 
-        // Now get the processes
+    private static int parsePid(String name) {
+        if (name.isEmpty()) return -1;
+        for (int i = 0; i < name.length(); i++) if (!Character.isDigit(name.charAt(i))) return -1;
         try {
-            java.lang.Process process = Runtime.getRuntime().exec("ps -A -o USER,PID,PPID,VSZ,RSS,WCHAN,ADDR,S,NAME");
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-
-            // Skip header line
-            reader.readLine();
-
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.trim().split("\\s+");
-                if (parts.length >= 9) {
-                    String user = parts[0];
-                    int pid = Integer.parseInt(parts[1]);
-                    int ppid = Integer.parseInt(parts[2]);
-                    String processName = parts[8];
-
-                    // Check if process belongs to our app (same user)
-                    if (user.equals(myUser) && pid != Process.myPid()) {
-                        ProcessInfo info = new ProcessInfo(pid, ppid, processName);
-                        processes.add(info);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            Log.e("ProcessHelper", "Failed to list processes: " + e);
+            return Integer.parseInt(name);
+        }
+        catch (NumberFormatException e) {
+            return -1;
         }
+    }
 
-        return processes;
+    private static String readProcessName(File procDir) {
+        byte[] cmdline = FileUtils.read(new File(procDir, "cmdline"));
+        if (cmdline == null || cmdline.length == 0) return null;
+        int length = 0;
+        while (length < cmdline.length && cmdline[length] != 0) length++;
+        return length > 0 ? new String(cmdline, 0, length) : null;
     }
 
-    private static void createDebugThread(final InputStream inputStream) {
-        Executors.newSingleThreadExecutor().execute(() -> {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (PRINT_DEBUG) System.out.println(line);
-                    synchronized (debugCallbacks) {
-                        if (!debugCallbacks.isEmpty()) {
-                            for (Callback<String> callback : debugCallbacks) callback.call(line);
-                        }
-                    }
-                }
-            }
-            catch (IOException e) {
-                Log.e("ProcessHelper", "Error on debug thread: " + e);
-            }
-        });
+    /**
+     * Hands a line of guest output to the log pipeline, never blocks the caller.
+     */
+    static void offerDebugLine(GuestLogPipeline.Source source, String line) {
+        logPipeline.start();
+        logPipeline.offer(source, line);
     }
 
-    private static void createDebugThread(final InputStream inputStream, final String streamType, final int pid) {
-        Executors.newSingleThreadExecutor().execute(() -> {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    // Always log to debug log
-                    if (streamType != null && pid != -1) {
-                        Log.d("ProcessOutput", "[PID:" + pid + "][" + streamType + "] " + line);
-                    } else {
-                        // Always log even if streamType/pid not provided
-                        Log.d("ProcessOutput", line);
-                    }
+    /**
+     * Additionally writes all guest output to file, rotating it into compressed backups once it
+     * reaches maxSize bytes. Pass null to stop writing.
+     */
+    public static void setLogFile(File file, long maxSize, int maxBackups) {
+        logPipeline.setLogFile(file, maxSize, maxBackups);
+    }
 
-                    if (PRINT_DEBUG) System.out.println(line);
-                    synchronized (debugCallbacks) {
-                        if (!debugCallbacks.isEmpty()) {
-                            for (Callback<String> callback : debugCallbacks) callback.call(line);
-                        }
-                    }
-                }
-            }
-            catch (IOException e) {}
-        });
+    public static long getDroppedLogLineCount() {
+        return logPipeline.getDroppedCount();
     }
 
-    private static void createWaitForThread(java.lang.Process process, final Callback<Integer> terminationCallback) {
-        Executors.newSingleThreadExecutor().execute(() -> {
-            try {
-                int status = process.waitFor();
-                terminationCallback.call(status);
-            }
-            catch (InterruptedException e) {
-                Log.e("ProcessHelper", "Error while waiting for thread: " + e);
+    private static void dispatchDebugLine(String line) {
+        if (PRINT_DEBUG) System.out.println(line);
+        synchronized (debugCallbacks) {
+            if (!debugCallbacks.isEmpty()) {
+                for (Callback<String> callback : debugCallbacks) callback.call(line);
             }
-        });
+        }
     }
 
     public static void removeAllDebugCallbacks() {
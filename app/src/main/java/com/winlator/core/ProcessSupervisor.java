@@ -0,0 +1,298 @@
+package com.winlator.core;
+
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Single thread that watches every process started by ProcessHelper: stdout and stderr pipes and
+ * pidfds are multiplexed on one epoll set, so the thread count no longer grows with the number of
+ * processes. Before Android 12, or on kernels without pidfd_open, the processes waiting for a
+ * termination callback are polled instead. Termination callbacks run on a separate pool, so a
+ * slow callback never holds up the output of the other processes.
+ */
+class ProcessSupervisor implements Runnable {
+    private static final int POLL_INTERVAL_MILLIS = 250;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static ProcessSupervisor instance;
+    private final ExecutorService callbackExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ProcessTermination");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final int epollFd;
+    private final int wakeUpFd;
+    private final ConcurrentHashMap<Integer, Object> watchedFds = new ConcurrentHashMap<>();
+    private final ArrayList<SupervisedProcess> polledProcesses = new ArrayList<>();
+    private final byte[] readBuffer = new byte[8192];
+    private final int[] readyFds = new int[64];
+
+    static {
+        System.loadLibrary("winlator");
+    }
+
+    private static class SupervisedProcess {
+        private final java.lang.Process process;
+        private final Callback<Integer> terminationCallback;
+
+        private SupervisedProcess(java.lang.Process process, Callback<Integer> terminationCallback) {
+            this.process = process;
+            this.terminationCallback = terminationCallback;
+        }
+    }
+
+    private static class OutputReader {
+        private final GuestLogPipeline.Source source;
+        private byte[] line = new byte[256];
+        private int length = 0;
+
+        private OutputReader(String name) {
+            this.source = new GuestLogPipeline.Source(name);
+        }
+    }
+
+    private ProcessSupervisor(int epollFd, int wakeUpFd) {
+        this.epollFd = epollFd;
+        this.wakeUpFd = wakeUpFd;
+    }
+
+    /**
+     * Returns the supervisor, starting its thread on first use, or null if epoll is unavailable.
+     */
+    static synchronized ProcessSupervisor getInstance() {
+        if (instance == null) {
+            int epollFd = createEpollFd();
+            int wakeUpFd = createEventFd();
+            if (epollFd < 0 || wakeUpFd < 0 || !addFd(epollFd, wakeUpFd)) {
+                if (epollFd >= 0) closeFd(epollFd);
+                if (wakeUpFd >= 0) closeFd(wakeUpFd);
+                return null;
+            }
+
+            instance = new ProcessSupervisor(epollFd, wakeUpFd);
+            Thread thread = new Thread(instance, "ProcessSupervisor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    void supervise(java.lang.Process process, int pid, Callback<Integer> terminationCallback) {
+        watchOutput(process.getInputStream(), pid+":stdout");
+        watchOutput(process.getErrorStream(), pid+":stderr");
+        if (terminationCallback == null) return;
+
+        SupervisedProcess supervisedProcess = new SupervisedProcess(process, terminationCallback);
+        // before Android 12 the app seccomp filter kills the process on pidfd_open instead of failing it
+        int pidFd = pid > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ? openPidFd(pid) : -1;
+        if (pidFd >= 0) {
+            watchedFds.put(pidFd, supervisedProcess);
+            if (addFd(epollFd, pidFd)) return;
+            watchedFds.remove(pidFd);
+            closeFd(pidFd);
+        }
+
+        synchronized (polledProcesses) {
+            polledProcesses.add(supervisedProcess);
+        }
+        signalEventFd(wakeUpFd);
+    }
+
+    /**
+     * Takes over the pipe behind inputStream, the stream itself is closed. If the pipe cannot be
+     * reached the stream is read by a thread of its own instead, so no output is lost.
+     */
+    private void watchOutput(InputStream inputStream, String name) {
+        try {
+            InputStream pipeStream = unwrapStream(inputStream);
+            if (!(pipeStream instanceof FileInputStream)) {
+                // a process that already exited has its remaining output drained into memory
+                if (!(pipeStream instanceof ByteArrayInputStream)) {
+                    Log.e("ProcessSupervisor", "No pipe fd behind "+inputStream.getClass().getName()+", reading "+name+" on a separate thread");
+                }
+                startOutputThread(inputStream, name);
+                return;
+            }
+
+            int fd = ParcelFileDescriptor.dup(((FileInputStream)pipeStream).getFD()).detachFd();
+            inputStream.close();
+
+            watchedFds.put(fd, new OutputReader(name));
+            if (!addFd(epollFd, fd)) {
+                watchedFds.remove(fd);
+                closeFd(fd);
+            }
+        }
+        catch (IOException e) {
+            Log.e("ProcessSupervisor", "Failed to watch process output: " + e);
+        }
+    }
+
+    /**
+     * Process streams are FileInputStreams wrapped in one or more filter streams (on Android a
+     * BufferedInputStream subclass), unwraps them through FilterInputStream.in.
+     */
+    private static InputStream unwrapStream(InputStream inputStream) {
+        InputStream stream = inputStream;
+        try {
+            Field inField = FilterInputStream.class.getDeclaredField("in");
+            inField.setAccessible(true);
+            while (stream instanceof FilterInputStream) stream = (InputStream)inField.get(stream);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            Log.e("ProcessSupervisor", "Failed to unwrap process stream: " + e);
+        }
+        return stream;
+    }
+
+    /**
+     * Reads inputStream line by line into the log pipeline on a thread of its own.
+     */
+    static void startOutputThread(InputStream inputStream, String name) {
+        GuestLogPipeline.Source source = new GuestLogPipeline.Source(name);
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+                String line;
+                while ((line = reader.readLine()) != null) ProcessHelper.offerDebugLine(source, line);
+            }
+            catch (IOException e) {}
+        }, "ProcessOutput-"+name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            int timeout;
+            synchronized (polledProcesses) {
+                timeout = polledProcesses.isEmpty() ? -1 : POLL_INTERVAL_MILLIS;
+            }
+
+            int count = waitForFds(epollFd, readyFds, timeout);
+            if (count < 0) {
+                Log.e("ProcessSupervisor", "epoll_wait failed, process supervision stopped");
+                return;
+            }
+
+            for (int i = 0; i < count; i++) {
+                int fd = readyFds[i];
+                if (fd == wakeUpFd) {
+                    clearEventFd(wakeUpFd);
+                    continue;
+                }
+
+                Object target = watchedFds.get(fd);
+                if (target instanceof OutputReader) {
+                    readOutput(fd, (OutputReader)target);
+                }
+                else if (target instanceof SupervisedProcess) {
+                    unwatch(fd);
+                    notifyTermination((SupervisedProcess)target);
+                }
+            }
+
+            checkPolledProcesses();
+        }
+    }
+
+    private void readOutput(int fd, OutputReader reader) {
+        int bytesRead = readFd(fd, readBuffer);
+        if (bytesRead == -2) return;
+        if (bytesRead <= 0) {
+            if (reader.length > 0) dispatchLine(reader);
+            unwatch(fd);
+            return;
+        }
+
+        for (int i = 0; i < bytesRead; i++) {
+            byte value = readBuffer[i];
+            if (value == '\n' || reader.length == MAX_LINE_LENGTH) {
+                dispatchLine(reader);
+                if (value == '\n') continue;
+            }
+
+            if (reader.length == reader.line.length) reader.line = Arrays.copyOf(reader.line, reader.length * 2);
+            reader.line[reader.length++] = value;
+        }
+    }
+
+    private void dispatchLine(OutputReader reader) {
+        int length = reader.length;
+        if (length > 0 && reader.line[length-1] == '\r') length--;
+        reader.length = 0;
+        ProcessHelper.offerDebugLine(reader.source, new String(reader.line, 0, length));
+    }
+
+    private void checkPolledProcesses() {
+        ArrayList<SupervisedProcess> terminatedProcesses = null;
+        synchronized (polledProcesses) {
+            Iterator<SupervisedProcess> iterator = polledProcesses.iterator();
+            while (iterator.hasNext()) {
+                SupervisedProcess supervisedProcess = iterator.next();
+                if (!supervisedProcess.process.isAlive()) {
+                    if (terminatedProcesses == null) terminatedProcesses = new ArrayList<>();
+                    terminatedProcesses.add(supervisedProcess);
+                    iterator.remove();
+                }
+            }
+        }
+
+        if (terminatedProcesses != null) {
+            for (SupervisedProcess supervisedProcess : terminatedProcesses) notifyTermination(supervisedProcess);
+        }
+    }
+
+    private void notifyTermination(SupervisedProcess supervisedProcess) {
+        callbackExecutor.execute(() -> {
+            try {
+                int status = supervisedProcess.process.waitFor();
+                supervisedProcess.terminationCallback.call(status);
+            }
+            catch (InterruptedException e) {
+                Log.e("ProcessSupervisor", "Error while waiting for process: " + e);
+            }
+        });
+    }
+
+    private void unwatch(int fd) {
+        removeFd(epollFd, fd);
+        watchedFds.remove(fd);
+        closeFd(fd);
+    }
+
+    private static native int createEpollFd();
+
+    private static native int createEventFd();
+
+    private static native void signalEventFd(int fd);
+
+    private static native void clearEventFd(int fd);
+
+    private static native int openPidFd(int pid);
+
+    private static native boolean addFd(int epollFd, int fd);
+
+    private static native void removeFd(int epollFd, int fd);
+
+    private static native int waitForFds(int epollFd, int[] readyFds, int timeout);
+
+    private static native int readFd(int fd, byte[] buffer);
+
+    private static native void closeFd(int fd);
+}
@@ -0,0 +1,172 @@
+package com.winlator.core;
+
+import com.github.luben.zstd.Zstd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a zstd seekable archive (see SeekableZstdOutputStream) from a region of a file. The frames
+ * listed in the seek table are decompressed by a thread pool, a few frames ahead of the reader, and
+ * returned in order. Only positional reads are made on the channel, which is closed with the
+ * stream.
+ */
+class SeekableZstdInputStream extends InputStream {
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private final FileChannel channel;
+    private final long compressedSize;
+    private final long[] frameOffsets;
+    private final int[] compressedSizes;
+    private final int[] decompressedSizes;
+    private final ExecutorService decompressors;
+    private final ArrayDeque<Future<byte[]>> pendingFrames = new ArrayDeque<>();
+    private int nextFrame = 0;
+    private int currentFrame = -1;
+    private byte[] frame;
+    private int framePosition = 0;
+    private long compressedPosition = 0;
+
+    private SeekableZstdInputStream(FileChannel channel, long compressedSize, long[] frameOffsets, int[] compressedSizes, int[] decompressedSizes) {
+        this.channel = channel;
+        this.compressedSize = compressedSize;
+        this.frameOffsets = frameOffsets;
+        this.compressedSizes = compressedSizes;
+        this.decompressedSizes = decompressedSizes;
+        this.decompressors = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, frameOffsets.length)));
+        while (pendingFrames.size() < THREADS * 2 && scheduleNextFrame());
+    }
+
+    /**
+     * Returns a stream over the length bytes of channel starting at offset, or null if they do not
+     * end with a valid seek table, in which case the channel is left untouched.
+     */
+    public static SeekableZstdInputStream open(FileChannel channel, long offset, long length) throws IOException {
+        if (length < 8 + SeekableZstdOutputStream.FOOTER_SIZE) return null;
+        ByteBuffer footer = readFully(channel, offset + length - SeekableZstdOutputStream.FOOTER_SIZE, SeekableZstdOutputStream.FOOTER_SIZE);
+        int frameCount = footer.getInt(0);
+        byte descriptor = footer.get(4);
+        if (footer.getInt(5) != SeekableZstdOutputStream.SEEKABLE_MAGIC || (descriptor & 0x7c) != 0) return null;
+
+        int entrySize = (descriptor & 0x80) != 0 ? 12 : 8;
+        long tableSize = (long)frameCount * entrySize + SeekableZstdOutputStream.FOOTER_SIZE;
+        if (frameCount < 0 || 8 + tableSize > length) return null;
+
+        long tableOffset = offset + length - tableSize - 8;
+        ByteBuffer table = readFully(channel, tableOffset, (int)(tableSize + 8));
+        if (table.getInt(0) != SeekableZstdOutputStream.SKIPPABLE_MAGIC || table.getInt(4) != tableSize) return null;
+
+        long[] frameOffsets = new long[frameCount];
+        int[] compressedSizes = new int[frameCount];
+        int[] decompressedSizes = new int[frameCount];
+        long frameOffset = offset;
+        for (int i = 0, position = 8; i < frameCount; i++, position += entrySize) {
+            frameOffsets[i] = frameOffset;
+            compressedSizes[i] = table.getInt(position);
+            decompressedSizes[i] = table.getInt(position + 4);
+            if (compressedSizes[i] < 0 || decompressedSizes[i] < 0 || decompressedSizes[i] > MAX_FRAME_SIZE) return null;
+            frameOffset += compressedSizes[i];
+        }
+        if (frameOffset != tableOffset) return null;
+
+        return new SeekableZstdInputStream(channel, length, frameOffsets, compressedSizes, decompressedSizes);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) throw new IOException("Unexpected end of file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private boolean scheduleNextFrame() {
+        if (nextFrame == frameOffsets.length) return false;
+        final int index = nextFrame++;
+        pendingFrames.offer(decompressors.submit(() -> decompressFrame(index)));
+        return true;
+    }
+
+    private byte[] decompressFrame(int index) throws IOException {
+        byte[] compressed = readFully(channel, frameOffsets[index], compressedSizes[index]).array();
+        byte[] decompressed = new byte[decompressedSizes[index]];
+        long size = Zstd.decompressByteArray(decompressed, 0, decompressed.length, compressed, 0, compressed.length);
+        if (Zstd.isError(size)) throw new IOException("Failed to decompress frame "+index+": " + Zstd.getErrorName(size));
+        if (size != decompressed.length) throw new IOException("Frame "+index+" does not match the seek table");
+        return decompressed;
+    }
+
+    private boolean nextFrame() throws IOException {
+        Future<byte[]> future = pendingFrames.poll();
+        if (future == null) return false;
+        try {
+            frame = future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+        }
+        catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        if (currentFrame >= 0) compressedPosition += compressedSizes[currentFrame];
+        currentFrame++;
+        framePosition = 0;
+        scheduleNextFrame();
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (frame == null || framePosition == frame.length) {
+            if (!nextFrame()) return -1;
+        }
+        return frame[framePosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (frame == null || framePosition == frame.length) {
+            if (!nextFrame()) return -1;
+        }
+        int length = Math.min(len, frame.length - framePosition);
+        System.arraycopy(frame, framePosition, b, off, length);
+        framePosition += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return frame != null ? frame.length - framePosition : 0;
+    }
+
+    /**
+     * Returns the number of compressed bytes behind the frames that were fully read.
+     */
+    public long getCompressedPosition() {
+        return compressedPosition + (frame != null && framePosition == frame.length ? compressedSizes[currentFrame] : 0);
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        decompressors.shutdownNow();
+        pendingFrames.clear();
+        frame = null;
+        channel.close();
+    }
+}
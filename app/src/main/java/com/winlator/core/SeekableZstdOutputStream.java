@@ -0,0 +1,106 @@
+package com.winlator.core;
+
+import com.github.luben.zstd.Zstd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the zstd seekable format: the data is cut into independently compressed frames of a
+ * fixed uncompressed size, followed by a skippable frame holding the seek table (compressed and
+ * decompressed size of every frame) and a footer with the frame count and the seekable magic.
+ * Any zstd decoder reads the result as a plain multi-frame stream, SeekableZstdInputStream uses the
+ * seek table to decompress frames in parallel.
+ */
+class SeekableZstdOutputStream extends OutputStream {
+    public static final int SKIPPABLE_MAGIC = 0x184D2A5E;
+    public static final int SEEKABLE_MAGIC = 0x8F92EAB1;
+    public static final int FOOTER_SIZE = 9;
+    public static final int DEFAULT_FRAME_SIZE = 1024 * 1024;
+    private final OutputStream outStream;
+    private final int level;
+    private final byte[] frame;
+    private final byte[] compressedFrame;
+    private int frameLength = 0;
+    private int frameCount = 0;
+    private final ByteArrayOutputStream seekTable = new ByteArrayOutputStream();
+    private boolean closed = false;
+
+    public SeekableZstdOutputStream(OutputStream outStream, int level) {
+        this(outStream, level, DEFAULT_FRAME_SIZE);
+    }
+
+    public SeekableZstdOutputStream(OutputStream outStream, int level, int frameSize) {
+        this.outStream = outStream;
+        this.level = level;
+        this.frame = new byte[frameSize];
+        this.compressedFrame = new byte[(int)Zstd.compressBound(frameSize)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        frame[frameLength++] = (byte)b;
+        if (frameLength == frame.length) writeFrame();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int length = Math.min(len, frame.length - frameLength);
+            System.arraycopy(b, off, frame, frameLength, length);
+            frameLength += length;
+            off += length;
+            len -= length;
+            if (frameLength == frame.length) writeFrame();
+        }
+    }
+
+    private void writeFrame() throws IOException {
+        if (frameLength == 0) return;
+        long compressedSize = Zstd.compressByteArray(compressedFrame, 0, compressedFrame.length, frame, 0, frameLength, level);
+        if (Zstd.isError(compressedSize)) throw new IOException("Failed to compress frame: " + Zstd.getErrorName(compressedSize));
+        outStream.write(compressedFrame, 0, (int)compressedSize);
+
+        writeInt(seekTable, (int)compressedSize);
+        writeInt(seekTable, frameLength);
+        frameCount++;
+        frameLength = 0;
+    }
+
+    private void writeSeekTable() throws IOException {
+        ByteArrayOutputStream table = new ByteArrayOutputStream(8 + seekTable.size() + FOOTER_SIZE);
+        writeInt(table, SKIPPABLE_MAGIC);
+        writeInt(table, seekTable.size() + FOOTER_SIZE);
+        seekTable.writeTo(table);
+        writeInt(table, frameCount);
+        table.write(0); // no checksums
+        writeInt(table, SEEKABLE_MAGIC);
+        table.writeTo(outStream);
+    }
+
+    private static void writeInt(ByteArrayOutputStream outStream, int value) {
+        outStream.write(value);
+        outStream.write(value >> 8);
+        outStream.write(value >> 16);
+        outStream.write(value >> 24);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        outStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            writeFrame();
+            writeSeekTable();
+        }
+        finally {
+            outStream.close();
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.winlator.core;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.net.Uri;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
 import org.apache.commons.compress.archivers.ArchiveInputStream;
@@ -14,7 +17,6 @@ import org.apache.commons.compress.archivers.tar.TarConstants;
 import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
 import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
 import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
-import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -22,12 +24,70 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
+/**
+ * Extraction is a pipeline: the calling thread decompresses and parses the archive, creates
+ * directories and symlinks itself (so parents always exist before their contents) and hands small
+ * regular files, read fully into memory, to a pool of writer threads. Files too large to buffer
+ * are written by the calling thread. Before an entry touches a path that still has a queued write
+ * the calling thread waits for that write, so when a path appears more than once the last entry
+ * wins, as with a serial extraction. Regular files are chmodded by whichever thread wrote them,
+ * directories and symlinks in one pass once everything is written.
+ *
+ * ZSTD archives are written in the zstd seekable format. When such an archive can be read from a
+ * file descriptor (a file, or an asset stored uncompressed) its frames are decompressed in
+ * parallel, other sources fall back to the single threaded stream decoder.
+ */
 public abstract class TarCompressorUtils {
     public enum Type {XZ, ZSTD}
+    private static final int WRITER_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int MAX_BUFFERED_FILE_SIZE = 1024 * 1024;
+    private static final int MAX_PENDING_BYTES = 32 * 1024 * 1024;
+    private static final int PROGRESS_INTERVAL = 256 * 1024;
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        private CountingInputStream(InputStream inStream) {
+            super(inStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) count++;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead > 0) count += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
 
     private static void addFile(ArchiveOutputStream tar, File file, String entryName) {
         try {
@@ -107,8 +167,22 @@ public abstract class TarCompressorUtils {
     }
 
     public static boolean extract(Type type, AssetManager assetManager, String assetFile, File destination, OnExtractFileListener onExtractFileListener) {
+        return extract(type, assetManager, assetFile, destination, onExtractFileListener, null);
+    }
+
+    public static boolean extract(Type type, AssetManager assetManager, String assetFile, File destination, OnExtractFileListener onExtractFileListener, OnExtractProgressListener onExtractProgressListener) {
+        return extract(type, assetManager, assetFile, destination, onExtractFileListener, onExtractProgressListener, null);
+    }
+
+    public static boolean extract(Type type, AssetManager assetManager, String assetFile, File destination, OnExtractFileListener onExtractFileListener, OnExtractProgressListener onExtractProgressListener, OnFileExtractedListener onFileExtractedListener) {
         try {
-            return extract(type, assetManager.open(assetFile), destination, onExtractFileListener);
+            if (type == Type.ZSTD) {
+                SeekableZstdInputStream inStream = openSeekableAsset(assetManager, assetFile);
+                if (inStream != null) return extract(inStream, destination, onExtractFileListener, onExtractProgressListener, onFileExtractedListener);
+            }
+
+            long totalBytes = onExtractProgressListener != null ? FileUtils.getSize(assetManager, assetFile) : -1;
+            return extract(type, assetManager.open(assetFile), totalBytes, destination, onExtractFileListener, onExtractProgressListener, onFileExtractedListener);
         }
         catch (IOException e) {
             return false;
@@ -123,9 +197,9 @@ public abstract class TarCompressorUtils {
         if (source == null) return false;
         try {
             if (source.toString().startsWith("/")) {
-                return extract(type, new FileInputStream(source.toString()), destination, onExtractFileListener);
+                return extract(type, new FileInputStream(source.toString()), -1, destination, onExtractFileListener, null, null);
             } else {
-            return extract(type, context.getContentResolver().openInputStream(source), destination, onExtractFileListener);
+            return extract(type, context.getContentResolver().openInputStream(source), -1, destination, onExtractFileListener, null, null);
             }
         }
         catch (FileNotFoundException e) {
@@ -138,21 +212,87 @@ public abstract class TarCompressorUtils {
     }
 
     public static boolean extract(Type type, File source, File destination, OnExtractFileListener onExtractFileListener) {
+        return extract(type, source, destination, onExtractFileListener, null);
+    }
+
+    public static boolean extract(Type type, File source, File destination, OnExtractFileListener onExtractFileListener, OnExtractProgressListener onExtractProgressListener) {
+        return extract(type, source, destination, onExtractFileListener, onExtractProgressListener, null);
+    }
+
+    public static boolean extract(Type type, File source, File destination, OnExtractFileListener onExtractFileListener, OnExtractProgressListener onExtractProgressListener, OnFileExtractedListener onFileExtractedListener) {
         if (source == null || !source.isFile()) return false;
         try {
-            return extract(type, new BufferedInputStream(new FileInputStream(source), StreamUtils.BUFFER_SIZE), destination, onExtractFileListener);
+            if (type == Type.ZSTD) {
+                FileInputStream inStream = new FileInputStream(source);
+                SeekableZstdInputStream seekableStream = openSeekable(inStream, 0, source.length());
+                if (seekableStream != null) return extract(seekableStream, destination, onExtractFileListener, onExtractProgressListener, onFileExtractedListener);
+            }
+
+            return extract(type, new BufferedInputStream(new FileInputStream(source), StreamUtils.BUFFER_SIZE), source.length(), destination, onExtractFileListener, onExtractProgressListener, onFileExtractedListener);
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             return false;
         }
     }
 
-    private static boolean extract(Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener) {
+    private static SeekableZstdInputStream openSeekableAsset(AssetManager assetManager, String assetFile) {
+        try {
+            AssetFileDescriptor fd = assetManager.openFd(assetFile);
+            return openSeekable(fd.createInputStream(), fd.getStartOffset(), fd.getLength());
+        }
+        catch (IOException e) {
+            // compressed assets cannot be opened as a file descriptor
+            return null;
+        }
+    }
+
+    private static SeekableZstdInputStream openSeekable(FileInputStream inStream, long offset, long length) {
+        try {
+            SeekableZstdInputStream seekableStream = SeekableZstdInputStream.open(inStream.getChannel(), offset, length);
+            if (seekableStream != null) return seekableStream;
+        }
+        catch (IOException e) {}
+        try {
+            inStream.close();
+        }
+        catch (IOException e) {}
+        return null;
+    }
+
+    private static boolean extract(SeekableZstdInputStream source, File destination, OnExtractFileListener onExtractFileListener, OnExtractProgressListener onExtractProgressListener, OnFileExtractedListener onFileExtractedListener) {
+        try (InputStream inStream = source) {
+            return extractTar(inStream, source::getCompressedPosition, source.getCompressedSize(), destination, onExtractFileListener, onExtractProgressListener, onFileExtractedListener);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static boolean extract(Type type, InputStream source, long totalBytes, File destination, OnExtractFileListener onExtractFileListener, OnExtractProgressListener onExtractProgressListener, OnFileExtractedListener onFileExtractedListener) {
         if (source == null) return false;
-        try (InputStream inStream = getCompressorInputStream(type, source);
-             ArchiveInputStream tar = new TarArchiveInputStream(inStream)) {
+        CountingInputStream countingStream = new CountingInputStream(source);
+        try (InputStream inStream = getCompressorInputStream(type, countingStream)) {
+            return extractTar(inStream, () -> countingStream.count, totalBytes, destination, onExtractFileListener, onExtractProgressListener, onFileExtractedListener);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static boolean extractTar(InputStream inStream, LongSupplier bytesRead, long totalBytes, File destination, OnExtractFileListener onExtractFileListener, OnExtractProgressListener onExtractProgressListener, OnFileExtractedListener onFileExtractedListener) {
+        ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS);
+        Semaphore pendingBytes = new Semaphore(MAX_PENDING_BYTES);
+        AtomicBoolean failed = new AtomicBoolean();
+        ConcurrentHashMap<String, CountDownLatch> queuedWrites = new ConcurrentHashMap<>();
+        ArrayList<String> directoryAndLinkPaths = new ArrayList<>();
+        long reportedBytes = 0;
+
+        try (ArchiveInputStream tar = new TarArchiveInputStream(inStream)) {
             TarArchiveEntry entry;
             while ((entry = (TarArchiveEntry)tar.getNextEntry()) != null) {
+                if (failed.get()) return false;
                 if (!tar.canReadEntryData(entry)) continue;
                 File file = new File(destination, entry.getName());
 
@@ -161,28 +301,105 @@ public abstract class TarCompressorUtils {
                     if (file == null) continue;
                 }
 
+                CountDownLatch queuedWrite = queuedWrites.get(file.getPath());
+                if (queuedWrite != null) queuedWrite.await();
+
                 if (entry.isDirectory()) {
                     if (!file.isDirectory()) file.mkdirs();
                 }
-                else {
-                    if (entry.isSymbolicLink()) {
-                        FileUtils.symlink(entry.getLinkName(), file.getAbsolutePath());
-                    }
-                    else {
-                        try (BufferedOutputStream outStream = new BufferedOutputStream(new FileOutputStream(file), StreamUtils.BUFFER_SIZE)) {
-                            if (!StreamUtils.copy(tar, outStream)) return false;
+                else if (entry.isSymbolicLink()) {
+                    FileUtils.symlink(entry.getLinkName(), file.getAbsolutePath());
+                }
+                else if (entry.getSize() <= MAX_BUFFERED_FILE_SIZE) {
+                    final File target = file;
+                    final byte[] data = new byte[(int)entry.getSize()];
+                    if (!readFully(tar, data)) return false;
+
+                    final CountDownLatch written = new CountDownLatch(1);
+                    queuedWrites.put(target.getPath(), written);
+                    pendingBytes.acquireUninterruptibly(data.length);
+                    writers.execute(() -> {
+                        try {
+                            if (failed.get()) return;
+                            if (onExtractFileListener != null && !onExtractFileListener.onWriteFile(target, data.length)) return;
+                            writeFile(target, data);
+                            chmod(target.getPath(), 0771);
+                            if (onFileExtractedListener != null) {
+                                CRC32 checksum = new CRC32();
+                                checksum.update(data);
+                                onFileExtractedListener.onFileExtracted(target, data.length, checksum.getValue());
+                            }
+                        }
+                        catch (IOException e) {
+                            Log.e("TarCompressorUtils", "Failed to write "+target+": " + e);
+                            failed.set(true);
                         }
+                        finally {
+                            pendingBytes.release(data.length);
+                            queuedWrites.remove(target.getPath(), written);
+                            written.countDown();
+                        }
+                    });
+                }
+                else if (onExtractFileListener == null || onExtractFileListener.onWriteFile(file, entry.getSize())) {
+                    CheckedInputStream checkedStream = new CheckedInputStream(tar, new CRC32());
+                    try (BufferedOutputStream outStream = new BufferedOutputStream(new FileOutputStream(file), StreamUtils.BUFFER_SIZE)) {
+                        if (!StreamUtils.copy(checkedStream, outStream)) return false;
                     }
+                    chmod(file.getPath(), 0771);
+                    if (onFileExtractedListener != null) onFileExtractedListener.onFileExtracted(file, entry.getSize(), checkedStream.getChecksum().getValue());
                 }
 
-                FileUtils.chmod(file, 0771);
+                if (entry.isDirectory() || entry.isSymbolicLink()) directoryAndLinkPaths.add(file.getPath());
+
+                if (onExtractProgressListener != null && bytesRead.getAsLong() - reportedBytes >= PROGRESS_INTERVAL) {
+                    reportedBytes = bytesRead.getAsLong();
+                    onExtractProgressListener.onExtractProgress(reportedBytes, totalBytes);
+                }
             }
+
+            writers.shutdown();
+            while (!writers.awaitTermination(1, TimeUnit.SECONDS));
+            if (failed.get()) return false;
+
+            for (String path : directoryAndLinkPaths) chmod(path, 0771);
+            if (onExtractProgressListener != null) onExtractProgressListener.onExtractProgress(bytesRead.getAsLong(), totalBytes);
             return true;
         }
-        catch (IOException e) {
+        catch (IOException | InterruptedException e) {
             e.printStackTrace();
             return false;
         }
+        finally {
+            writers.shutdownNow();
+        }
+    }
+
+    private static boolean readFully(InputStream inStream, byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            int bytesRead = inStream.read(data, offset, data.length - offset);
+            if (bytesRead == -1) return false;
+            offset += bytesRead;
+        }
+        return true;
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        try (FileOutputStream outStream = new FileOutputStream(file)) {
+            outStream.write(data);
+        }
+    }
+
+    /**
+     * Like FileUtils.chmod without its per call logging, which dominates when applied to every
+     * entry of a large archive.
+     */
+    private static void chmod(String path, int mode) {
+        try {
+            Os.chmod(path, mode);
+        }
+        catch (ErrnoException e) {}
     }
 
     private static InputStream getCompressorInputStream(Type type, InputStream source) throws IOException {
@@ -200,7 +417,7 @@ public abstract class TarCompressorUtils {
             return new XZCompressorOutputStream(new BufferedOutputStream(new FileOutputStream(destination), StreamUtils.BUFFER_SIZE), level);
         }
         else if (type == Type.ZSTD) {
-            return new ZstdCompressorOutputStream(new BufferedOutputStream(new FileOutputStream(destination), StreamUtils.BUFFER_SIZE), level);
+            return new SeekableZstdOutputStream(new BufferedOutputStream(new FileOutputStream(destination), StreamUtils.BUFFER_SIZE), level);
         }
         return null;
     }
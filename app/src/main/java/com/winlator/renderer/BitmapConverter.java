@@ -0,0 +1,42 @@
+package com.winlator.renderer;
+
+import android.graphics.Bitmap;
+
+import com.winlator.xserver.Drawable;
+import com.winlator.xserver.Pixmap;
+import com.winlator.xserver.PixmapManager;
+import com.winlator.xserver.Window;
+
+import java.nio.ByteBuffer;
+
+public abstract class BitmapConverter {
+    static {
+        System.loadLibrary("winlator");
+    }
+
+    public static Drawable toDrawable(Bitmap bitmap) {
+        Drawable drawable = new Drawable(0, bitmap.getWidth(), bitmap.getHeight(), null);
+        ByteBuffer data = drawable.getData();
+        bitmap.copyPixelsToBuffer(data);
+        data.rewind();
+        drawable.forceUpdate();
+        return drawable;
+    }
+
+    public static Bitmap toBitmap(Pixmap pixmap, Pixmap maskPixmap) {
+        ByteBuffer maskData = maskPixmap != null ? maskPixmap.drawable.getData() : null;
+        Bitmap bitmap = Bitmap.createBitmap(pixmap.drawable.width, pixmap.drawable.height, Bitmap.Config.ARGB_8888);
+        toBitmap(pixmap.drawable.getData(), maskData, bitmap);
+        return bitmap;
+    }
+
+    public static Bitmap getWindowIcon(PixmapManager pixmapManager, Window window) {
+        int colorPixmapId = window.getWMHintsValue(Window.WMHints.ICON_PIXMAP);
+        int maskPixmapId = window.getWMHintsValue(Window.WMHints.ICON_MASK);
+        Pixmap colorPixmap = colorPixmapId != 0 ? pixmapManager.getPixmap(colorPixmapId) : null;
+        Pixmap maskPixmap = maskPixmapId != 0 ? pixmapManager.getPixmap(maskPixmapId) : null;
+        return colorPixmap != null ? toBitmap(colorPixmap, maskPixmap) : null;
+    }
+
+    private static native void toBitmap(ByteBuffer colorData, ByteBuffer maskData, Bitmap bitmap);
+}
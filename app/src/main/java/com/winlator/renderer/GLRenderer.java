@@ -6,6 +6,8 @@ import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 
+import androidx.collection.SparseArrayCompat;
+
 // import com.winlator.R;
 // import com.winlator.XrActivity;
 import app.gamenative.R;
@@ -19,6 +21,7 @@ import com.winlator.xserver.Bitmask;
 import com.winlator.xserver.Cursor;
 import com.winlator.xserver.Drawable;
 import com.winlator.xserver.Pointer;
+import com.winlator.xserver.RendererSink;
 import com.winlator.xserver.Window;
 import com.winlator.xserver.WindowAttributes;
 import com.winlator.xserver.WindowManager;
@@ -30,7 +33,7 @@ import java.util.ArrayList;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindowModificationListener, Pointer.OnPointerMotionListener {
+public class GLRenderer implements GLSurfaceView.Renderer, RendererSink, WindowManager.OnWindowModificationListener, Pointer.OnPointerMotionListener {
     public final XServerView xServerView;
     private final XServer xServer;
     private final VertexAttribute quadVertices = new VertexAttribute("position", 2);
@@ -86,7 +89,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
             // iterate all known drawables; if you don't have a central list,
             // call this during updateScene() for each window's content.
-            android.util.SparseArray<Drawable> sa = xServer.drawableManager.all(); // adjust type if needed
+            SparseArrayCompat<Drawable> sa = xServer.drawableManager.all();
             for (int i = 0; i < sa.size(); i++) {
                 Drawable d = sa.valueAt(i);
                 if (d != null) d.getTexture().invalidate(); // sets textureId=0 so next draw re-creates
@@ -297,7 +300,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inScaled = false;
         Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), R.drawable.cursor, options);
-        return Drawable.fromBitmap(bitmap);
+        return BitmapConverter.toDrawable(bitmap);
     }
 
     private void updateScene() {
@@ -410,6 +413,12 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         this.unviewableWMClasses = unviewableWMNames;
     }
 
+    @Override
+    public void queueEvent(Runnable runnable) {
+        xServerView.queueEvent(runnable);
+    }
+
+    @Override
     public boolean isFullscreen() {
         return fullscreen;
     }
@@ -1,5 +1,17 @@
 package com.winlator.steampipeserver;
 
+/**
+ * Every message starts with its code as a little endian int. In the legacy protocol, which a
+ * client gets by opening with MSG_INIT, messages carry no other arguments except MSG_RESTART_APP
+ * (followed by the app id). MSG_INIT, MSG_RESTART_APP and MSG_IS_RUNNING are answered with one int,
+ * the other messages get no reply.
+ *
+ * A client opening with MSG_INIT_EX sends the highest protocol version it supports and is answered
+ * with 1 and the version both sides use, 0 meaning the legacy protocol. From version 1 on,
+ * MSG_REGISTER_CALLBACK and MSG_UNREGISTER_CALLBACK are followed by the callback id, and
+ * MSG_RUN_CALLBACKS is answered with the number of pending results, then the id, payload size and
+ * payload of each.
+ */
 public abstract class RequestCodes {
     public static final int MSG_INIT = 1;
     public static final int MSG_SHUTDOWN = 2;
@@ -8,4 +20,5 @@ public abstract class RequestCodes {
     public static final int MSG_REGISTER_CALLBACK = 5;
     public static final int MSG_UNREGISTER_CALLBACK = 6;
     public static final int MSG_RUN_CALLBACKS = 7;
+    public static final int MSG_INIT_EX = 8;
 }
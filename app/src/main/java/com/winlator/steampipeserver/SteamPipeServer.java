@@ -2,111 +2,336 @@ package com.winlator.steampipeserver;
 
 import android.util.Log;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 
-public class SteamPipeServer {
+/**
+ * Serves the steam pipe of every game from a single selector thread. Messages are little endian
+ * ints (the request code, followed by its arguments), a client is only looked at when the selector
+ * reports data for it, so idle pipes cost nothing.
+ *
+ * Clients that open with MSG_INIT_EX negotiate a protocol version. From version 1 on they get a
+ * callback registry: results posted from any thread are queued for every client registered for
+ * their id and returned together as the reply to the next MSG_RUN_CALLBACKS. Clients that open
+ * with plain MSG_INIT keep the legacy framing (see RequestCodes).
+ */
+public class SteamPipeServer implements Runnable {
     private static final int PORT = 34865;
-    private ServerSocket serverSocket;
-    private boolean running;
+    private static final int BUFFER_SIZE = 256;
+    public static final int PROTOCOL_VERSION = 1;
+    private static final int MAX_PENDING_CALLBACKS = 256;
+    private final ArrayList<PipeClient> clients = new ArrayList<>();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running;
 
-    private int readNetworkInt(DataInputStream input) throws IOException {
-        return Integer.reverseBytes(input.readInt());
+    private static class PipeClient {
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final HashSet<Integer> registeredCallbacks = new HashSet<>();
+        private final ArrayDeque<PendingCallback> pendingCallbacks = new ArrayDeque<>();
+        private int protocolVersion = 0;
+        private boolean closing = false;
+
+        private PipeClient(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensureOutput(int size) {
+            if (output.remaining() >= size) return;
+            int capacity = output.capacity() * 2;
+            while (capacity - output.position() < size) capacity *= 2;
+            ByteBuffer newOutput = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            output.flip();
+            newOutput.put(output);
+            output = newOutput;
+        }
+
+        private void writeInt(int value) {
+            ensureOutput(4);
+            output.putInt(value);
+        }
+
+        /**
+         * Moves every pending callback result into the output buffer as a single reply: the result
+         * count, then the id, size and payload of each result.
+         */
+        private synchronized void writePendingCallbacks() {
+            int size = 4;
+            for (PendingCallback callback : pendingCallbacks) size += 8 + callback.data.length;
+            ensureOutput(size);
+
+            output.putInt(pendingCallbacks.size());
+            PendingCallback callback;
+            while ((callback = pendingCallbacks.poll()) != null) {
+                output.putInt(callback.callbackId);
+                output.putInt(callback.data.length);
+                output.put(callback.data);
+            }
+        }
+
+        private synchronized void postCallback(PendingCallback callback) {
+            if (!registeredCallbacks.contains(callback.callbackId)) return;
+            if (pendingCallbacks.size() == MAX_PENDING_CALLBACKS) pendingCallbacks.poll();
+            pendingCallbacks.offer(callback);
+        }
+
+        private synchronized void setCallbackRegistered(int callbackId, boolean registered) {
+            if (registered) {
+                registeredCallbacks.add(callbackId);
+            }
+            else {
+                registeredCallbacks.remove(callbackId);
+                Iterator<PendingCallback> iterator = pendingCallbacks.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().callbackId == callbackId) iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static class PendingCallback {
+        private final int callbackId;
+        private final byte[] data;
+
+        private PendingCallback(int callbackId, byte[] data) {
+            this.callbackId = callbackId;
+            this.data = data;
+        }
     }
 
-    private void writeNetworkInt(DataOutputStream output, int value) throws IOException {
-        output.writeInt(Integer.reverseBytes(value));
+    /**
+     * Queues a callback result for every connected client registered for callbackId, it is
+     * delivered on the client's next MSG_RUN_CALLBACKS. Legacy clients never register, so they
+     * never see one. Safe to call from any thread.
+     */
+    public void postCallback(int callbackId, byte[] data) {
+        PendingCallback callback = new PendingCallback(callbackId, data);
+        synchronized (clients) {
+            for (PipeClient client : clients) client.postCallback(callback);
+        }
     }
 
-    public void start() {
+    public synchronized void start() {
+        if (thread != null) return;
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(PORT));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            Log.d("SteamPipeServer", "Server started on port " + PORT);
+        }
+        catch (IOException e) {
+            Log.e("SteamPipeServer", "Server error", e);
+            closeQuietly();
+            return;
+        }
+
         running = true;
-        new Thread(() -> {
+        thread = new Thread(this, "SteamPipeServer");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread == null) return;
+        running = false;
+        selector.wakeup();
+        while (thread.isAlive()) {
             try {
-                serverSocket = new ServerSocket();
-                serverSocket.setReuseAddress(true);
-                serverSocket.bind(new InetSocketAddress(PORT));
-                Log.d("SteamPipeServer", "Server started on port " + PORT);
-
-                while (running) {
-                    Socket clientSocket = serverSocket.accept();
-                    // clientSocket.setTcpNoDelay(true);
-                    // clientSocket.setSoTimeout(5000);  // 5 second timeout
-                    handleClient(clientSocket);
-                }
-            } catch (IOException e) {
-                Log.e("SteamPipeServer", "Server error", e);
+                thread.join();
             }
-        }).start();
+            catch (InterruptedException e) {}
+        }
+        thread = null;
     }
 
-    private void handleClient(Socket clientSocket) {
-        new Thread(() -> {
-            try {
-                DataInputStream input = new DataInputStream(
-                        new BufferedInputStream(clientSocket.getInputStream()));
-                DataOutputStream output = new DataOutputStream(
-                        new BufferedOutputStream(clientSocket.getOutputStream()));
-
-                while (running && !clientSocket.isClosed()) {
-                    if (input.available() > 0) {
-                        int messageType = readNetworkInt(input);
-                        // Log.d("SteamPipeServer", "Received message: " + messageType);
-
-                        switch (messageType) {
-                            case RequestCodes.MSG_INIT:
-                                Log.d("SteamPipeServer", "Received MSG_INIT");
-                                writeNetworkInt(output, 1);
-                                output.flush();
-                                break;
-                            case RequestCodes.MSG_SHUTDOWN:
-                                Log.d("SteamPipeServer", "Received MSG_SHUTDOWN");
-                                clientSocket.close();
-                                break;
-                            case RequestCodes.MSG_RESTART_APP:
-                                Log.d("SteamPipeServer", "Received MSG_RESTART_APP");
-                                int appId = input.readInt();
-                                writeNetworkInt(output, 0); // Send restart not needed
-                                break;
-                            case RequestCodes.MSG_IS_RUNNING:
-                                Log.d("SteamPipeServer", "Received MSG_IS_RUNNING");
-                                writeNetworkInt(output, 1); // Send Steam running status
-                                break;
-                            case RequestCodes.MSG_REGISTER_CALLBACK:
-                                Log.d("SteamPipeServer", "Received MSG_REGISTER_CALLBACK");
-                                break;
-                            case RequestCodes.MSG_UNREGISTER_CALLBACK:
-                                Log.d("SteamPipeServer", "Received MSG_UNREGISTER_CALLBACK");
-                                break;
-                            case RequestCodes.MSG_RUN_CALLBACKS:
-                                Log.d("SteamPipeServer", "Received MSG_RUN_CALLBACKS");
-                                break;
-                            default:
-                                Log.w("SteamPipeServer", "Unknown message type: " + messageType);
-                                break;
-                        }
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        acceptClient();
+                        continue;
+                    }
+
+                    PipeClient client = (PipeClient)key.attachment();
+                    try {
+                        if (key.isReadable()) readFromClient(client);
+                        if (key.isValid() && key.isWritable()) flushClient(client, key);
+                    }
+                    catch (IOException e) {
+                        Log.e("SteamPipeServer", "Client handler error", e);
+                        closeClient(key);
                     }
                 }
-            } catch (IOException e) {
-                Log.e("SteamPipeServer", "Client handler error", e);
             }
-        }).start();
+        }
+        catch (IOException e) {
+            Log.e("SteamPipeServer", "Server error", e);
+        }
+        finally {
+            closeQuietly();
+        }
     }
 
-    public void stop() {
-        running = false;
+    private void acceptClient() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            PipeClient client = new PipeClient(channel);
+            channel.register(selector, SelectionKey.OP_READ, client);
+            synchronized (clients) {
+                clients.add(client);
+            }
+        }
+    }
+
+    private void readFromClient(PipeClient client) throws IOException {
+        SelectionKey key = client.channel.keyFor(selector);
+        int bytesRead = client.channel.read(client.input);
+        if (bytesRead < 0) {
+            closeClient(key);
+            return;
+        }
+
+        client.input.flip();
+        while (!client.closing && handleMessage(client));
+        client.input.compact();
+
+        flushClient(client, key);
+    }
+
+    /**
+     * Handles one complete message from the input buffer, returns false if more data is needed.
+     */
+    private boolean handleMessage(PipeClient client) {
+        ByteBuffer input = client.input;
+        if (input.remaining() < 4) return false;
+        int messageType = input.getInt(input.position());
+
+        switch (messageType) {
+            case RequestCodes.MSG_INIT:
+                input.getInt();
+                Log.d("SteamPipeServer", "Received MSG_INIT");
+                client.writeInt(1);
+                break;
+            case RequestCodes.MSG_INIT_EX: {
+                if (input.remaining() < 8) return false;
+                input.getInt();
+                client.protocolVersion = Math.max(0, Math.min(input.getInt(), PROTOCOL_VERSION));
+                Log.d("SteamPipeServer", "Received MSG_INIT_EX, using protocol version " + client.protocolVersion);
+                client.writeInt(1);
+                client.writeInt(client.protocolVersion);
+                break;
+            }
+            case RequestCodes.MSG_SHUTDOWN:
+                input.getInt();
+                Log.d("SteamPipeServer", "Received MSG_SHUTDOWN");
+                client.closing = true;
+                break;
+            case RequestCodes.MSG_RESTART_APP:
+                if (input.remaining() < 8) return false;
+                input.getInt();
+                int appId = input.getInt();
+                Log.d("SteamPipeServer", "Received MSG_RESTART_APP");
+                client.writeInt(0); // Send restart not needed
+                break;
+            case RequestCodes.MSG_IS_RUNNING:
+                input.getInt();
+                Log.d("SteamPipeServer", "Received MSG_IS_RUNNING");
+                client.writeInt(1); // Send Steam running status
+                break;
+            case RequestCodes.MSG_REGISTER_CALLBACK:
+            case RequestCodes.MSG_UNREGISTER_CALLBACK: {
+                boolean registered = messageType == RequestCodes.MSG_REGISTER_CALLBACK;
+                if (client.protocolVersion < 1) {
+                    input.getInt();
+                    break;
+                }
+                if (input.remaining() < 8) return false;
+                input.getInt();
+                client.setCallbackRegistered(input.getInt(), registered);
+                break;
+            }
+            case RequestCodes.MSG_RUN_CALLBACKS:
+                // sent every frame, not logged
+                input.getInt();
+                if (client.protocolVersion >= 1) client.writePendingCallbacks();
+                break;
+            default:
+                input.getInt();
+                Log.w("SteamPipeServer", "Unknown message type: " + messageType);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Writes as much pending output as the socket takes, the rest is sent once the selector reports
+     * the channel writable again.
+     */
+    private void flushClient(PipeClient client, SelectionKey key) throws IOException {
+        ByteBuffer output = client.output;
+        output.flip();
+        if (output.hasRemaining()) client.channel.write(output);
+        boolean pending = output.hasRemaining();
+        output.compact();
+
+        if (!pending && client.closing) {
+            closeClient(key);
+            return;
+        }
+        key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void closeClient(SelectionKey key) {
+        if (key.attachment() != null) {
+            synchronized (clients) {
+                clients.remove(key.attachment());
+            }
+        }
+        key.cancel();
         try {
-            if (serverSocket != null) {
-                serverSocket.close();
+            key.channel().close();
+        }
+        catch (IOException e) {}
+    }
+
+    private void closeQuietly() {
+        if (selector != null && selector.isOpen()) {
+            for (SelectionKey key : selector.keys()) closeClient(key);
+            try {
+                selector.close();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            catch (IOException e) {}
+        }
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            }
+            catch (IOException e) {}
         }
     }
 }
-
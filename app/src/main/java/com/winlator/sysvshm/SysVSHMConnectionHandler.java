@@ -5,9 +5,11 @@ import com.winlator.xconnector.ConnectionHandler;
 
 public class SysVSHMConnectionHandler implements ConnectionHandler {
     private final SysVSharedMemory sysVSharedMemory;
+    private final SysVSHMRequestHandler requestHandler;
 
-    public SysVSHMConnectionHandler(SysVSharedMemory sysVSharedMemory) {
+    public SysVSHMConnectionHandler(SysVSharedMemory sysVSharedMemory, SysVSHMRequestHandler requestHandler) {
         this.sysVSharedMemory = sysVSharedMemory;
+        this.requestHandler = requestHandler;
     }
 
     @Override
@@ -17,5 +19,7 @@ public class SysVSHMConnectionHandler implements ConnectionHandler {
     }
 
     @Override
-    public void handleConnectionShutdown(Client client) {}
+    public void handleConnectionShutdown(Client client) {
+        requestHandler.reapOrphanedSegments(sysVSharedMemory);
+    }
 }
@@ -1,5 +1,12 @@
 package com.winlator.sysvshm;
 
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.collection.ArraySet;
+import androidx.collection.SparseArrayCompat;
+
 import com.winlator.xconnector.Client;
 import com.winlator.xconnector.RequestHandler;
 import com.winlator.xconnector.XInputStream;
@@ -7,8 +14,25 @@ import com.winlator.xconnector.XOutputStream;
 import com.winlator.xconnector.XStreamLock;
 
 import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Besides serving requests, remembers which processes created or opened each segment (by the peer
+ * credentials of the socket, since clients may connect once per call). Segments whose owners have
+ * all exited without removing them are deleted by reapOrphanedSegments().
+ */
 public class SysVSHMRequestHandler implements RequestHandler {
+    private static final long REAP_INTERVAL_MILLIS = 1000;
+    private final SparseArrayCompat<ArraySet<Integer>> segmentOwners = new SparseArrayCompat<>();
+    private long lastReapTime = 0;
+    private int reapedSegmentCount = 0;
+    private ScheduledExecutorService reapExecutor;
+    private ScheduledFuture<?> pendingReap;
+    private boolean shutdown = false;
+
     @Override
     public boolean handleRequest(Client client) throws IOException {
         SysVSharedMemory sysVSharedMemory = (SysVSharedMemory)client.getTag();
@@ -22,6 +46,7 @@ public class SysVSHMRequestHandler implements RequestHandler {
             case RequestCodes.SHMGET: {
                 long size = inputStream.readUnsignedInt();
                 int shmid = sysVSharedMemory.get(size);
+                if (shmid >= 0) addOwner(shmid, client);
 
                 try (XStreamLock lock = outputStream.lock()) {
                     outputStream.writeInt(shmid);
@@ -30,19 +55,107 @@ public class SysVSHMRequestHandler implements RequestHandler {
             }
             case RequestCodes.GET_FD: {
                 int shmid = inputStream.readInt();
+                int fd = sysVSharedMemory.getFd(shmid);
+                if (fd >= 0) addOwner(shmid, client);
 
                 try (XStreamLock lock = outputStream.lock()) {
                     outputStream.writeByte((byte)0);
-                    outputStream.setAncillaryFd(sysVSharedMemory.getFd(shmid));
+                    outputStream.setAncillaryFd(fd);
                 }
                 break;
             }
             case RequestCodes.DELETE: {
                 int shmid = inputStream.readInt();
                 sysVSharedMemory.delete(shmid);
+                synchronized (segmentOwners) {
+                    segmentOwners.remove(shmid);
+                }
                 break;
             }
         }
         return true;
     }
+
+    private void addOwner(int shmid, Client client) {
+        int pid = client.clientSocket.getPeerPid();
+        if (pid <= 0) return;
+
+        synchronized (segmentOwners) {
+            ArraySet<Integer> owners = segmentOwners.get(shmid);
+            if (owners == null) segmentOwners.put(shmid, (owners = new ArraySet<>()));
+            owners.add(pid);
+        }
+    }
+
+    /**
+     * Deletes every segment whose owning processes are all gone. Runs at most once per interval,
+     * as it is triggered on every disconnect; a call that falls inside the interval schedules one
+     * trailing reap at its end instead, so the last disconnect of a burst is never missed.
+     */
+    public void reapOrphanedSegments(SysVSharedMemory sysVSharedMemory) {
+        synchronized (segmentOwners) {
+            long currentTime = System.currentTimeMillis();
+            long elapsed = currentTime - lastReapTime;
+            if (elapsed < REAP_INTERVAL_MILLIS) {
+                scheduleReap(sysVSharedMemory, REAP_INTERVAL_MILLIS - elapsed);
+                return;
+            }
+            lastReapTime = currentTime;
+
+            for (int i = segmentOwners.size() - 1; i >= 0; i--) {
+                ArraySet<Integer> owners = segmentOwners.valueAt(i);
+                for (int j = owners.size() - 1; j >= 0; j--) {
+                    if (!isProcessAlive(owners.valueAt(j))) owners.removeAt(j);
+                }
+
+                if (owners.isEmpty()) {
+                    sysVSharedMemory.delete(segmentOwners.keyAt(i));
+                    segmentOwners.removeAt(i);
+                    reapedSegmentCount++;
+                }
+            }
+        }
+    }
+
+    private void scheduleReap(SysVSharedMemory sysVSharedMemory, long delay) {
+        if (shutdown || (pendingReap != null && !pendingReap.isDone())) return;
+        if (reapExecutor == null) {
+            reapExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SysVSHMReaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        pendingReap = reapExecutor.schedule(() -> reapOrphanedSegments(sysVSharedMemory), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels a pending trailing reap and stops its thread.
+     */
+    public void shutdown() {
+        synchronized (segmentOwners) {
+            shutdown = true;
+            if (reapExecutor != null) {
+                reapExecutor.shutdownNow();
+                reapExecutor = null;
+            }
+            pendingReap = null;
+        }
+    }
+
+    public int getReapedSegmentCount() {
+        synchronized (segmentOwners) {
+            return reapedSegmentCount;
+        }
+    }
+
+    private static boolean isProcessAlive(int pid) {
+        try {
+            Os.kill(pid, 0);
+            return true;
+        }
+        catch (ErrnoException e) {
+            return e.errno != OsConstants.ESRCH;
+        }
+    }
 }
@@ -2,17 +2,42 @@ package com.winlator.sysvshm;
 
 import android.os.SharedMemory;
 import android.system.ErrnoException;
-import android.util.Log;
-import android.util.SparseArray;
+
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.xconnector.XConnectorEpoll;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
-
+import java.util.IdentityHashMap;
+
+/**
+ * SysV shared memory segments backed by ashmem/memfd regions. Segments are indexed both by id and
+ * by the buffer returned from attach(), so every operation is O(1) and guarded by a single lock.
+ * Removing a segment follows IPC_RMID semantics: the id disappears at once, the region itself
+ * lives until its last attachment is gone.
+ *
+ * Large segments, typically full screen XShm pixmaps, are pre-faulted on a background thread as
+ * soon as they are created and populated again when the server attaches them, so the first frames
+ * do not stall on page faults. Above the huge page threshold segments are rounded to the huge page
+ * size and advised for transparent huge pages, which the kernel honors only if shmem THP is enabled.
+ */
 public class SysVSharedMemory {
-    private final SparseArray<SHMemory> shmemories = new SparseArray<>();
+    private static final int PAGE_SIZE = 4096;
+    private static final int HUGE_PAGE_SIZE = 2 * 1024 * 1024;
+    private static final int MAP_FLAG_POPULATE = 1;
+    private static final int MAP_FLAG_HUGE_PAGES = 2;
+    public static final long DEFAULT_PREFAULT_THRESHOLD = 1024 * 1024;
+    public static final long DEFAULT_HUGE_PAGE_THRESHOLD = 4 * 1024 * 1024;
+    private final Object lock = new Object();
+    private final SparseArrayCompat<SHMemory> shmemories = new SparseArrayCompat<>();
+    private final IdentityHashMap<ByteBuffer, SHMemory> attachedShmemories = new IdentityHashMap<>();
+    private long totalBytes = 0;
+    private long peakBytes = 0;
+    private long mappedBytes = 0;
+    private long prefaultThreshold = DEFAULT_PREFAULT_THRESHOLD;
+    private long hugePageThreshold = DEFAULT_HUGE_PAGE_THRESHOLD;
     private int maxSHMemoryId = 0;
 
     static {
@@ -21,111 +46,167 @@ public class SysVSharedMemory {
 
     private static class SHMemory {
         private int fd;
-        private long size;
+        private final long size;
         private ByteBuffer data;
+        private int attachCount;
+        private boolean deleted;
 
-        // Constructor for SHMemory
-        private SHMemory() {}
-
-        // Synthetic access methods for accessing the private fields
-        static int access$000(SHMemory shMemory) {
-            return shMemory.fd;
-        }
-
-        static int access$002(SHMemory shMemory, int fd) {
-            shMemory.fd = fd;
-            return fd;
-        }
-
-        static long access$200(SHMemory shMemory) {
-            return shMemory.size;
-        }
-
-        static long access$202(SHMemory shMemory, long size) {
-            shMemory.size = size;
-            return size;
+        private SHMemory(int fd, long size) {
+            this.fd = fd;
+            this.size = size;
         }
+    }
 
-        static ByteBuffer access$300(SHMemory shMemory) {
-            return shMemory.data;
+    /**
+     * Segments of at least this many bytes are pre-faulted, 0 disables pre-faulting.
+     */
+    public void setPrefaultThreshold(long prefaultThreshold) {
+        synchronized (lock) {
+            this.prefaultThreshold = prefaultThreshold;
         }
+    }
 
-        static ByteBuffer access$302(SHMemory shMemory, ByteBuffer data) {
-            shMemory.data = data;
-            return data;
+    /**
+     * Segments of at least this many bytes are backed by transparent huge pages where supported,
+     * 0 disables huge pages.
+     */
+    public void setHugePageThreshold(long hugePageThreshold) {
+        synchronized (lock) {
+            this.hugePageThreshold = hugePageThreshold;
         }
     }
 
     public int getFd(int shmid) {
-        synchronized (shmemories) {
+        synchronized (lock) {
             SHMemory shmemory = shmemories.get(shmid);
-            return shmemory != null ? SHMemory.access$000(shmemory) : -1;
+            return shmemory != null ? shmemory.fd : -1;
         }
     }
 
     public int get(long size) {
-        synchronized (shmemories) {
-            int index = shmemories.size();
-            int fd = ashmemCreateRegion(index, size);
-            if (fd < 0) fd = createSharedMemory("sysvshm-"+index, (int)size);
+        synchronized (lock) {
+            long sizeClass = getSizeClass(size);
+            int id = ++maxSHMemoryId;
+            int fd = ashmemCreateRegion(id, sizeClass);
+            if (fd < 0) fd = createSharedMemory("sysvshm-"+id, (int)sizeClass);
             if (fd < 0) return -1;
+            totalBytes += sizeClass;
+            if (totalBytes > peakBytes) peakBytes = totalBytes;
+            if (isPrefaulted(sizeClass)) prefaultSHMRegion(fd, sizeClass, isHugePaged(sizeClass));
 
-            SHMemory shmemory = new SHMemory();
-            int id = ++maxSHMemoryId;
-            SHMemory.access$002(shmemory, fd);
-            SHMemory.access$202(shmemory, size);
-            shmemories.put(id, shmemory);
+            shmemories.put(id, new SHMemory(fd, sizeClass));
             return id;
         }
     }
 
     public void delete(int shmid) {
-        SHMemory shmemory = shmemories.get(shmid);
-        if (shmemory != null) {
-            if (SHMemory.access$000(shmemory) != -1) {
-                XConnectorEpoll.closeFd(SHMemory.access$000(shmemory));
-                SHMemory.access$002(shmemory, -1);
-            }
+        synchronized (lock) {
+            SHMemory shmemory = shmemories.get(shmid);
+            if (shmemory == null) return;
             shmemories.remove(shmid);
+            shmemory.deleted = true;
+            if (shmemory.attachCount == 0) releaseSHMemory(shmemory);
         }
     }
 
     public void deleteAll() {
-        synchronized (shmemories) {
+        synchronized (lock) {
             for (int i = shmemories.size() - 1; i >= 0; i--) delete(shmemories.keyAt(i));
         }
     }
 
     public ByteBuffer attach(int shmid) {
-        synchronized (shmemories) {
+        synchronized (lock) {
             SHMemory shmemory = shmemories.get(shmid);
-            if (shmemory != null) {
-                if (SHMemory.access$300(shmemory) == null) {
-                    SHMemory.access$302(shmemory, mapSHMSegment(SHMemory.access$000(shmemory),
-                            SHMemory.access$200(shmemory), 0, true));
-            }
-                return SHMemory.access$300(shmemory);
-            } else {
-                return null;
+            if (shmemory == null) return null;
+
+            if (shmemory.data == null) {
+                int flags = (isPrefaulted(shmemory.size) ? MAP_FLAG_POPULATE : 0) | (isHugePaged(shmemory.size) ? MAP_FLAG_HUGE_PAGES : 0);
+                shmemory.data = mapSHMSegmentWithFlags(shmemory.fd, shmemory.size, 0, true, flags);
+                if (shmemory.data == null) return null;
+                mappedBytes += shmemory.size;
             }
+            if (shmemory.attachCount++ == 0) attachedShmemories.put(shmemory.data, shmemory);
+            return shmemory.data;
         }
     }
 
     public void detach(ByteBuffer data) {
-        synchronized (shmemories) {
-            for (int i = 0; i < shmemories.size(); i++) {
-                SHMemory shmemory = shmemories.valueAt(i);
-                if (SHMemory.access$300(shmemory) == data) {
-                    if (SHMemory.access$300(shmemory) != null) {
-                        unmapSHMSegment(SHMemory.access$300(shmemory), SHMemory.access$200(shmemory));
-                        SHMemory.access$302(shmemory, null);
-                    }
-                    break;
-                }
+        synchronized (lock) {
+            SHMemory shmemory = attachedShmemories.get(data);
+            if (shmemory == null || --shmemory.attachCount > 0) return;
+
+            attachedShmemories.remove(data);
+            if (shmemory.deleted) {
+                releaseSHMemory(shmemory);
+            }
+            else {
+                unmapSHMSegment(shmemory.data, shmemory.size);
+                shmemory.data = null;
+                mappedBytes -= shmemory.size;
             }
         }
     }
 
+    private void releaseSHMemory(SHMemory shmemory) {
+        if (shmemory.data != null) {
+            unmapSHMSegment(shmemory.data, shmemory.size);
+            shmemory.data = null;
+            mappedBytes -= shmemory.size;
+        }
+        if (shmemory.fd != -1) {
+            XConnectorEpoll.closeFd(shmemory.fd);
+            shmemory.fd = -1;
+            totalBytes -= shmemory.size;
+        }
+    }
+
+    /**
+     * Number of segment ids that have not been removed yet.
+     */
+    public int getSegmentCount() {
+        synchronized (lock) {
+            return shmemories.size();
+        }
+    }
+
+    /**
+     * Bytes held by all live regions, including removed segments that are still attached.
+     */
+    public long getTotalBytes() {
+        synchronized (lock) {
+            return totalBytes;
+        }
+    }
+
+    public long getPeakBytes() {
+        synchronized (lock) {
+            return peakBytes;
+        }
+    }
+
+    /**
+     * Bytes currently mapped into this process by attach().
+     */
+    public long getMappedBytes() {
+        synchronized (lock) {
+            return mappedBytes;
+        }
+    }
+
+    private long getSizeClass(long size) {
+        int alignment = isHugePaged(size) ? HUGE_PAGE_SIZE : PAGE_SIZE;
+        return (size + alignment - 1) & ~(long)(alignment - 1);
+    }
+
+    private boolean isPrefaulted(long size) {
+        return prefaultThreshold > 0 && size >= prefaultThreshold;
+    }
+
+    private boolean isHugePaged(long size) {
+        return hugePageThreshold > 0 && size >= hugePageThreshold;
+    }
+
     private static int createSharedMemory(String name, int size) {
         try {
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O_MR1) {
@@ -147,4 +228,8 @@ public class SysVSharedMemory {
     public static native ByteBuffer mapSHMSegment(int fd, long size, int offset, boolean readonly);
 
     public static native void unmapSHMSegment(ByteBuffer data, long size);
+
+    private static native ByteBuffer mapSHMSegmentWithFlags(int fd, long size, int offset, boolean readonly, int flags);
+
+    private static native boolean prefaultSHMRegion(int fd, long size, boolean hugePages);
 }
@@ -0,0 +1,79 @@
+package com.winlator.winhandler;
+
+import com.winlator.inputcontrols.GamepadState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory mapped gamepad state block shared with Wine's input DLLs, which map the same file and read
+ * the state whenever the game polls instead of waiting for a GET_GAMEPAD_STATE round trip.
+ *
+ * The file starts with a 64 byte header (magic, version, slot count, slot size, header size, all
+ * little endian ints) followed by one 64 byte slot per controller. Each slot is guarded by a
+ * sequence counter that is odd while the slot is being written: readers copy the slot and retry if
+ * the counter was odd or changed meanwhile. Slot layout: sequence (uint32), device id (int32),
+ * flags (uint8, bit 0 connected), pov hat (int8), buttons (uint16), thumb LX, LY, RX, RY (int16)
+ * and triggers L, R (uint8), with the same encoding as GET_GAMEPAD_STATE.
+ */
+public class GamepadStateChannel {
+    public static final String PATH = "/tmp/.winhandler/gamepad";
+    public static final int MAX_SLOTS = 4;
+    private static final int MAGIC = 0x53504757; // "WGPS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 64;
+    private final ByteBuffer buffer;
+
+    static {
+        System.loadLibrary("winlator");
+    }
+
+    private GamepadStateChannel(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates the shared file from scratch and maps it, returns null if that fails.
+     */
+    public static GamepadStateChannel create(File file) {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) parent.mkdirs();
+
+        int size = HEADER_SIZE + MAX_SLOTS * SLOT_SIZE;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(size);
+            ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, MAX_SLOTS);
+            buffer.putInt(12, SLOT_SIZE);
+            buffer.putInt(16, HEADER_SIZE);
+            buffer.putInt(0, MAGIC);
+            return new GamepadStateChannel(buffer);
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    public synchronized void write(int slot, int deviceId, GamepadState state) {
+        if (slot < 0 || slot >= MAX_SLOTS) return;
+        writeSlot(buffer, HEADER_SIZE + slot * SLOT_SIZE, deviceId, true, state.buttons, state.getPovHat(),
+            (short)(state.thumbLX * Short.MAX_VALUE), (short)(state.thumbLY * Short.MAX_VALUE),
+            (short)(state.thumbRX * Short.MAX_VALUE), (short)(state.thumbRY * Short.MAX_VALUE),
+            (byte)(state.triggerL * 255), (byte)(state.triggerR * 255));
+    }
+
+    public synchronized void clear(int slot) {
+        if (slot < 0 || slot >= MAX_SLOTS) return;
+        writeSlot(buffer, HEADER_SIZE + slot * SLOT_SIZE, 0, false, (short)0, (byte)-1, (short)0, (short)0, (short)0, (short)0, (byte)0, (byte)0);
+    }
+
+    private static native void writeSlot(ByteBuffer buffer, int offset, int deviceId, boolean connected, short buttons, byte povHat,
+                                         short thumbLX, short thumbLY, short thumbRX, short thumbRY, byte triggerL, byte triggerR);
+}
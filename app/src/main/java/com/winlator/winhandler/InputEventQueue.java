@@ -0,0 +1,95 @@
+package com.winlator.winhandler;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ring of pre-encoded, fixed size request records waiting to be sent to the Wine side. Producers
+ * encode straight into the ring between begin() and commit(), the send thread packs consecutive
+ * records for the same port into one datagram. Nothing is allocated once the ring exists. All
+ * methods must be called with the owner's lock held.
+ */
+class InputEventQueue {
+    public static final int RECORD_SIZE = 64;
+    private final int capacity;
+    private final ByteBuffer records;
+    private final int[] ports;
+    private final byte[] lengths;
+    private int head = 0;
+    private int count = 0;
+    private int pendingSlot = -1;
+    private boolean pendingAppend;
+    private int droppedCount = 0;
+
+    public InputEventQueue(int capacity) {
+        this.capacity = capacity;
+        this.records = ByteBuffer.allocate(capacity * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.ports = new int[capacity];
+        this.lengths = new byte[capacity];
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Returns the ring positioned at a new record for port, the caller writes the request into it
+     * and calls commit(). When the ring is full the oldest record is dropped.
+     */
+    public ByteBuffer begin(int port) {
+        if (count == capacity) {
+            head = (head + 1) % capacity;
+            count--;
+            droppedCount++;
+        }
+        return beginAt((head + count) % capacity, port, true);
+    }
+
+    /**
+     * Like begin() but reuses a queued record for port that starts with requestCode, so requests
+     * carrying a full state snapshot replace the stale one instead of piling up.
+     */
+    public ByteBuffer beginReplace(int port, byte requestCode) {
+        for (int i = count - 1; i >= 0; i--) {
+            int slot = (head + i) % capacity;
+            if (ports[slot] == port && records.get(slot * RECORD_SIZE) == requestCode) return beginAt(slot, port, false);
+        }
+        return begin(port);
+    }
+
+    private ByteBuffer beginAt(int slot, int port, boolean append) {
+        pendingSlot = slot;
+        pendingAppend = append;
+        ports[slot] = port;
+        records.limit((slot + 1) * RECORD_SIZE).position(slot * RECORD_SIZE);
+        return records;
+    }
+
+    public void commit() {
+        lengths[pendingSlot] = (byte) (records.position() - pendingSlot * RECORD_SIZE);
+        if (pendingAppend) count++;
+        pendingSlot = -1;
+    }
+
+    public int peekPort() {
+        return ports[head];
+    }
+
+    public int peekLength() {
+        return lengths[head];
+    }
+
+    /**
+     * Copies the oldest record into dst and removes it from the ring.
+     */
+    public void poll(ByteBuffer dst) {
+        int offset = head * RECORD_SIZE;
+        dst.put(records.array(), offset, lengths[head]);
+        head = (head + 1) % capacity;
+        count--;
+    }
+
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+}
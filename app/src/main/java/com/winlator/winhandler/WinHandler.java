@@ -30,7 +30,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
@@ -40,7 +39,18 @@ import timber.log.Timber;
 public class WinHandler {
     private static final short SERVER_PORT = 7947;
     private static final short CLIENT_PORT = 7946;
+    private static final int MAX_PACKET_SIZE = 1024;
+    private static final int INPUT_EVENT_QUEUE_CAPACITY = 256;
+    private static final int INIT_EXTENSION_MAGIC = 0x58454857; // "WHEX"
+    private static final int INIT_EXTENSION_SIZE = 10;
+    private static final byte INIT_FLAG_BATCHING = 1;
     private final ArrayDeque<Runnable> actions;
+    private final InputEventQueue inputEvents;
+    private final ByteBuffer batchData;
+    private final DatagramPacket batchPacket;
+    private final DatagramPacket payloadPacket;
+    private boolean batchingSupported;
+    private GamepadStateChannel gamepadStateChannel;
     private ExternalController currentController;
     private byte dinputMapperType;
     private final List<Integer> gamepadClients;
@@ -77,11 +87,16 @@ public class WinHandler {
         ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
         ByteBuffer order = allocate.order(byteOrder);
         this.sendData = order;
-        ByteBuffer order2 = ByteBuffer.allocate(64).order(byteOrder);
+        ByteBuffer order2 = ByteBuffer.allocate(MAX_PACKET_SIZE).order(byteOrder);
         this.receiveData = order2;
         this.sendPacket = new DatagramPacket(order.array(), 64);
-        this.receivePacket = new DatagramPacket(order2.array(), 64);
+        this.receivePacket = new DatagramPacket(order2.array(), MAX_PACKET_SIZE);
+        this.batchData = ByteBuffer.allocate(MAX_PACKET_SIZE).order(byteOrder);
+        this.batchPacket = new DatagramPacket(batchData.array(), MAX_PACKET_SIZE);
+        this.payloadPacket = new DatagramPacket(new byte[0], 0);
         this.actions = new ArrayDeque<>();
+        this.inputEvents = new InputEventQueue(INPUT_EVENT_QUEUE_CAPACITY);
+        this.batchingSupported = false;
         this.initReceived = false;
         this.running = false;
         this.dinputMapperType = (byte) 1;
@@ -109,10 +124,10 @@ public class WinHandler {
 
     private boolean sendPacket(int port, byte[] data) {
         try {
-            DatagramPacket sendPacket = new DatagramPacket(data, data.length);
-            sendPacket.setAddress(this.localhost);
-            sendPacket.setPort(port);
-            this.socket.send(sendPacket);
+            this.payloadPacket.setData(data);
+            this.payloadPacket.setAddress(this.localhost);
+            this.payloadPacket.setPort(port);
+            this.socket.send(this.payloadPacket);
             return true;
         } catch (IOException e) {
             return false;
@@ -201,30 +216,31 @@ public class WinHandler {
     }
 
     public void mouseEvent(final int flags, final int dx, final int dy, final int wheelDelta) {
-        if (this.initReceived) {
-            addAction(() -> {
-                this.sendData.rewind();
-                this.sendData.put(RequestCodes.MOUSE_EVENT);
-                this.sendData.putInt(10);
-                this.sendData.putInt(flags);
-                this.sendData.putShort((short) dx);
-                this.sendData.putShort((short) dy);
-                this.sendData.putShort((short) wheelDelta);
-                this.sendData.put((byte) ((flags & MouseEventFlags.MOVE) != 0 ? 1 : 0)); // cursor pos feedback
-                sendPacket(CLIENT_PORT);
-            });
+        if (!initReceived) return;
+        synchronized (this.actions) {
+            ByteBuffer data = this.inputEvents.begin(CLIENT_PORT);
+            data.put(RequestCodes.MOUSE_EVENT);
+            data.putInt(10);
+            data.putInt(flags);
+            data.putShort((short) dx);
+            data.putShort((short) dy);
+            data.putShort((short) wheelDelta);
+            data.put((byte) ((flags & MouseEventFlags.MOVE) != 0 ? 1 : 0)); // cursor pos feedback
+            this.inputEvents.commit();
+            this.actions.notify();
         }
     }
 
     public void keyboardEvent(byte vkey, int flags) {
         if (!initReceived) return;
-        addAction(() -> {
-            sendData.rewind();
-            sendData.put(RequestCodes.KEYBOARD_EVENT);
-            sendData.put(vkey);
-            sendData.putInt(flags);
-            sendPacket(CLIENT_PORT);
-        });
+        synchronized (this.actions) {
+            ByteBuffer data = this.inputEvents.begin(CLIENT_PORT);
+            data.put(RequestCodes.KEYBOARD_EVENT);
+            data.put(vkey);
+            data.putInt(flags);
+            this.inputEvents.commit();
+            this.actions.notify();
+        }
     }
 
     public void bringToFront(String processName) {
@@ -277,18 +293,64 @@ public class WinHandler {
         Executors.newSingleThreadExecutor().execute(() -> {
             while (this.running) {
                 synchronized (this.actions) {
-                    while (this.initReceived && !this.actions.isEmpty()) {
-                        this.actions.poll().run();
+                    while (this.running && (!this.initReceived || (this.actions.isEmpty() && this.inputEvents.isEmpty()))) {
+                        try {
+                            this.actions.wait();
+                        } catch (InterruptedException e) {
+                        }
                     }
-                    try {
-                        this.actions.wait();
-                    } catch (InterruptedException e) {
+                    if (!this.running) break;
+
+                    while (!this.actions.isEmpty()) {
+                        this.actions.poll().run();
                     }
+                    if (this.inputEvents.isEmpty()) continue;
+                    packInputEvents();
+                }
+
+                try {
+                    this.batchPacket.setAddress(this.localhost);
+                    this.socket.send(this.batchPacket);
+                } catch (IOException | NullPointerException e) {
                 }
             }
         });
     }
 
+    /**
+     * Moves queued input events into batchPacket. Peers that announced batching in INIT get every
+     * consecutive record for the same port in one BATCH datagram: count, then length and request
+     * bytes per record. Older peers get one record per datagram, exactly as before.
+     */
+    private void packInputEvents() {
+        int port = this.inputEvents.peekPort();
+        this.batchData.clear();
+        this.batchPacket.setPort(port);
+
+        if (!this.batchingSupported) {
+            this.inputEvents.poll(this.batchData);
+            this.batchPacket.setLength(InputEventQueue.RECORD_SIZE);
+            return;
+        }
+
+        this.batchData.put(RequestCodes.BATCH);
+        this.batchData.put((byte) 0);
+        int count = 0;
+        while (!this.inputEvents.isEmpty() && this.inputEvents.peekPort() == port && count < 255 && this.batchData.remaining() > this.inputEvents.peekLength()) {
+            this.batchData.put((byte) this.inputEvents.peekLength());
+            this.inputEvents.poll(this.batchData);
+            count++;
+        }
+        this.batchData.put(1, (byte) count);
+        this.batchPacket.setLength(this.batchData.position());
+    }
+
+    public int getDroppedInputEventCount() {
+        synchronized (this.actions) {
+            return this.inputEvents.getDroppedCount();
+        }
+    }
+
     public void stop() {
         this.running = false;
         DatagramSocket datagramSocket = this.socket;
@@ -301,11 +363,24 @@ public class WinHandler {
         }
     }
 
+    /**
+     * Feature flags announced by the peer in INIT. Peers that support extensions append the magic
+     * (int), a protocol version (byte) and the flags (int), all little endian. Anything else is a
+     * legacy INIT that announces nothing, whatever bytes may follow the request code.
+     */
+    private int readInitFlags() {
+        if (this.receivePacket.getLength() < INIT_EXTENSION_SIZE) return 0;
+        if (this.receiveData.getInt() != INIT_EXTENSION_MAGIC) return 0;
+        int version = this.receiveData.get() & 0xff;
+        return version >= 1 ? this.receiveData.getInt() : 0;
+    }
+
     private void handleRequest(byte requestCode, final int port) throws IOException {
         boolean enabled = true;
         ExternalController externalController;
         switch (requestCode) {
             case RequestCodes.INIT:
+                this.batchingSupported = (readInitFlags() & INIT_FLAG_BATCHING) != 0;
                 this.initReceived = true;
                 synchronized (this.actions) {
                     this.actions.notify();
@@ -476,7 +551,11 @@ public class WinHandler {
                     synchronized (this.actions) {
                         this.receiveData.rewind();
                         byte requestCode = this.receiveData.get();
-                        handleRequest(requestCode, this.receivePacket.getPort());
+                        if (requestCode == RequestCodes.BATCH) {
+                            handleBatch(this.receivePacket.getPort());
+                        } else {
+                            handleRequest(requestCode, this.receivePacket.getPort());
+                        }
                     }
                 }
             } catch (IOException e) {
@@ -484,30 +563,63 @@ public class WinHandler {
         });
     }
 
+    private void handleBatch(int port) throws IOException {
+        int count = this.receiveData.get() & 0xff;
+        for (int i = 0; i < count; i++) {
+            int length = this.receiveData.get() & 0xff;
+            int start = this.receiveData.position();
+            if (length == 0 || start + length > this.receivePacket.getLength()) return;
+            handleRequest(this.receiveData.get(), port);
+            this.receiveData.position(start + length);
+        }
+    }
+
+    public void setGamepadStateChannel(GamepadStateChannel gamepadStateChannel) {
+        this.gamepadStateChannel = gamepadStateChannel;
+    }
+
+    /**
+     * Publishes the current gamepad state to the shared state channel, then queues it for every
+     * client that asked to be notified. A state still waiting in the queue for the same client is
+     * overwritten, only the newest snapshot is worth sending.
+     */
     public void sendGamepadState() {
+        final ControlsProfile profile = inputControlsView != null ? inputControlsView.getProfile() : null;
+        final boolean useVirtualGamepad = profile != null && profile.isVirtualGamepad();
+        final ExternalController controller = this.currentController;
+        final boolean enabled = controller != null || useVirtualGamepad;
+
+        GamepadStateChannel gamepadStateChannel = this.gamepadStateChannel;
+        if (gamepadStateChannel != null) {
+            if (enabled) {
+                if (useVirtualGamepad) {
+                    gamepadStateChannel.write(0, profile.id, profile.getGamepadState());
+                } else {
+                    gamepadStateChannel.write(0, controller.getDeviceId(), controller.state);
+                }
+            } else gamepadStateChannel.clear(0);
+        }
+
         if (!this.initReceived || this.gamepadClients.isEmpty()) {
             return;
         }
-        final ControlsProfile profile = inputControlsView.getProfile();
-        final boolean useVirtualGamepad = profile != null && profile.isVirtualGamepad();
-        final boolean enabled = this.currentController != null || useVirtualGamepad;
-        Iterator<Integer> it = this.gamepadClients.iterator();
-        while (it.hasNext()) {
-            final int port = it.next().intValue();
-            addAction(() -> {
-                this.sendData.rewind();
-                sendData.put(RequestCodes.GET_GAMEPAD_STATE);
-                sendData.put((byte)(enabled ? 1 : 0));
+        synchronized (this.actions) {
+            for (int i = 0, size = this.gamepadClients.size(); i < size; i++) {
+                int port = this.gamepadClients.get(i);
+                ByteBuffer data = this.inputEvents.beginReplace(port, RequestCodes.GET_GAMEPAD_STATE);
+                data.put(RequestCodes.GET_GAMEPAD_STATE);
+                data.put((byte)(enabled ? 1 : 0));
                 if (enabled) {
-                    this.sendData.putInt(!useVirtualGamepad ? this.currentController.getDeviceId() : inputControlsView.getProfile().id);
+                    data.putInt(!useVirtualGamepad ? controller.getDeviceId() : profile.id);
                     if (useVirtualGamepad) {
-                        inputControlsView.getProfile().getGamepadState().writeTo(sendData);
+                        profile.getGamepadState().writeTo(data);
                     } else {
-                        this.currentController.state.writeTo(this.sendData);
+                        controller.state.writeTo(data);
                     }
                 }
-                sendPacket(port);
-            });
+                this.inputEvents.commit();
+            }
+            this.actions.notify();
         }
     }
 
@@ -8,7 +8,8 @@ import java.nio.ByteOrder;
 
 public class Client {
     public final ClientSocket clientSocket;
-    private final XConnectorEpoll connector;
+    private final int initialInputBufferCapacity;
+    private final int initialOutputBufferCapacity;
     private XInputStream inputStream;
     private XOutputStream outputStream;
     private Object tag;
@@ -17,14 +18,19 @@ public class Client {
     protected boolean connected;
 
     public Client(XConnectorEpoll connector, ClientSocket clientSocket) {
-        this.connector = connector;
+        this(clientSocket, connector.getInitialInputBufferCapacity(), connector.getInitialOutputBufferCapacity());
+    }
+
+    public Client(ClientSocket clientSocket, int initialInputBufferCapacity, int initialOutputBufferCapacity) {
         this.clientSocket = clientSocket;
+        this.initialInputBufferCapacity = initialInputBufferCapacity;
+        this.initialOutputBufferCapacity = initialOutputBufferCapacity;
     }
 
     public void createIOStreams() {
         if (inputStream != null || outputStream != null) return;
-        inputStream = new XInputStream(clientSocket, connector.getInitialInputBufferCapacity());
-        outputStream = new XOutputStream(clientSocket, connector.getInitialOutputBufferCapacity());
+        inputStream = new XInputStream(clientSocket, initialInputBufferCapacity);
+        outputStream = new XOutputStream(clientSocket, initialOutputBufferCapacity);
         inputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
         outputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
     }
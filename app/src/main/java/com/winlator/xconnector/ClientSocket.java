@@ -1,5 +1,7 @@
 package com.winlator.xconnector;
 
+import android.util.Log;
+
 import androidx.annotation.Keep;
 
 import java.io.IOException;
@@ -11,7 +13,13 @@ public class ClientSocket {
     private final ArrayDeque<Integer> ancillaryFds = new ArrayDeque<>();
 
     static {
-        System.loadLibrary("winlator");
+        try {
+            System.loadLibrary("winlator");
+        }
+        catch (UnsatisfiedLinkError e) {
+            // Replayed connections (XConnectionReplayer) override all native I/O and may run without the library
+            Log.w("ClientSocket", "Native library not loaded, only replayed connections will work: " + e);
+        }
     }
 
     public ClientSocket(int fd) {
@@ -26,6 +34,17 @@ public class ClientSocket {
         return hasAncillaryFds() ? ancillaryFds.poll() : -1;
     }
 
+    public int getAncillaryFdCount() {
+        return ancillaryFds.size();
+    }
+
+    public int[] peekAncillaryFds() {
+        int[] result = new int[ancillaryFds.size()];
+        int i = 0;
+        for (Integer ancillaryFd : ancillaryFds) result[i++] = ancillaryFd;
+        return result;
+    }
+
     @Keep
     public void addAncillaryFd(int ancillaryFd) {
         ancillaryFds.add(ancillaryFd);
@@ -73,6 +92,13 @@ public class ClientSocket {
         else throw new IOException("Failed to send ancillary messages.");
     }
 
+    /**
+     * Process id of the connected peer taken from its socket credentials, -1 if unavailable.
+     */
+    public int getPeerPid() {
+        return getPeerPid(fd);
+    }
+
     private native int read(int fd, ByteBuffer data, int offset, int length);
 
     private native int write(int fd, ByteBuffer data, int length);
@@ -80,4 +106,6 @@ public class ClientSocket {
     private native int recvAncillaryMsg(int clientFd, ByteBuffer data, int offset, int length);
 
     private native int sendAncillaryMsg(int clientFd, ByteBuffer data, int length, int ancillaryFd);
+
+    private native int getPeerPid(int clientFd);
 }
@@ -0,0 +1,178 @@
+package com.winlator.xconnector;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Captures the raw byte stream of every client connection so it can be fed back through
+ * {@link XConnectionReplayer} without the original client. Ancillary fds are stored as a
+ * snapshot of their contents shortly after they were received, only fds of regular files (shared
+ * memory) are copied, pipes and eventfds are recorded as -1 so their data is left to the server.
+ * The connector thread only copies the received bytes and opens the fds, the trace file is
+ * written on a separate thread in the order the records were made.
+ */
+public class XConnectionRecorder implements Closeable {
+    public static final int MAGIC = 0x58545243;
+    public static final int VERSION = 1;
+    public static final byte RECORD_CONNECT = 0;
+    public static final byte RECORD_DATA = 1;
+    public static final byte RECORD_ANCILLARY_FD = 2;
+    public static final byte RECORD_DISCONNECT = 3;
+    private static final int MAX_FD_SNAPSHOT_SIZE = 64 * 1024 * 1024;
+    private final DataOutputStream outputStream;
+    private final long startTime = System.nanoTime();
+    private final byte[] copyBuffer = new byte[65536];
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "XConnectionRecorder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean closed = false;
+    private boolean failed = false;
+
+    private interface Record {
+        void write() throws IOException;
+    }
+
+    public XConnectionRecorder(File traceFile) throws IOException {
+        outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFile), 262144));
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(VERSION);
+    }
+
+    private void submit(Record record, InputStream... snapshotStreams) {
+        writeExecutor.execute(() -> {
+            try {
+                if (!failed) record.write();
+            }
+            catch (IOException e) {
+                Log.e("XConnectionRecorder", "Failed to write trace: " + e);
+                failed = true;
+                closeOutputStream();
+            }
+            finally {
+                for (InputStream snapshotStream : snapshotStreams) {
+                    if (snapshotStream == null) continue;
+                    try {
+                        snapshotStream.close();
+                    }
+                    catch (IOException e) {}
+                }
+            }
+        });
+    }
+
+    private void writeRecordHeader(byte type, int clientId, long time) throws IOException {
+        outputStream.writeByte(type);
+        outputStream.writeInt(clientId);
+        outputStream.writeLong(time);
+    }
+
+    public synchronized void recordConnect(int clientId) {
+        if (closed) return;
+        long time = System.nanoTime() - startTime;
+        submit(() -> writeRecordHeader(RECORD_CONNECT, clientId, time));
+    }
+
+    public synchronized void recordData(int clientId, ClientSocket clientSocket, int previousAncillaryFdCount, ByteBuffer data) {
+        if (closed) return;
+        long time = System.nanoTime() - startTime;
+
+        int[] ancillaryFds = clientSocket.peekAncillaryFds();
+        InputStream[] snapshotStreams = new InputStream[Math.max(ancillaryFds.length - previousAncillaryFdCount, 0)];
+        for (int i = 0; i < snapshotStreams.length; i++) snapshotStreams[i] = openFdSnapshot(ancillaryFds[previousAncillaryFdCount + i]);
+
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+
+        submit(() -> {
+            for (InputStream snapshotStream : snapshotStreams) {
+                writeRecordHeader(RECORD_ANCILLARY_FD, clientId, time);
+                writeFdSnapshot(snapshotStream);
+            }
+
+            writeRecordHeader(RECORD_DATA, clientId, time);
+            outputStream.writeInt(bytes.length);
+            outputStream.write(bytes);
+        }, snapshotStreams);
+    }
+
+    public synchronized void recordDisconnect(int clientId) {
+        if (closed) return;
+        long time = System.nanoTime() - startTime;
+        submit(() -> writeRecordHeader(RECORD_DISCONNECT, clientId, time));
+    }
+
+    /**
+     * Opens a second description of the fd while it is still open, reading from it cannot move the
+     * offset of the client's own description. Returns null for anything but a regular file.
+     */
+    private static InputStream openFdSnapshot(int fd) {
+        String path = "/proc/self/fd/"+fd;
+        if (fd < 0 || !Files.isRegularFile(Paths.get(path))) return null;
+        try {
+            return new FileInputStream(path);
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeFdSnapshot(InputStream snapshotStream) throws IOException {
+        if (snapshotStream == null) {
+            outputStream.writeInt(-1);
+            return;
+        }
+
+        byte[] snapshot = null;
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            int bytesRead;
+            while ((bytesRead = snapshotStream.read(copyBuffer)) != -1 && byteStream.size() + bytesRead <= MAX_FD_SNAPSHOT_SIZE) {
+                byteStream.write(copyBuffer, 0, bytesRead);
+            }
+            snapshot = byteStream.toByteArray();
+        }
+        catch (IOException e) {}
+
+        if (snapshot != null) {
+            outputStream.writeInt(snapshot.length);
+            outputStream.write(snapshot);
+        }
+        else outputStream.writeInt(-1);
+    }
+
+    private void closeOutputStream() {
+        try {
+            outputStream.close();
+        }
+        catch (IOException e) {}
+    }
+
+    /**
+     * Stops accepting records, the ones already queued are still written before the file is closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        writeExecutor.execute(() -> {
+            if (!failed) closeOutputStream();
+        });
+        writeExecutor.shutdown();
+    }
+}
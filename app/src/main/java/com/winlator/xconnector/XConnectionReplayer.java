@@ -0,0 +1,214 @@
+package com.winlator.xconnector;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Drives a {@link RequestHandler} from a trace written by {@link XConnectionRecorder}, the same way
+ * {@link XConnectorEpoll} would for live connections. Replies are counted and discarded, so the
+ * replay needs no socket and no native library.
+ */
+public class XConnectionReplayer {
+    private final ConnectionHandler connectionHandler;
+    private final RequestHandler requestHandler;
+    private AncillaryFdFactory ancillaryFdFactory = (snapshot) -> -1;
+    private int initialInputBufferCapacity = 262144;
+    private int initialOutputBufferCapacity = 128;
+
+    public interface AncillaryFdFactory {
+        int createFd(byte[] snapshot);
+    }
+
+    public static class Result {
+        public long connections;
+        public long dataRecords;
+        public long bytesRead;
+        public long bytesWritten;
+        public long handledRequests;
+        public long elapsedNanos;
+    }
+
+    /**
+     * Serves queued buffers as incoming data and counts and discards everything written back, so
+     * a request handler can be driven without a unix socket.
+     */
+    public static class ReplayClientSocket extends ClientSocket {
+        private final ArrayDeque<ByteBuffer> pendingData = new ArrayDeque<>();
+        private long bytesWritten;
+
+        public ReplayClientSocket() {
+            this(-1);
+        }
+
+        public ReplayClientSocket(int fd) {
+            super(fd);
+        }
+
+        /**
+         * Queues data to be returned by read, the buffer is consumed from its position to its limit.
+         */
+        public void addPendingData(ByteBuffer data) {
+            pendingData.add(data);
+        }
+
+        public boolean hasPendingData() {
+            return !pendingData.isEmpty();
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public int read(ByteBuffer data) {
+            ByteBuffer chunk = pendingData.peek();
+            if (chunk == null) return -1;
+            int length = Math.min(chunk.remaining(), data.remaining());
+            ByteBuffer slice = chunk.slice();
+            slice.limit(length);
+            data.put(slice);
+            chunk.position(chunk.position() + length);
+            if (!chunk.hasRemaining()) pendingData.poll();
+            return length;
+        }
+
+        @Override
+        public int recvAncillaryMsg(ByteBuffer data) {
+            return read(data);
+        }
+
+        @Override
+        public void write(ByteBuffer data) {
+            bytesWritten += data.remaining();
+            data.position(data.limit());
+        }
+
+        @Override
+        public void sendAncillaryMsg(ByteBuffer data, int ancillaryFd) {
+            write(data);
+        }
+    }
+
+    public XConnectionReplayer(ConnectionHandler connectionHandler, RequestHandler requestHandler) {
+        this.connectionHandler = connectionHandler;
+        this.requestHandler = requestHandler;
+    }
+
+    public void setAncillaryFdFactory(AncillaryFdFactory ancillaryFdFactory) {
+        this.ancillaryFdFactory = ancillaryFdFactory;
+    }
+
+    public void setInitialInputBufferCapacity(int initialInputBufferCapacity) {
+        this.initialInputBufferCapacity = initialInputBufferCapacity;
+    }
+
+    public void setInitialOutputBufferCapacity(int initialOutputBufferCapacity) {
+        this.initialOutputBufferCapacity = initialOutputBufferCapacity;
+    }
+
+    public Result replay(File traceFile) throws IOException {
+        Result result = new Result();
+        HashMap<Integer, Client> clients = new HashMap<>();
+
+        try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(traceFile), 262144))) {
+            if (inStream.readInt() != XConnectionRecorder.MAGIC) throw new IOException("Not an X connection trace.");
+            int version = inStream.readInt();
+            if (version != XConnectionRecorder.VERSION) throw new IOException("Unsupported trace version "+version+".");
+
+            long startTime = System.nanoTime();
+            while (true) {
+                byte type;
+                try {
+                    type = inStream.readByte();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                int clientId = inStream.readInt();
+                inStream.readLong();
+
+                Client client = clients.get(clientId);
+                switch (type) {
+                    case XConnectionRecorder.RECORD_CONNECT:
+                        client = new Client(new ReplayClientSocket(clientId), initialInputBufferCapacity, initialOutputBufferCapacity);
+                        client.connected = true;
+                        connectionHandler.handleNewConnection(client);
+                        clients.put(clientId, client);
+                        result.connections++;
+                        break;
+                    case XConnectionRecorder.RECORD_ANCILLARY_FD: {
+                        int length = inStream.readInt();
+                        byte[] snapshot = new byte[Math.max(length, 0)];
+                        inStream.readFully(snapshot);
+                        if (client != null) client.clientSocket.addAncillaryFd(length >= 0 ? ancillaryFdFactory.createFd(snapshot) : -1);
+                        break;
+                    }
+                    case XConnectionRecorder.RECORD_DATA: {
+                        byte[] data = new byte[inStream.readInt()];
+                        inStream.readFully(data);
+                        if (client != null && client.connected) {
+                            ((ReplayClientSocket)client.clientSocket).addPendingData(ByteBuffer.wrap(data));
+                            handleData(client, result);
+                            result.dataRecords++;
+                        }
+                        break;
+                    }
+                    case XConnectionRecorder.RECORD_DISCONNECT:
+                        if (client != null) {
+                            if (client.connected) connectionHandler.handleConnectionShutdown(client);
+                            result.bytesWritten += ((ReplayClientSocket)client.clientSocket).getBytesWritten();
+                            clients.remove(clientId);
+                        }
+                        break;
+                    default:
+                        throw new IOException("Corrupted trace record type "+type+".");
+                }
+            }
+            result.elapsedNanos = System.nanoTime() - startTime;
+        }
+        finally {
+            for (Client client : clients.values()) {
+                if (client.connected) connectionHandler.handleConnectionShutdown(client);
+                result.bytesWritten += ((ReplayClientSocket)client.clientSocket).getBytesWritten();
+            }
+        }
+
+        return result;
+    }
+
+    private void handleData(Client client, Result result) {
+        XInputStream inputStream = client.getInputStream();
+        ReplayClientSocket clientSocket = (ReplayClientSocket)client.clientSocket;
+        try {
+            if (inputStream != null) {
+                while (client.connected && clientSocket.hasPendingData()) {
+                    int bytesRead = inputStream.readMoreData(false);
+                    if (bytesRead <= 0) break;
+                    result.bytesRead += bytesRead;
+                    int activePosition = 0;
+                    while (requestHandler.handleRequest(client)) {
+                        activePosition = inputStream.getActivePosition();
+                        result.handledRequests++;
+                    }
+                    inputStream.setActivePosition(activePosition);
+                }
+            }
+            else {
+                clientSocket.pendingData.clear();
+                requestHandler.handleRequest(client);
+            }
+        }
+        catch (IOException e) {
+            client.connected = false;
+            connectionHandler.handleConnectionShutdown(client);
+        }
+    }
+}
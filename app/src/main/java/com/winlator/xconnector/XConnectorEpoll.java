@@ -19,6 +19,7 @@ public class XConnectorEpoll implements Runnable {
     private boolean monitorClients = true;
     private int initialInputBufferCapacity = 128;
     private int initialOutputBufferCapacity = 128;
+    private XConnectionRecorder recorder;
     private final SparseArray<Client> connectedClients = new SparseArray<>();
 
     private native boolean addFdToEpoll(int i, int i2);
@@ -107,6 +108,7 @@ public class XConnectorEpoll implements Runnable {
     private void handleNewConnection(int fd) {
         final Client client = new Client(this, new ClientSocket(fd));
         client.connected = true;
+        if (recorder != null) recorder.recordConnect(fd);
         if (this.multithreadedClients) {
             client.shutdownFd = createEventFd();
             client.pollThread = new Thread(() -> {
@@ -131,7 +133,10 @@ public class XConnectorEpoll implements Runnable {
         XInputStream inputStream = client.getInputStream();
         try {
             if (inputStream != null) {
-                if (inputStream.readMoreData(this.canReceiveAncillaryMessages) > 0) {
+                int ancillaryFdCount = client.clientSocket.getAncillaryFdCount();
+                int bytesRead = inputStream.readMoreData(this.canReceiveAncillaryMessages);
+                if (bytesRead > 0) {
+                    if (recorder != null) recorder.recordData(fd, client.clientSocket, ancillaryFdCount, inputStream.peekReceivedData(bytesRead));
                     int activePosition = 0;
                     while (this.running && this.requestHandler.handleRequest(client)) {
                         activePosition = inputStream.getActivePosition();
@@ -154,6 +159,7 @@ public class XConnectorEpoll implements Runnable {
 
     public void killConnection(Client client) {
         client.connected = false;
+        if (recorder != null) recorder.recordDisconnect(client.clientSocket.fd);
         if (this.multithreadedClients) {
             if (Thread.currentThread() != client.pollThread) {
                 client.requestShutdown();
@@ -211,6 +217,10 @@ public class XConnectorEpoll implements Runnable {
         this.canReceiveAncillaryMessages = canReceiveAncillaryMessages;
     }
 
+    public void setRecorder(XConnectionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
     private void requestShutdown() {
         try {
             ByteBuffer data = ByteBuffer.allocateDirect(8);
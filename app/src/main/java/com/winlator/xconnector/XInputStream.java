@@ -45,6 +45,12 @@ public class XInputStream {
         return bytesRead;
     }
 
+    public ByteBuffer peekReceivedData(int length) {
+        ByteBuffer data = activeBuffer.duplicate();
+        data.position(data.limit() - length);
+        return data;
+    }
+
     public int getAncillaryFd() {
         return clientSocket.getAncillaryFd();
     }
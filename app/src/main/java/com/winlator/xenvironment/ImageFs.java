@@ -23,7 +23,7 @@ public class ImageFs {
     public String config_path;
     public String wineprefix;
 
-    private ImageFs(File rootDir) {
+    ImageFs(File rootDir) {
         this.rootDir = rootDir;
         winePath = rootDir + "/opt/wine";
         home_path = rootDir + HOME_PATH;
@@ -81,6 +81,18 @@ public class ImageFs {
         return new File(getConfigDir(), ".img_version");
     }
 
+    public File getContentStoreDir() {
+        return new File(rootDir, ".store");
+    }
+
+    public File getManifestFile() {
+        return new File(getConfigDir(), ".manifest");
+    }
+
+    public File getInstallJournalFile() {
+        return new File(getConfigDir(), ".install_journal");
+    }
+
     public File getInstalledWineDir() {
         return new File(rootDir, "/opt/installed-wine");
     }
@@ -0,0 +1,243 @@
+package com.winlator.xenvironment;
+
+import android.content.res.AssetManager;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import com.winlator.core.BsPatch;
+import com.winlator.core.Callback;
+import com.winlator.core.FileUtils;
+import com.winlator.core.OnExtractFileListener;
+import com.winlator.core.OnExtractProgressListener;
+import com.winlator.core.TarCompressorUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Upgrades an installed image in place from the delta archives in assets/imagefs_delta, named
+ * "<from version>-<to version>.tzst". A delta archive holds the added and changed files at their
+ * paths in the image, plus a .imagefs_delta directory with:
+ *  - manifest: the manifest of the resulting image (see ImageFsManifest)
+ *  - removed: relative paths of files to delete, one per line
+ *  - patches/<path>.bsdiff: BSDIFF40 patches turning the installed file into the new one
+ * Everything is extracted and patched under .winlator/.delta first. The staged files and patch
+ * results must match the new manifest before any of them is moved into the image, and a patch
+ * whose target already matches is skipped, so an interrupted upgrade can simply be run again.
+ */
+class ImageFsDeltaUpdater {
+    private static final String ASSET_DIR = "imagefs_delta";
+    private static final String DELTA_DIR = ".imagefs_delta";
+    private static final String PATCH_SUFFIX = ".bsdiff";
+    private final AssetManager assetManager;
+    private final ImageFs imageFs;
+    private final File rootDir;
+    private final File stagingDir;
+
+    public ImageFsDeltaUpdater(AssetManager assetManager, ImageFs imageFs) {
+        this.assetManager = assetManager;
+        this.imageFs = imageFs;
+        this.rootDir = imageFs.getRootDir();
+        this.stagingDir = new File(imageFs.getConfigDir(), ".delta");
+    }
+
+    /**
+     * Returns the chain of delta archives leading from the installed version to targetVersion,
+     * taking the largest step available each time, or null if there is no such chain.
+     */
+    public ArrayList<String> findDeltaChain(int targetVersion) {
+        String[] assetFiles;
+        try {
+            assetFiles = assetManager.list(ASSET_DIR);
+        }
+        catch (IOException e) {
+            return null;
+        }
+        if (assetFiles == null || assetFiles.length == 0) return null;
+
+        ArrayList<String> chain = new ArrayList<>();
+        int version = imageFs.getVersion();
+        while (version < targetVersion) {
+            String bestAssetFile = null;
+            int bestVersion = version;
+            for (String assetFile : assetFiles) {
+                if (!assetFile.startsWith(version+"-")) continue;
+                int toVersion = getTargetVersion(assetFile);
+                if (toVersion > bestVersion && toVersion <= targetVersion) {
+                    bestVersion = toVersion;
+                    bestAssetFile = assetFile;
+                }
+            }
+
+            if (bestAssetFile == null) return null;
+            chain.add(ASSET_DIR+"/"+bestAssetFile);
+            version = bestVersion;
+        }
+        return chain;
+    }
+
+    private static int getTargetVersion(String assetFile) {
+        String name = assetFile.substring(assetFile.lastIndexOf('/') + 1);
+        if (!name.endsWith(".tzst") || name.indexOf('-') < 0) return -1;
+        try {
+            return Integer.parseInt(name.substring(name.indexOf('-') + 1, name.length() - 5));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Applies one delta archive and records its target version, so an interrupted chain resumes
+     * from the last completed step.
+     */
+    public boolean apply(String assetFile, Callback<Integer> onProgress) {
+        Log.d("ImageFsDeltaUpdater", "Applying "+assetFile);
+        return apply((destination, onExtractFileListener, onExtractProgressListener) -> TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, assetManager, assetFile, destination, onExtractFileListener, onExtractProgressListener), getTargetVersion(assetFile), onProgress);
+    }
+
+    boolean apply(File deltaFile, Callback<Integer> onProgress) {
+        Log.d("ImageFsDeltaUpdater", "Applying "+deltaFile);
+        return apply((destination, onExtractFileListener, onExtractProgressListener) -> TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, deltaFile, destination, onExtractFileListener, onExtractProgressListener), getTargetVersion(deltaFile.getName()), onProgress);
+    }
+
+    private interface Extractor {
+        boolean extract(File destination, OnExtractFileListener onExtractFileListener, OnExtractProgressListener onExtractProgressListener);
+    }
+
+    /**
+     * Extracts the whole archive under the staging directory, checks the staged files and the
+     * patch results against the new manifest, and only then moves them into the image. A delta that
+     * fails any check leaves the installed image as it was.
+     */
+    private boolean apply(Extractor extractor, int targetVersion, Callback<Integer> onProgress) {
+        FileUtils.delete(stagingDir);
+        File filesDir = new File(stagingDir, "files");
+        filesDir.mkdirs();
+
+        String filesPath = filesDir.getPath()+"/";
+        boolean success = extractor.extract(filesDir, (file, size) -> {
+            String path = file.getPath().startsWith(filesPath) ? file.getPath().substring(filesPath.length()) : file.getPath();
+            if (path.equals(DELTA_DIR) || path.startsWith(DELTA_DIR+"/")) return new File(stagingDir, path.substring(DELTA_DIR.length()));
+            return file;
+        }, (bytesRead, totalBytes) -> {
+            if (onProgress != null && totalBytes > 0) onProgress.call((int)(bytesRead * 100 / totalBytes));
+        });
+        if (!success) {
+            FileUtils.delete(stagingDir);
+            return false;
+        }
+
+        File manifestFile = new File(stagingDir, "manifest");
+        ImageFsManifest manifest = ImageFsManifest.load(rootDir, manifestFile, null);
+        if (manifest == null) {
+            Log.e("ImageFsDeltaUpdater", "Delta archive for version "+targetVersion+" has no manifest");
+            FileUtils.delete(stagingDir);
+            return false;
+        }
+
+        File patchesDir = new File(stagingDir, "patches");
+        if (!verifyFiles(filesDir, filesDir, manifest) || !applyPatches(patchesDir, patchesDir, filesDir, manifest)) {
+            FileUtils.delete(stagingDir);
+            return false;
+        }
+
+        File removedFile = new File(stagingDir, "removed");
+        if (removedFile.isFile()) {
+            for (String path : FileUtils.readLines(removedFile)) {
+                if (!path.isEmpty()) FileUtils.delete(new File(rootDir, path));
+            }
+        }
+
+        if (!moveFiles(filesDir, filesDir)) return false;
+
+        manifestFile.renameTo(imageFs.getManifestFile());
+        FileUtils.delete(stagingDir);
+        imageFs.createImgVersionFile(targetVersion);
+        return true;
+    }
+
+    private boolean verifyFiles(File filesDir, File dir, ImageFsManifest manifest) {
+        File[] files = dir.listFiles();
+        if (files == null) return true;
+        for (File file : files) {
+            if (FileUtils.isSymlink(file)) continue;
+            if (file.isDirectory()) {
+                if (!verifyFiles(filesDir, file, manifest)) return false;
+                continue;
+            }
+
+            String path = file.getPath().substring(filesDir.getPath().length() + 1);
+            if (!manifest.verify(file, path)) {
+                Log.e("ImageFsDeltaUpdater", "Staged file "+path+" does not match the manifest");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the patched files next to the staged ones. A patch whose target in the image already
+     * matches the manifest is skipped.
+     */
+    private boolean applyPatches(File patchesDir, File dir, File filesDir, ImageFsManifest manifest) {
+        File[] files = dir.listFiles();
+        if (files == null) return true;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!applyPatches(patchesDir, file, filesDir, manifest)) return false;
+                continue;
+            }
+            if (!file.getName().endsWith(PATCH_SUFFIX)) continue;
+
+            String path = file.getPath().substring(patchesDir.getPath().length() + 1);
+            path = path.substring(0, path.length() - PATCH_SUFFIX.length());
+            File targetFile = new File(rootDir, path);
+            if (manifest.verify(targetFile, path)) continue;
+
+            File newFile = new File(filesDir, path);
+            newFile.getParentFile().mkdirs();
+            if (!BsPatch.apply(targetFile, file, newFile) || !manifest.verify(newFile, path)) {
+                Log.e("ImageFsDeltaUpdater", "Failed to patch "+path);
+                return false;
+            }
+
+            try {
+                Os.chmod(newFile.getPath(), 0771);
+            }
+            catch (ErrnoException e) {
+                Log.e("ImageFsDeltaUpdater", "Failed to chmod "+path+": " + e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renames the staged files over their paths in the image. Staging lives on the same file
+     * system, so each replacement is atomic and an interrupted move can be run again.
+     */
+    private boolean moveFiles(File filesDir, File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return true;
+        for (File file : files) {
+            String path = file.getPath().substring(filesDir.getPath().length() + 1);
+            File targetFile = new File(rootDir, path);
+            if (!FileUtils.isSymlink(file) && file.isDirectory()) {
+                if (FileUtils.isSymlink(targetFile) || targetFile.isFile()) targetFile.delete();
+                targetFile.mkdirs();
+                if (!moveFiles(filesDir, file)) return false;
+                continue;
+            }
+
+            if (!FileUtils.isSymlink(targetFile) && targetFile.isDirectory()) FileUtils.delete(targetFile);
+            if (!file.renameTo(targetFile)) {
+                Log.e("ImageFsDeltaUpdater", "Failed to replace "+path);
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -17,6 +17,7 @@ import com.winlator.container.ContainerManager;
 import com.winlator.core.Callback;
 import com.winlator.core.DefaultVersion;
 import com.winlator.core.FileUtils;
+import com.winlator.core.OnExtractFileListener;
 // import com.winlator.core.PreloaderDialog;
 import com.winlator.core.TarCompressorUtils;
 import com.winlator.core.WineInfo;
@@ -26,14 +27,19 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class ImageFsInstaller {
     public static final byte LATEST_VERSION = 22;
+    private static final String IMAGEFS_ASSET = "imagefs_gamenative.txz";
+    private static final String PATCHES_ASSET = "imagefs_patches_gamenative.tzst";
+    private static final String[] REWRITING_ASSET_DIRS = {"box86_64", "graphics_driver"};
 
     private static void resetContainerImgVersions(Context context) {
         ContainerManager manager = new ContainerManager(context);
@@ -49,6 +55,42 @@ public abstract class ImageFsInstaller {
         }
     }
 
+    /**
+     * Brings an installed image to LATEST_VERSION through the chain of delta archives, returns
+     * false if there is none or a step fails, leaving the full installation to the caller.
+     */
+    private static boolean updateFromDeltas(AssetManager assetManager, ImageFs imageFs, Callback<Integer> onProgress) {
+        ImageFsDeltaUpdater updater = new ImageFsDeltaUpdater(assetManager, imageFs);
+        ArrayList<String> chain = updater.findDeltaChain(LATEST_VERSION);
+        if (chain == null) return false;
+
+        for (int i = 0; i < chain.size(); i++) {
+            final int step = i;
+            boolean success = updater.apply(chain.get(i), onProgress != null ? (progress) -> onProgress.call((step * 100 + progress) / chain.size()) : null);
+            if (!success) {
+                Log.w("ImageFsInstaller", "Failed to apply "+chain.get(i)+", installing from scratch");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void finishInstallation(Context context, ImageFs imageFs) {
+        File rootDir = imageFs.getRootDir();
+        TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), "box86_64/box64-" + DefaultVersion.BOX64 + ".tzst", rootDir);
+        ContainerManager containerManager = new ContainerManager(context);
+        File homeDir = new File(rootDir, "home");
+        for (Container container : containerManager.getContainers()) {
+            File containerDir = new File(homeDir, ImageFs.USER + "-" + container.id);
+            containerManager.extractContainerPatternFile(container.getWineVersion(), containerDir, null);
+        }
+        imageFs.createImgVersionFile(LATEST_VERSION);
+        resetContainerImgVersions(context);
+
+        // Clear Steam DLL markers for all games
+        clearSteamDllMarkers(context, containerManager);
+    }
+
     private static Future<Boolean> installFromAssetsFuture(final Context context, AssetManager assetManager, Callback<Integer> onProgress) {
         // AppUtils.keepScreenOn(context);
         ImageFs imageFs = ImageFs.find(context);
@@ -59,36 +101,47 @@ public abstract class ImageFsInstaller {
         // final DownloadProgressDialog dialog = new DownloadProgressDialog(context);
         // dialog.show(R.string.installing_system_files);
         return Executors.newSingleThreadExecutor().submit(() -> {
-            clearRootDir(rootDir);
-            final byte compressionRatio = 22;
-            final long contentLength = (long)(FileUtils.getSize(assetManager, "imagefs_gamenative.txz") * (100.0f / compressionRatio));
-            AtomicLong totalSizeRef = new AtomicLong();
-
-            boolean success = TarCompressorUtils.extract(TarCompressorUtils.Type.XZ, assetManager, "imagefs_gamenative.txz", rootDir, (file, size) -> {
-                if (size > 0) {
-                    long totalSize = totalSizeRef.addAndGet(size);
-                    if (onProgress != null) {
-                        final int progress = (int)(((float)totalSize / contentLength) * 100);
-                        onProgress.call(progress);
+            if (imageFs.isValid() && updateFromDeltas(assetManager, imageFs, onProgress)) {
+                Log.d("ImageFsInstaller", "Successfully updated system files from delta archives");
+                finishInstallation(context, imageFs);
+                return true;
+            }
+
+            String header = "imagefs "+LATEST_VERSION+" "+FileUtils.getSize(assetManager, IMAGEFS_ASSET);
+            File journalFile = imageFs.getInstallJournalFile();
+            ImageFsManifest manifest = ImageFsManifest.load(rootDir, journalFile, header);
+            if (manifest != null) {
+                Log.d("ImageFsInstaller", "Resuming installation, "+manifest.getEntryCount()+" files already installed");
+            }
+            else {
+                clearRootDir(rootDir);
+                manifest = new ImageFsManifest(rootDir, header);
+            }
+
+            final ImageFsManifest journal = manifest;
+            journal.openJournal(journalFile, journal.getEntryCount() > 0);
+            boolean success = TarCompressorUtils.extract(TarCompressorUtils.Type.XZ, assetManager, IMAGEFS_ASSET, rootDir,
+                new OnExtractFileListener() {
+                    @Override
+                    public File onExtractFile(File destination, long size) {
+                        return destination;
                     }
-                }
-                return file;
-            });
+
+                    @Override
+                    public boolean onWriteFile(File destination, long size) {
+                        return !journal.isInstalled(destination, size);
+                    }
+                },
+                (bytesRead, totalBytes) -> {
+                    if (onProgress != null && totalBytes > 0) onProgress.call((int)(bytesRead * 100 / totalBytes));
+                },
+                journal::add);
+            journal.closeJournal();
 
             if (success) {
                 Log.d("ImageFsInstaller", "Successfully installed system files");
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), "box86_64/box64-" + DefaultVersion.BOX64 + ".tzst", rootDir);
-                ContainerManager containerManager = new ContainerManager(context);
-                File homeDir = new File(rootDir, "home");
-                for (Container container : containerManager.getContainers()) {
-                    File containerDir = new File(homeDir, ImageFs.USER + "-" + container.id);
-                    containerManager.extractContainerPatternFile(container.getWineVersion(), containerDir, null);
-                }
-                imageFs.createImgVersionFile(LATEST_VERSION);
-                resetContainerImgVersions(context);
-
-                // Clear Steam DLL markers for all games
-                clearSteamDllMarkers(context, containerManager);
+                journalFile.renameTo(imageFs.getManifestFile());
+                finishInstallation(context, imageFs);
             }
             else {
                 Log.e("ImageFsInstaller", "Failed to install system files");
@@ -114,6 +167,57 @@ public abstract class ImageFsInstaller {
         }
     }
 
+    /**
+     * Returns the relative paths the app rewrites after installing the image: everything below
+     * home, where the container patterns, wine prefixes, DXVK and wine components go, and every
+     * entry of the archives extracted over the image later on. Those are listed by extracting them
+     * with every entry skipped.
+     */
+    private static HashSet<String> getRewrittenPaths(AssetManager assetManager, File rootDir) {
+        final HashSet<String> paths = new HashSet<>();
+        paths.add("home/");
+
+        ArrayList<String> assetFiles = new ArrayList<>();
+        assetFiles.add(PATCHES_ASSET);
+        for (String assetDir : REWRITING_ASSET_DIRS) {
+            try {
+                String[] names = assetManager.list(assetDir);
+                if (names == null) continue;
+                for (String name : names) {
+                    if (name.endsWith(".tzst")) assetFiles.add(assetDir+"/"+name);
+                }
+            }
+            catch (IOException e) {}
+        }
+
+        final Path rootPath = rootDir.toPath();
+        for (String assetFile : assetFiles) {
+            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, assetManager, assetFile, rootDir, (file, size) -> {
+                paths.add(rootPath.relativize(file.toPath().normalize()).toString());
+                return null;
+            });
+        }
+        return paths;
+    }
+
+    /**
+     * Checks the files of the installed image against the manifest written when it was installed,
+     * without extracting anything. Paths the app rewrites after installation are left out. The
+     * result lists the relative paths of missing or modified files, it is null if the image has no
+     * manifest (installed before manifests existed).
+     */
+    public static Future<List<String>> verifyFuture(final Context context, Callback<Integer> onProgress) {
+        ImageFs imageFs = ImageFs.find(context);
+        return Executors.newSingleThreadExecutor().submit(() -> {
+            ImageFsManifest manifest = ImageFsManifest.load(imageFs.getRootDir(), imageFs.getManifestFile(), null);
+            if (manifest == null) return null;
+            manifest.exclude(getRewrittenPaths(context.getAssets(), imageFs.getRootDir()));
+            List<String> failedPaths = manifest.verify(onProgress);
+            if (!failedPaths.isEmpty()) Log.w("ImageFsInstaller", failedPaths.size()+" system files are missing or modified");
+            return failedPaths;
+        });
+    }
+
     private static void clearOptDir(File optDir) {
         File[] files = optDir.listFiles();
         if (files != null) {
@@ -0,0 +1,227 @@
+package com.winlator.xenvironment;
+
+import android.util.Log;
+
+import com.winlator.core.Callback;
+import com.winlator.core.StreamUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Size and CRC32 of every regular file of an installed image, one "checksum size path" line per
+ * file below a header identifying the archive they came from. While installing, the same file is
+ * appended to as each file is completed and serves as a journal, so an interrupted installation
+ * skips what was already written. Once the installation finishes it becomes the manifest used to
+ * verify the tree.
+ */
+class ImageFsManifest {
+    private static final int FLUSH_INTERVAL = 256;
+    private final File rootDir;
+    private final String header;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private BufferedWriter journal;
+    private int unflushedCount = 0;
+
+    private static class Entry {
+        private final long size;
+        private final long checksum;
+
+        private Entry(long size, long checksum) {
+            this.size = size;
+            this.checksum = checksum;
+        }
+    }
+
+    public ImageFsManifest(File rootDir, String header) {
+        this.rootDir = rootDir;
+        this.header = header;
+    }
+
+    /**
+     * Reads a manifest or journal, returns null if it does not exist or was written for a
+     * different header. A truncated last line (from an interrupted write) is ignored.
+     */
+    public static ImageFsManifest load(File rootDir, File file, String header) {
+        if (!file.isFile()) return null;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            if (line == null || (header != null && !line.equals(header))) return null;
+
+            ImageFsManifest manifest = new ImageFsManifest(rootDir, line);
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 3) continue;
+                try {
+                    manifest.entries.put(parts[2], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[0], 16)));
+                }
+                catch (NumberFormatException e) {}
+            }
+            return manifest;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    private String getRelativePath(File file) {
+        String path = file.getPath();
+        String rootPath = rootDir.getPath();
+        return path.startsWith(rootPath+"/") ? path.substring(rootPath.length() + 1) : path;
+    }
+
+    /**
+     * Returns true if file was recorded as completed with the size it has in the archive and still
+     * has its recorded size and checksum. Only used when resuming, where a file the journal lists
+     * may still have been cut short or overwritten after it was recorded. Called from the writer
+     * threads of the extraction, so the checksums are computed in parallel.
+     */
+    public boolean isInstalled(File file, long size) {
+        Entry entry = entries.get(getRelativePath(file));
+        return entry != null && entry.size == size && verifyFile(file, entry);
+    }
+
+    /**
+     * Drops the entries of paths that are rewritten after installation, a path ending with a slash
+     * stands for everything below it.
+     */
+    public void exclude(Collection<String> paths) {
+        ArrayList<String> dirPaths = new ArrayList<>();
+        for (String path : paths) {
+            if (path.endsWith("/")) dirPaths.add(path);
+        }
+
+        entries.keySet().removeIf((path) -> {
+            if (paths.contains(path)) return true;
+            for (String dirPath : dirPaths) {
+                if (path.startsWith(dirPath)) return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Starts writing the journal to file, continuing it if append is true.
+     */
+    public synchronized boolean openJournal(File file, boolean append) {
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        try {
+            journal = new BufferedWriter(new FileWriter(file, append));
+            if (!append) {
+                journal.write(header);
+                journal.newLine();
+            }
+            journal.flush();
+            return true;
+        }
+        catch (IOException e) {
+            Log.e("ImageFsManifest", "Failed to open journal: " + e);
+            journal = null;
+            return false;
+        }
+    }
+
+    public synchronized void add(File file, long size, long checksum) {
+        String path = getRelativePath(file);
+        entries.put(path, new Entry(size, checksum));
+        if (journal == null) return;
+        try {
+            journal.write(Long.toHexString(checksum)+" "+size+" "+path);
+            journal.newLine();
+            if (++unflushedCount == FLUSH_INTERVAL) {
+                journal.flush();
+                unflushedCount = 0;
+            }
+        }
+        catch (IOException e) {
+            Log.e("ImageFsManifest", "Failed to write journal: " + e);
+        }
+    }
+
+    public synchronized void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        }
+        catch (IOException e) {}
+        journal = null;
+    }
+
+    /**
+     * Checks every recorded file against its size and checksum, spreading the files over one
+     * thread per core. Returns the relative paths of the files that are missing or differ.
+     */
+    public List<String> verify(Callback<Integer> onProgress) throws InterruptedException {
+        final List<String> failedPaths = Collections.synchronizedList(new ArrayList<>());
+        final int total = entries.size();
+        final AtomicInteger checkedCount = new AtomicInteger();
+        final AtomicInteger lastProgress = new AtomicInteger(-1);
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                executor.execute(() -> {
+                    String path = entry.getKey();
+                    if (!verifyFile(new File(rootDir, path), entry.getValue())) failedPaths.add(path);
+
+                    if (onProgress != null) {
+                        int progress = (int)((long)checkedCount.incrementAndGet() * 100 / total);
+                        if (lastProgress.getAndSet(progress) != progress) onProgress.call(progress);
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        Collections.sort(failedPaths);
+        return failedPaths;
+    }
+
+    /**
+     * Checks file against the size and checksum recorded for the relative path, returns false if
+     * nothing is recorded for it.
+     */
+    public boolean verify(File file, String path) {
+        Entry entry = entries.get(path);
+        return entry != null && verifyFile(file, entry);
+    }
+
+    private static boolean verifyFile(File file, Entry entry) {
+        if (!file.isFile() || file.length() != entry.size) return false;
+        try (InputStream inStream = new FileInputStream(file)) {
+            CRC32 checksum = new CRC32();
+            byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = inStream.read(buffer)) != -1) checksum.update(buffer, 0, bytesRead);
+            return checksum.getValue() == entry.checksum;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.winlator.xenvironment.components;
 import android.util.Log;
 
 import com.winlator.alsaserver.ALSAClientConnectionHandler;
+import com.winlator.alsaserver.ALSAMixer;
 import com.winlator.alsaserver.ALSARequestHandler;
 import com.winlator.core.KeyValueSet;
 import com.winlator.xconnector.UnixSocketConfig;
@@ -12,6 +13,7 @@ import com.winlator.alsaserver.ALSAClient;
 
 public class ALSAServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
+    private ALSAMixer mixer;
     private final ALSAClient.Options options;
     private final UnixSocketConfig socketConfig;
 
@@ -26,7 +28,8 @@ public class ALSAServerComponent extends EnvironmentComponent {
             return;
         }
         ALSAClient.assignFramesPerBuffer(this.environment.getContext());
-        XConnectorEpoll xConnectorEpoll = new XConnectorEpoll(this.socketConfig, new ALSAClientConnectionHandler(this.options), new ALSARequestHandler());
+        this.mixer = new ALSAMixer(this.environment.getContext(), this.options);
+        XConnectorEpoll xConnectorEpoll = new XConnectorEpoll(this.socketConfig, new ALSAClientConnectionHandler(this.options, this.mixer), new ALSARequestHandler());
         this.connector = xConnectorEpoll;
         xConnectorEpoll.setMultithreadedClients(true);
         this.connector.start();
@@ -39,5 +42,13 @@ public class ALSAServerComponent extends EnvironmentComponent {
             xConnectorEpoll.stop();
             this.connector = null;
         }
+        if (this.mixer != null) {
+            this.mixer.release();
+            this.mixer = null;
+        }
+    }
+
+    public ALSAMixer getMixer() {
+        return this.mixer;
     }
 }
@@ -55,6 +55,15 @@ public class SteamClientComponent extends EnvironmentComponent implements Connec
         }
     }
 
+    /**
+     * Delivers a callback result to the games registered for callbackId, see
+     * SteamPipeServer.postCallback().
+     */
+    public void postCallback(int callbackId, byte[] data) {
+        SteamPipeServer connector = this.connector;
+        if (connector != null) connector.postCallback(callbackId, data);
+    }
+
     @Override
     public void handleNewConnection(Client client) {
         Log.d("SteamClientComponent", "New connection");
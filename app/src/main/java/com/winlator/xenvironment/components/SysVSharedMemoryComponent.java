@@ -15,19 +15,50 @@ public class SysVSharedMemoryComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
     public final UnixSocketConfig socketConfig;
     private SysVSharedMemory sysVSharedMemory;
+    private SysVSHMRequestHandler requestHandler;
     private final XServer xServer;
+    private long prefaultThreshold = SysVSharedMemory.DEFAULT_PREFAULT_THRESHOLD;
+    private long hugePageThreshold = SysVSharedMemory.DEFAULT_HUGE_PAGE_THRESHOLD;
 
     public SysVSharedMemoryComponent(XServer xServer, UnixSocketConfig socketConfig) {
         this.xServer = xServer;
         this.socketConfig = socketConfig;
     }
 
+    public long getPrefaultThreshold() {
+        return prefaultThreshold;
+    }
+
+    /**
+     * Segments of at least this many bytes are pre-faulted, 0 disables pre-faulting.
+     */
+    public void setPrefaultThreshold(long prefaultThreshold) {
+        this.prefaultThreshold = prefaultThreshold;
+        if (sysVSharedMemory != null) sysVSharedMemory.setPrefaultThreshold(prefaultThreshold);
+    }
+
+    public long getHugePageThreshold() {
+        return hugePageThreshold;
+    }
+
+    /**
+     * Segments of at least this many bytes are backed by transparent huge pages where supported,
+     * 0 disables huge pages.
+     */
+    public void setHugePageThreshold(long hugePageThreshold) {
+        this.hugePageThreshold = hugePageThreshold;
+        if (sysVSharedMemory != null) sysVSharedMemory.setHugePageThreshold(hugePageThreshold);
+    }
+
     @Override
     public void start() {
         Log.d("SysVSharedMemoryComponent", "Starting...");
         if (connector != null) return;
         sysVSharedMemory = new SysVSharedMemory();
-        connector = new XConnectorEpoll(socketConfig, new SysVSHMConnectionHandler(sysVSharedMemory), new SysVSHMRequestHandler());
+        sysVSharedMemory.setPrefaultThreshold(prefaultThreshold);
+        sysVSharedMemory.setHugePageThreshold(hugePageThreshold);
+        requestHandler = new SysVSHMRequestHandler();
+        connector = new XConnectorEpoll(socketConfig, new SysVSHMConnectionHandler(sysVSharedMemory, requestHandler), requestHandler);
         connector.start();
 
         xServer.setSHMSegmentManager(new SHMSegmentManager(sysVSharedMemory));
@@ -40,6 +71,10 @@ public class SysVSharedMemoryComponent extends EnvironmentComponent {
             connector.stop();
             connector = null;
         }
+        if (requestHandler != null) {
+            requestHandler.shutdown();
+            requestHandler = null;
+        }
 
         sysVSharedMemory.deleteAll();
     }
@@ -4,7 +4,6 @@ import android.util.Log;
 
 import androidx.annotation.Keep;
 
-import com.winlator.renderer.GLRenderer;
 import com.winlator.renderer.Texture;
 import com.winlator.xconnector.Client;
 import com.winlator.xconnector.ConnectionHandler;
@@ -13,6 +12,7 @@ import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xenvironment.EnvironmentComponent;
 import com.winlator.xserver.Drawable;
+import com.winlator.xserver.RendererSink;
 import com.winlator.xserver.XServer;
 
 import java.io.IOException;
@@ -60,8 +60,8 @@ public class VirGLRendererComponent extends EnvironmentComponent implements Conn
         if (sharedEGLContextPtr != 0) return sharedEGLContextPtr;
         final Thread thread = Thread.currentThread();
         try {
-            GLRenderer renderer = xServer.getRenderer();
-            renderer.xServerView.queueEvent(() -> {
+            RendererSink renderer = xServer.getRenderer();
+            renderer.queueEvent(() -> {
                 sharedEGLContextPtr = getCurrentEGLContextPtr();
 
                 synchronized(thread) {
@@ -3,6 +3,7 @@ package com.winlator.xenvironment.components;
 import android.util.Log;
 
 import com.winlator.xenvironment.EnvironmentComponent;
+import com.winlator.xconnector.XConnectionRecorder;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xserver.XClientConnectionHandler;
@@ -13,6 +14,7 @@ public class XServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
     private final XServer xServer;
     private final UnixSocketConfig socketConfig;
+    private XConnectionRecorder connectionRecorder;
 
     public XServerComponent(XServer xServer, UnixSocketConfig socketConfig) {
         this.xServer = xServer;
@@ -26,6 +28,7 @@ public class XServerComponent extends EnvironmentComponent {
         connector = new XConnectorEpoll(socketConfig, new XClientConnectionHandler(xServer), new XClientRequestHandler());
         connector.setInitialInputBufferCapacity(262144);
         connector.setCanReceiveAncillaryMessages(true);
+        connector.setRecorder(connectionRecorder);
         connector.start();
     }
 
@@ -36,6 +39,12 @@ public class XServerComponent extends EnvironmentComponent {
             connector.stop();
             connector = null;
         }
+        if (connectionRecorder != null) connectionRecorder.close();
+    }
+
+    public void setConnectionRecorder(XConnectionRecorder connectionRecorder) {
+        this.connectionRecorder = connectionRecorder;
+        if (connector != null) connector.setRecorder(connectionRecorder);
     }
 
     public XServer getXServer() {
@@ -1,11 +1,11 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import java.nio.IntBuffer;
 
 public class CursorManager extends XResourceManager {
-    private final SparseArray<Cursor> cursors = new SparseArray<>();
+    private final SparseArrayCompat<Cursor> cursors = new SparseArrayCompat<>();
     private final DrawableManager drawableManager;
 
     public CursorManager(DrawableManager drawableManager) {
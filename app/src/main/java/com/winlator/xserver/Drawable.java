@@ -1,7 +1,5 @@
 package com.winlator.xserver;
 
-import android.graphics.Bitmap;
-
 import com.winlator.core.Callback;
 import com.winlator.math.Mathf;
 import com.winlator.renderer.GPUImage;
@@ -20,10 +18,7 @@ public class Drawable extends XResource {
     private Runnable onDrawListener;
     private Callback<Drawable> onDestroyListener;
     public final Object renderLock = new Object();
-
-    static {
-        System.loadLibrary("winlator");
-    }
+    private static final PixelOps pixelOps = createPixelOps();
 
     public Drawable(int id, int width, int height, Visual visual) {
         super(id);
@@ -34,11 +29,14 @@ public class Drawable extends XResource {
         this.data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
     }
 
-    public static Drawable fromBitmap(Bitmap bitmap) {
-        Drawable drawable = new Drawable(0, bitmap.getWidth(), bitmap.getHeight(), null);
-        fromBitmap(bitmap, drawable.data);
-        drawable.blank = false;
-        return drawable;
+    private static PixelOps createPixelOps() {
+        try {
+            System.loadLibrary("winlator");
+            return new NativePixelOps();
+        }
+        catch (UnsatisfiedLinkError e) {
+            return new JavaPixelOps();
+        }
     }
 
     public boolean isBlank() {
@@ -85,7 +83,7 @@ public class Drawable extends XResource {
 
     public void drawImage(short srcX, short srcY, short dstX, short dstY, short width, short height, byte depth, ByteBuffer data, short totalWidth, short totalHeight) {
         if (depth == 1) {
-            drawBitmap(width, height, data, this.data);
+            pixelOps.drawBitmap(width, height, data, this.data);
         }
         else if (depth == 24 || depth == 32) {
             dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
@@ -93,7 +91,7 @@ public class Drawable extends XResource {
             if ((dstX + width) > this.width) width = (short)((this.width - dstX));
             if ((dstY + height) > this.height) height = (short)((this.height - dstY));
 
-            copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
+            pixelOps.copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
         }
 
         this.data.rewind();
@@ -111,7 +109,7 @@ public class Drawable extends XResource {
         if ((x + width) > this.width) width = (short)(this.width - x);
         if ((y + height) > this.height) height = (short)(this.height - y);
 
-        copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
+        pixelOps.copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
 
         this.data.rewind();
         dstData.rewind();
@@ -129,9 +127,9 @@ public class Drawable extends XResource {
         if ((dstY + height) > this.height) height = (short)(this.height - dstY);
 
         if (gcFunction == GraphicsContext.Function.COPY) {
-            copyArea(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
+            pixelOps.copyArea(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
         }
-        else copyAreaOp(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data, gcFunction.ordinal());
+        else pixelOps.copyAreaOp(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data, gcFunction.ordinal());
 
         this.data.rewind();
         drawable.data.rewind();
@@ -150,7 +148,7 @@ public class Drawable extends XResource {
         if ((x + width) > this.width) width = (short)((this.width - x));
         if ((y + height) > this.height) height = (short)((this.height - y));
 
-        fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
+        pixelOps.fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
         this.data.rewind();
 
         texture.setNeedsUpdate(true);
@@ -169,7 +167,7 @@ public class Drawable extends XResource {
         x1 = Mathf.clamp(x1, 0, width-lineWidth);
         y1 = Mathf.clamp(y1, 0, height-lineWidth);
 
-        drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
+        pixelOps.drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
 
         this.data.rewind();
 
@@ -178,7 +176,7 @@ public class Drawable extends XResource {
     }
 
     public void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, Drawable srcDrawable, Drawable maskDrawable) {
-        drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, srcDrawable.data, maskDrawable.data, this.data);
+        pixelOps.drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, srcDrawable.data, maskDrawable.data, this.data);
         this.data.rewind();
 
         texture.setNeedsUpdate(true);
@@ -193,18 +191,4 @@ public class Drawable extends XResource {
             runnable.run();
         }
     }
-
-    private static native void drawBitmap(short width, short height, ByteBuffer srcData, ByteBuffer dstData);
-
-    private static native void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, ByteBuffer srcData, ByteBuffer maskData, ByteBuffer dstData);
-
-    private static native void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData);
-
-    private static native void copyAreaOp(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData, int gcFunction);
-
-    private static native void fillRect(short x, short y, short width, short height, int color, short stride, ByteBuffer data);
-
-    private static native void drawLine(short x0, short y0, short x1, short y1, int color, short lineWidth, short stride, ByteBuffer data);
-
-    private static native void fromBitmap(Bitmap bitmap, ByteBuffer data);
 }
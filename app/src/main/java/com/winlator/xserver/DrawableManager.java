@@ -1,17 +1,13 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.core.Callback;
 import com.winlator.renderer.Texture;
-import com.winlator.widget.XServerView;
-import com.winlator.xenvironment.components.VortekRendererComponent;
-
-import java.util.Objects;
 
 public class DrawableManager extends XResourceManager implements XResourceManager.OnResourceLifecycleListener {
     private final XServer xServer;
-    private final SparseArray<Drawable> drawables = new SparseArray<>();
+    private final SparseArrayCompat<Drawable> drawables = new SparseArrayCompat<>();
 
     public DrawableManager(XServer xServer) {
         this.xServer = xServer;
@@ -38,12 +34,7 @@ public class DrawableManager extends XResourceManager implements XResourceManage
         Drawable drawable = drawables.get(id);
 
         final Texture texture = drawable.getTexture();
-//        if (texture != null) {
-//            XServerView xServerView = this.xServer.getRenderer().xServerView;
-//            Objects.requireNonNull(texture);
-//            xServerView.queueEvent(() -> VortekRendererComponent.destroyTexture(texture));
-//        }
-        if (texture != null) xServer.getRenderer().xServerView.queueEvent(texture::destroy);
+        if (texture != null) xServer.queueRenderEvent(texture::destroy);
 
         Callback<Drawable> onDestroyListener = drawable.getOnDestroyListener();
         if (onDestroyListener != null) onDestroyListener.call(drawable);
@@ -61,7 +52,7 @@ public class DrawableManager extends XResourceManager implements XResourceManage
         return xServer.pixmapManager.visual;
     }
 
-    public SparseArray<Drawable> all(){
+    public SparseArrayCompat<Drawable> all(){
         return drawables;
     }
 }
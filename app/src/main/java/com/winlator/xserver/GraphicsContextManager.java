@@ -1,11 +1,11 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.xconnector.XInputStream;
 
 public class GraphicsContextManager extends XResourceManager {
-    private final SparseArray<GraphicsContext> graphicsContexts = new SparseArray<>();
+    private final SparseArrayCompat<GraphicsContext> graphicsContexts = new SparseArrayCompat<>();
 
     public GraphicsContext getGraphicsContext(int id) {
         return graphicsContexts.get(id);
@@ -13,11 +13,72 @@ import com.winlator.xserver.events.MappingNotify;
 import com.winlator.xserver.events.MotionNotify;
 import com.winlator.xserver.events.PointerWindowEvent;
 
+import java.util.ArrayList;
+
 public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyboard.OnKeyboardListener, WindowManager.OnWindowModificationListener, XResourceManager.OnResourceLifecycleListener {
     private static final byte MOUSE_WHEEL_DELTA = 120;
     private Window pointWindow;
+    private short pointWindowX = -1;
+    private short pointWindowY = -1;
+    private int pointWindowGeneration = -1;
+    private volatile int routeGeneration = 0;
+    private final EventRoute pointerRoute = new EventRoute();
+    private final EventRoute keyPressRoute = new EventRoute();
+    private final EventRoute keyReleaseRoute = new EventRoute();
     private final XServer xServer;
 
+    /**
+     * Recipients of an input event resolved for a point window, event mask and grab/focus state.
+     * Anything else the resolution depends on (window tree, attributes, event selections) bumps
+     * routeGeneration when it changes, so a route is reused only while it is still exact. The
+     * enabled state of the windows that were checked is compared on every reuse instead, since it
+     * is toggled directly on WindowAttributes without notifying anyone.
+     */
+    private static class EventRoute {
+        private int generation = -1;
+        private Window pointWindow;
+        private int eventBits;
+        private Window stateWindow;
+        private EventListener grabListener;
+        private boolean ownerEvents;
+        private Window eventWindow;
+        private Window child;
+        private final ArrayList<EventListener> eventListeners = new ArrayList<>();
+        private final Window[] checkedWindows = new Window[2];
+        private final boolean[] checkedEnabled = new boolean[2];
+
+        private boolean matches(int generation, Window pointWindow, int eventBits, Window stateWindow, EventListener grabListener, boolean ownerEvents) {
+            if (this.generation != generation || this.pointWindow != pointWindow || this.eventBits != eventBits || this.stateWindow != stateWindow || this.grabListener != grabListener || this.ownerEvents != ownerEvents) return false;
+            for (int i = 0; i < checkedWindows.length; i++) {
+                if (checkedWindows[i] != null && checkedWindows[i].attributes.isEnabled() != checkedEnabled[i]) return false;
+            }
+            return true;
+        }
+
+        private boolean isEnabled(int index, Window window) {
+            checkedWindows[index] = window;
+            checkedEnabled[index] = window.attributes.isEnabled();
+            return checkedEnabled[index];
+        }
+
+        private void reset(int generation, Window pointWindow, int eventBits, Window stateWindow, EventListener grabListener, boolean ownerEvents) {
+            this.generation = generation;
+            this.pointWindow = pointWindow;
+            this.eventBits = eventBits;
+            this.stateWindow = stateWindow;
+            this.grabListener = grabListener;
+            this.ownerEvents = ownerEvents;
+            eventWindow = null;
+            child = null;
+            eventListeners.clear();
+            checkedWindows[0] = checkedWindows[1] = null;
+        }
+
+        private void sendEvent(Event event) {
+            for (int i = 0, size = eventListeners.size(); i < size; i++) eventListeners.get(i).sendEvent(event);
+        }
+    }
+
     public InputDeviceManager(XServer xServer) {
         this.xServer = xServer;
         pointWindow = xServer.windowManager.rootWindow;
@@ -29,37 +90,126 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     @Override
     public void onMapWindow(Window window) {
+        invalidateEventRoutes();
         updatePointWindow();
     }
 
     @Override
     public void onUnmapWindow(Window window) {
+        invalidateEventRoutes();
         updatePointWindow();
     }
 
     @Override
     public void onChangeWindowZOrder(Window window) {
+        invalidateEventRoutes();
         updatePointWindow();
     }
 
     @Override
     public void onUpdateWindowGeometry(Window window, boolean resized) {
+        invalidateEventRoutes();
+        updatePointWindow();
+    }
+
+    @Override
+    public void onReparentWindow(Window window) {
+        invalidateEventRoutes();
         updatePointWindow();
     }
 
+    @Override
+    public void onUpdateWindowAttributes(Window window, Bitmask mask) {
+        invalidateEventRoutes();
+    }
+
+    @Override
+    public void onUpdateWindowEventListeners(Window window) {
+        invalidateEventRoutes();
+    }
+
     @Override
     public void onCreateResource(XResource resource) {
+        invalidateEventRoutes();
         updatePointWindow();
     }
 
     @Override
     public void onFreeResource(XResource resource) {
+        invalidateEventRoutes();
         updatePointWindow();
     }
 
+    public void invalidateEventRoutes() {
+        routeGeneration++;
+    }
+
     private void updatePointWindow() {
-        Window pointWindow = xServer.windowManager.findPointWindow(xServer.pointer.getClampedX(), xServer.pointer.getClampedY());
+        short x = xServer.pointer.getClampedX();
+        short y = xServer.pointer.getClampedY();
+        int generation = routeGeneration;
+        if (x == pointWindowX && y == pointWindowY && generation == pointWindowGeneration) return;
+
+        Window pointWindow = xServer.windowManager.findPointWindow(x, y);
         this.pointWindow = pointWindow != null ? pointWindow : xServer.windowManager.rootWindow;
+        pointWindowX = x;
+        pointWindowY = y;
+        pointWindowGeneration = generation;
+    }
+
+    private EventRoute getPointerEventRoute(Bitmask eventMask) {
+        GrabManager grabManager = xServer.grabManager;
+        Window grabWindow = grabManager.getWindow();
+        EventListener grabListener = grabManager.getEventListener();
+        boolean ownerEvents = grabManager.isOwnerEvents();
+        int generation = routeGeneration;
+
+        EventRoute route = pointerRoute;
+        if (route.matches(generation, pointWindow, eventMask.getBits(), grabWindow, grabListener, ownerEvents)) return route;
+        route.reset(generation, pointWindow, eventMask.getBits(), grabWindow, grabListener, ownerEvents);
+
+        Window window = grabWindow == null || ownerEvents ? pointWindow.getAncestorWithEventMask(eventMask) : null;
+        if (grabWindow == null && window == null) return route;
+
+        route.eventWindow = window != null ? window : grabWindow;
+        route.child = route.eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
+
+        if (grabWindow != null && route.isEnabled(0, grabWindow)) {
+            if (ownerEvents && window != null) {
+                window.collectEventListeners(eventMask, grabListener.client, route.eventListeners);
+            }
+            else if (grabListener.isInterestedIn(eventMask)) {
+                route.eventListeners.add(grabListener);
+            }
+        }
+        else if (window != null && route.isEnabled(1, window)) {
+            window.collectEventListeners(eventMask, route.eventListeners);
+        }
+        return route;
+    }
+
+    private EventRoute getKeyEventRoute(EventRoute route, int eventId, Window focusedWindow) {
+        int generation = routeGeneration;
+        if (route.matches(generation, pointWindow, eventId, focusedWindow, null, false)) return route;
+        route.reset(generation, pointWindow, eventId, focusedWindow, null, false);
+
+        Window eventWindow = null;
+        Window child = null;
+        if (focusedWindow.isAncestorOf(pointWindow)) {
+            eventWindow = pointWindow.getAncestorWithEventId(eventId, focusedWindow);
+            child = eventWindow != null && eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
+        }
+        if (eventWindow == null) {
+            if (!focusedWindow.hasEventListenerFor(eventId)) return route;
+            eventWindow = focusedWindow;
+        }
+
+        if (!route.isEnabled(0, eventWindow)) return route;
+
+        route.eventWindow = eventWindow;
+        route.child = child;
+        eventWindow.collectEventListeners(eventId, route.eventListeners);
+        return route;
     }
 
     public Window getPointWindow() {
@@ -82,22 +232,6 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
         }
     }
 
-    private void sendEvent(Window window, Bitmask eventMask, Event event) {
-        Window grabWindow = xServer.grabManager.getWindow();
-        if (grabWindow != null && grabWindow.attributes.isEnabled()) {
-            EventListener eventListener = xServer.grabManager.getEventListener();
-            if (xServer.grabManager.isOwnerEvents() && window != null) {
-                window.sendEvent(eventMask, event, eventListener.client);
-            }
-            else if (eventListener.isInterestedIn(eventMask)) {
-                eventListener.sendEvent(event);
-            }
-        }
-        else if (window != null && window.attributes.isEnabled()) {
-            window.sendEvent(eventMask, event);
-        }
-    }
-
     public void sendEnterLeaveNotify(Window windowA, Window windowB, PointerWindowEvent.Mode mode) {
         if (windowA == windowB) return;
         short x = xServer.pointer.getX();
@@ -160,19 +294,15 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
         }
         else {
             Bitmask eventMask = createPointerEventMask();
-            Window grabWindow = xServer.grabManager.getWindow();
-            Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
-
-            if (grabWindow != null || window != null) {
-                Window eventWindow = window != null ? window : grabWindow;
+            EventRoute route = getPointerEventRoute(eventMask);
+            Window eventWindow = route.eventWindow;
 
+            if (eventWindow != null && !route.eventListeners.isEmpty()) {
                 short x = xServer.pointer.getX();
                 short y = xServer.pointer.getY();
                 short[] localPoint = eventWindow.rootPointToLocal(x, y);
 
-                Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-                ButtonRelease buttonRelease = new ButtonRelease(button.code(), xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], eventMask);
-                sendEvent(window, eventMask, buttonRelease);
+                route.sendEvent(new ButtonRelease(button.code(), xServer.windowManager.rootWindow, eventWindow, route.child, x, y, localPoint[0], localPoint[1], eventMask));
             }
 
             if (xServer.pointer.getButtonMask().isEmpty() && xServer.grabManager.isReleaseWithButtons()) {
@@ -184,16 +314,12 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     @Override
     public void onPointerMove(short x, short y) {
         updatePointWindow();
-        Bitmask eventMask = createPointerEventMask();
-        Window grabWindow = xServer.grabManager.getWindow();
-        Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
+        EventRoute route = getPointerEventRoute(createPointerEventMask());
+        Window eventWindow = route.eventWindow;
 
-        if (grabWindow != null || window != null) {
-            Window eventWindow = window != null ? window : grabWindow;
+        if (eventWindow != null && !route.eventListeners.isEmpty()) {
             short[] localPoint = eventWindow.rootPointToLocal(x, y);
-
-            Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-            sendEvent(window, eventMask, new MotionNotify(false, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], getKeyButMask()));
+            route.sendEvent(new MotionNotify(false, xServer.windowManager.rootWindow, eventWindow, route.child, x, y, localPoint[0], localPoint[1], getKeyButMask()));
         }
     }
 
@@ -203,18 +329,9 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
         if (focusedWindow == null) return;
         updatePointWindow();
 
-        Window eventWindow = null;
-        Window child = null;
-        if (focusedWindow.isAncestorOf(pointWindow)) {
-            eventWindow = pointWindow.getAncestorWithEventId(Event.KEY_PRESS, focusedWindow);
-            child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-        }
-        if (eventWindow == null) {
-            if (!focusedWindow.hasEventListenerFor(Event.KEY_PRESS)) return;
-            eventWindow = focusedWindow;
-        }
-
-        if (!eventWindow.attributes.isEnabled()) return;
+        EventRoute route = getKeyEventRoute(keyPressRoute, Event.KEY_PRESS, focusedWindow);
+        Window eventWindow = route.eventWindow;
+        if (eventWindow == null) return;
 
         Bitmask keyButMask = getKeyButMask();
         short x = xServer.pointer.getX();
@@ -226,7 +343,7 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
             eventWindow.sendEvent(new MappingNotify(MappingNotify.Request.KEYBOARD, keycode, 1));
         }
 
-        eventWindow.sendEvent(Event.KEY_PRESS, new KeyPress(keycode, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], keyButMask));
+        route.sendEvent(new KeyPress(keycode, xServer.windowManager.rootWindow, eventWindow, route.child, x, y, localPoint[0], localPoint[1], keyButMask));
     }
 
     @Override
@@ -235,25 +352,16 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
         if (focusedWindow == null) return;
         updatePointWindow();
 
-        Window eventWindow = null;
-        Window child = null;
-        if (focusedWindow.isAncestorOf(pointWindow)) {
-            eventWindow = pointWindow.getAncestorWithEventId(Event.KEY_RELEASE, focusedWindow);
-            child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-        }
-        if (eventWindow == null) {
-            if (!focusedWindow.hasEventListenerFor(Event.KEY_RELEASE)) return;
-            eventWindow = focusedWindow;
-        }
-
-        if (!eventWindow.attributes.isEnabled()) return;
+        EventRoute route = getKeyEventRoute(keyReleaseRoute, Event.KEY_RELEASE, focusedWindow);
+        Window eventWindow = route.eventWindow;
+        if (eventWindow == null) return;
 
         Bitmask keyButMask = getKeyButMask();
         short x = xServer.pointer.getX();
         short y = xServer.pointer.getY();
         short[] localPoint = eventWindow.rootPointToLocal(x, y);
 
-        eventWindow.sendEvent(Event.KEY_RELEASE, new KeyRelease(keycode, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], keyButMask));
+        route.sendEvent(new KeyRelease(keycode, xServer.windowManager.rootWindow, eventWindow, route.child, x, y, localPoint[0], localPoint[1], keyButMask));
     }
 
     private Bitmask createPointerEventMask() {
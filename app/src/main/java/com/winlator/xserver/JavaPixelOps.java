@@ -0,0 +1,169 @@
+package com.winlator.xserver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pure Java counterpart of {@link NativePixelOps}, used when libwinlator is not available
+ * (e.g. when the X server runs headless on a desktop JVM). Pixels are read and written as
+ * little-endian ints regardless of the buffer's byte order, matching the native code.
+ */
+public class JavaPixelOps implements PixelOps {
+    private static final int WHITE = 0xffffff;
+    private static final int BLACK = 0x000000;
+    private static final GraphicsContext.Function[] FUNCTIONS = GraphicsContext.Function.values();
+
+    private static int getPixel(ByteBuffer data, int index) {
+        int value = data.getInt(index);
+        return data.order() == ByteOrder.LITTLE_ENDIAN ? value : Integer.reverseBytes(value);
+    }
+
+    private static void putPixel(ByteBuffer data, int index, int value) {
+        data.putInt(index, data.order() == ByteOrder.LITTLE_ENDIAN ? value : Integer.reverseBytes(value));
+    }
+
+    private static int packColor(byte red, byte green, byte blue) {
+        return ((red & 0xff) << 16) | ((green & 0xff) << 8) | (blue & 0xff);
+    }
+
+    private static int getBitmapBytePad(int width) {
+        return ((width + 32 - 1) >> 5) << 2;
+    }
+
+    private static int setPixelOp(int srcColor, int dstColor, GraphicsContext.Function gcFunction) {
+        switch (gcFunction) {
+            case CLEAR:
+                return BLACK;
+            case AND:
+                return srcColor & dstColor;
+            case AND_REVERSE:
+                return srcColor & ~dstColor;
+            case COPY:
+                return srcColor;
+            case AND_INVERTED:
+                return ~srcColor & dstColor;
+            case XOR:
+                return srcColor ^ dstColor;
+            case OR:
+                return srcColor | dstColor;
+            case NOR:
+                return ~srcColor & ~dstColor;
+            case EQUIV:
+                return ~srcColor ^ dstColor;
+            case INVERT:
+                return ~dstColor;
+            case OR_REVERSE:
+                return srcColor | ~dstColor;
+            case COPY_INVERTED:
+                return ~srcColor;
+            case OR_INVERTED:
+                return ~srcColor | dstColor;
+            case NAND:
+                return ~srcColor | ~dstColor;
+            case SET:
+                return WHITE;
+            case NO_OP:
+            default:
+                return dstColor;
+        }
+    }
+
+    @Override
+    public void drawBitmap(short width, short height, ByteBuffer srcData, ByteBuffer dstData) {
+        int stride = getBitmapBytePad(width);
+        int dstIndex = 0;
+        for (int y = 0, srcLine = 0; y < height; y++, srcLine += stride) {
+            for (int x = 0; x < width; x++, dstIndex += 4) {
+                boolean bit = (srcData.get(srcLine + (x >> 3)) & (1 << (x & 7))) != 0;
+                putPixel(dstData, dstIndex, bit ? WHITE : BLACK);
+            }
+        }
+    }
+
+    @Override
+    public void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, ByteBuffer srcData, ByteBuffer maskData, ByteBuffer dstData) {
+        int foreColor = packColor(foreRed, foreGreen, foreBlue);
+        int backColor = packColor(backRed, backGreen, backBlue);
+
+        for (int i = 0, length = dstData.capacity() & ~3; i < length; i += 4) {
+            int color = 0x00000000;
+            if (getPixel(maskData, i) == WHITE) color = (getPixel(srcData, i) == WHITE ? foreColor : backColor) | 0xff000000;
+            putPixel(dstData, i, color);
+        }
+    }
+
+    @Override
+    public void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData) {
+        ByteBuffer src = srcData.duplicate();
+        ByteBuffer dst = dstData.duplicate();
+        int rowBytes = width * 4;
+
+        if (width == srcStride && width == dstStride) {
+            int srcOffset = (srcX + srcY * srcStride) * 4;
+            src.limit(srcOffset + height * rowBytes).position(srcOffset);
+            dst.position((dstX + dstY * dstStride) * 4);
+            dst.put(src);
+            return;
+        }
+
+        for (int y = 0; y < height; y++) {
+            int srcOffset = (srcX + (y + srcY) * srcStride) * 4;
+            src.limit(srcOffset + rowBytes).position(srcOffset);
+            dst.position((dstX + (y + dstY) * dstStride) * 4);
+            dst.put(src);
+        }
+    }
+
+    @Override
+    public void copyAreaOp(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData, int gcFunction) {
+        GraphicsContext.Function function = FUNCTIONS[gcFunction];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (x + srcX + (y + srcY) * srcStride) * 4;
+                int j = (x + dstX + (y + dstY) * dstStride) * 4;
+                int srcColor = ((srcData.get(i) & 0xff) << 16) | ((srcData.get(i+1) & 0xff) << 8) | (srcData.get(i+2) & 0xff);
+                int dstColor = ((dstData.get(j) & 0xff) << 16) | ((dstData.get(j+1) & 0xff) << 8) | (dstData.get(j+2) & 0xff);
+
+                dstColor = setPixelOp(srcColor, dstColor, function);
+
+                dstData.put(j, (byte)(dstColor >> 16));
+                dstData.put(j+1, (byte)(dstColor >> 8));
+                dstData.put(j+2, (byte)dstColor);
+            }
+        }
+    }
+
+    @Override
+    public void fillRect(short x, short y, short width, short height, int color, short stride, ByteBuffer data) {
+        int pixel = (color & 0xffffff) | 0xff000000;
+        for (int i = 0; i < height; i++) {
+            int offset = (x + (i + y) * stride) * 4;
+            for (int j = 0; j < width; j++, offset += 4) putPixel(data, offset, pixel);
+        }
+    }
+
+    @Override
+    public void drawLine(short x0, short y0, short x1, short y1, int color, short lineWidth, short stride, ByteBuffer data) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int e1 = dx + dy, e2;
+        int x = x0, y = y0;
+
+        while (true) {
+            fillRect((short)x, (short)y, lineWidth, lineWidth, color, stride, data);
+            if (x == x1 && y == y1) break;
+
+            e2 = e1 * 2;
+            if (e2 >= dy) {
+                e1 += dy;
+                x += sx;
+            }
+            if (e2 <= dx) {
+                e1 += dx;
+                y += sy;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.winlator.xserver;
+
+import java.nio.ByteBuffer;
+
+public class NativePixelOps implements PixelOps {
+    @Override
+    public native void drawBitmap(short width, short height, ByteBuffer srcData, ByteBuffer dstData);
+
+    @Override
+    public native void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, ByteBuffer srcData, ByteBuffer maskData, ByteBuffer dstData);
+
+    @Override
+    public native void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData);
+
+    @Override
+    public native void copyAreaOp(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData, int gcFunction);
+
+    @Override
+    public native void fillRect(short x, short y, short width, short height, int color, short stride, ByteBuffer data);
+
+    @Override
+    public native void drawLine(short x0, short y0, short x1, short y1, int color, short lineWidth, short stride, ByteBuffer data);
+}
@@ -1,13 +1,12 @@
 package com.winlator.xserver;
 
-import android.graphics.Bitmap;
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 public class PixmapManager extends XResourceManager {
     public final Visual visual;
     public final Visual[] supportedVisuals;
     public final PixmapFormat[] supportedPixmapFormats;
-    private final SparseArray<Pixmap> pixmaps = new SparseArray<>();
+    private final SparseArrayCompat<Pixmap> pixmaps = new SparseArrayCompat<>();
 
     public PixmapManager() {
         visual = new Visual(IDGenerator.generate(), true, 32, 24, 0xff0000, 0x00ff00, 0x0000ff);
@@ -52,12 +51,4 @@ public class PixmapManager extends XResourceManager {
         }
         return null;
     }
-
-    public Bitmap getWindowIcon(Window window) {
-        int colorPixmapId = window.getWMHintsValue(Window.WMHints.ICON_PIXMAP);
-        int maskPixmapId = window.getWMHintsValue(Window.WMHints.ICON_MASK);
-        Pixmap colorPixmap = colorPixmapId != 0 ? getPixmap(colorPixmapId) : null;
-        Pixmap maskPixmap = maskPixmapId != 0 ? getPixmap(maskPixmapId) : null;
-        return colorPixmap != null ? colorPixmap.toBitmap(maskPixmap) : null;
-    }
 }
@@ -0,0 +1,7 @@
+package com.winlator.xserver;
+
+public interface RendererSink {
+    void queueEvent(Runnable runnable);
+
+    boolean isFullscreen();
+}
@@ -1,6 +1,6 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.sysvshm.SysVSharedMemory;
 
@@ -8,7 +8,7 @@ import java.nio.ByteBuffer;
 
 public class SHMSegmentManager {
     private final SysVSharedMemory sysVSharedMemory;
-    private final SparseArray<ByteBuffer> shmSegments = new SparseArray<>();
+    private final SparseArrayCompat<ByteBuffer> shmSegments = new SparseArrayCompat<>();
 
     public SHMSegmentManager(SysVSharedMemory sysVSharedMemory) {
         this.sysVSharedMemory = sysVSharedMemory;
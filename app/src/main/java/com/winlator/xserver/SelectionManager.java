@@ -1,11 +1,11 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.xserver.events.SelectionClear;
 
 public class SelectionManager implements XResourceManager.OnResourceLifecycleListener {
-    private final SparseArray<Selection> selections = new SparseArray<>();
+    private final SparseArrayCompat<Selection> selections = new SparseArrayCompat<>();
 
     public SelectionManager(WindowManager windowManager) {
         windowManager.addOnResourceLifecycleListener(this);
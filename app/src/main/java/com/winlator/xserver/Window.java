@@ -1,6 +1,6 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.xserver.events.Event;
 import com.winlator.xserver.events.PropertyNotify;
@@ -30,7 +30,7 @@ public class Window extends XResource {
     private Window parent;
     public final XClient originClient;
     public final WindowAttributes attributes = new WindowAttributes(this);
-    private final SparseArray<Property> properties = new SparseArray<>();
+    private final SparseArrayCompat<Property> properties = new SparseArrayCompat<>();
     private final ArrayList<Window> children = new ArrayList<>();
     private final List<Window> immutableChildren = Collections.unmodifiableList(children);
     private final ArrayList<EventListener> eventListeners = new ArrayList<>();
@@ -286,6 +286,24 @@ public class Window extends XResource {
         for (EventListener eventListener : eventListeners) eventListener.sendEvent(event);
     }
 
+    public void collectEventListeners(int eventId, ArrayList<EventListener> result) {
+        for (EventListener eventListener : eventListeners) {
+            if (eventListener.isInterestedIn(eventId)) result.add(eventListener);
+        }
+    }
+
+    public void collectEventListeners(Bitmask eventMask, ArrayList<EventListener> result) {
+        for (EventListener eventListener : eventListeners) {
+            if (eventListener.isInterestedIn(eventMask)) result.add(eventListener);
+        }
+    }
+
+    public void collectEventListeners(Bitmask eventMask, XClient client, ArrayList<EventListener> result) {
+        for (EventListener eventListener : eventListeners) {
+            if (eventListener.isInterestedIn(eventMask) && eventListener.client == client) result.add(eventListener);
+        }
+    }
+
     public boolean containsPoint(short rootX, short rootY) {
         short[] localPoint = rootPointToLocal(rootX, rootY);
         return localPoint[0] >= 0 && localPoint[1] >= 0 && localPoint[0] < width && localPoint[1] < height;
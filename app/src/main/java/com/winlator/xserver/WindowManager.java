@@ -1,6 +1,6 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xserver.errors.BadIdChoice;
@@ -22,7 +22,7 @@ import java.util.List;
 public class WindowManager extends XResourceManager {
     public enum FocusRevertTo {NONE, POINTER_ROOT, PARENT}
     public final Window rootWindow;
-    private final SparseArray<Window> windows = new SparseArray<>();
+    private final SparseArrayCompat<Window> windows = new SparseArrayCompat<>();
     public final DrawableManager drawableManager;
     private Window focusedWindow;
     private FocusRevertTo focusRevertTo = FocusRevertTo.NONE;
@@ -42,6 +42,10 @@ public class WindowManager extends XResourceManager {
         default void onUpdateWindowAttributes(Window window, Bitmask mask) {}
 
         default void onModifyWindowProperty(Window window, Property property) {}
+
+        default void onReparentWindow(Window window) {}
+
+        default void onUpdateWindowEventListeners(Window window) {}
     }
 
     public WindowManager(ScreenInfo screenInfo, DrawableManager drawableManager) {
@@ -276,6 +280,7 @@ public class WindowManager extends XResourceManager {
         Window oldParent = window.getParent();
         if (oldParent != null) oldParent.removeChild(window);
         newParent.addChild(window);
+        triggerOnReparentWindow(window);
     }
 
     public Window findPointWindow(short rootX, short rootY) {
@@ -337,4 +342,16 @@ public class WindowManager extends XResourceManager {
             onWindowModificationListeners.get(i).onModifyWindowProperty(window, property);
         }
     }
+
+    private void triggerOnReparentWindow(Window window) {
+        for (int i = onWindowModificationListeners.size()-1; i >= 0; i--) {
+            onWindowModificationListeners.get(i).onReparentWindow(window);
+        }
+    }
+
+    public void triggerOnUpdateWindowEventListeners(Window window) {
+        for (int i = onWindowModificationListeners.size()-1; i >= 0; i--) {
+            onWindowModificationListeners.get(i).onUpdateWindowEventListeners(window);
+        }
+    }
 }
\ No newline at end of file
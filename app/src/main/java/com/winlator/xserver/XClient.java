@@ -43,10 +43,12 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     public void setEventListenerForWindow(Window window, Bitmask eventMask) {
         EventListener eventListener = eventListeners.get(window);
         if (eventListener != null) window.removeEventListener(eventListener);
-        if (eventMask.isEmpty()) return;
-        eventListener = new EventListener(this, eventMask);
-        eventListeners.put(window, eventListener);
-        window.addEventListener(eventListener);
+        if (!eventMask.isEmpty()) {
+            eventListener = new EventListener(this, eventMask);
+            eventListeners.put(window, eventListener);
+            window.addEventListener(eventListener);
+        }
+        xServer.windowManager.triggerOnUpdateWindowEventListeners(window);
     }
 
     public void sendEvent(Event event) {
@@ -91,7 +93,9 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
 
             while (!eventListeners.isEmpty()) {
                 int i = eventListeners.size()-1;
-                eventListeners.keyAt(i).removeEventListener(eventListeners.removeAt(i));
+                Window window = eventListeners.keyAt(i);
+                window.removeEventListener(eventListeners.removeAt(i));
+                xServer.windowManager.triggerOnUpdateWindowEventListeners(window);
             }
 
             xServer.windowManager.removeOnResourceLifecycleListener(this);
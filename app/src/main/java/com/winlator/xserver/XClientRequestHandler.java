@@ -149,6 +149,7 @@ public class XClientRequestHandler implements RequestHandler {
 
     private boolean handleNormalRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
         if (inputStream.available() < 4) return false;
+        int startPosition = inputStream.getActivePosition();
         byte opcode = inputStream.readByte();
         byte requestData = inputStream.readByte();
 
@@ -166,6 +167,10 @@ public class XClientRequestHandler implements RequestHandler {
         client.setRequestData(requestData);
         client.setRequestLength(requestLength);
 
+        XRequestProfiler profiler = client.xServer.requestProfiler;
+        boolean profiling = profiler.isEnabled();
+        long startTime = profiling ? System.nanoTime() : 0;
+
         try {
             switch (opcode) {
                 case ClientOpcodes.CREATE_WINDOW:
@@ -409,6 +414,9 @@ public class XClientRequestHandler implements RequestHandler {
             client.skipRequest();
             e.sendError(client, opcode);
         }
+        finally {
+            if (profiling) profiler.record(opcode, requestData, inputStream.getActivePosition() - startPosition, System.nanoTime() - startTime);
+        }
 
         return true;
     }
@@ -0,0 +1,198 @@
+package com.winlator.xserver;
+
+import android.util.Log;
+
+import com.winlator.xserver.extensions.Extension;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Locale;
+
+/**
+ * Records per-opcode (and per extension minor opcode) request statistics on the connector thread.
+ * Latencies are kept in a log-linear histogram so recording never allocates once an opcode was seen.
+ */
+public class XRequestProfiler {
+    private static final String TAG = "XRequestProfiler";
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static String[] coreOpcodeNames;
+    private final OpcodeStats[] coreStats = new OpcodeStats[128];
+    private final OpcodeStats[][] extensionStats = new OpcodeStats[128][];
+    private volatile boolean enabled = false;
+    private long startTime = System.nanoTime();
+
+    public static class OpcodeStats {
+        public final byte opcode;
+        public final int minorOpcode;
+        private long count;
+        private long totalBytes;
+        private long totalNanos;
+        private long maxNanos;
+        private final long[] buckets = new long[BUCKET_COUNT];
+
+        private OpcodeStats(byte opcode, int minorOpcode) {
+            this.opcode = opcode;
+            this.minorOpcode = minorOpcode;
+        }
+
+        private void record(int bytes, long nanos) {
+            count++;
+            totalBytes += bytes;
+            totalNanos += nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+            buckets[bucketIndex(nanos)]++;
+        }
+
+        private void reset() {
+            count = 0;
+            totalBytes = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) buckets[i] = 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getPercentileNanos(double percentile) {
+            long total = count;
+            if (total == 0) return 0;
+            long target = Math.max(1, (long)Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= target) return Math.min(bucketUpperBound(i), maxNanos);
+            }
+            return maxNanos;
+        }
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int)Math.max(value, 0);
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        int subBucket = (int)(value >>> (magnitude - 1)) & (SUB_BUCKET_COUNT - 1);
+        return magnitude * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        int magnitude = index / SUB_BUCKET_COUNT;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        if (magnitude == 0) return subBucket;
+        return ((long)(SUB_BUCKET_COUNT | subBucket) << (magnitude - 1)) + (1L << (magnitude - 1)) - 1;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) startTime = System.nanoTime();
+        this.enabled = enabled;
+    }
+
+    public synchronized void record(byte opcode, byte minorOpcode, int bytes, long nanos) {
+        getOpcodeStats(opcode, minorOpcode).record(bytes, nanos);
+    }
+
+    private OpcodeStats getOpcodeStats(byte opcode, byte minorOpcode) {
+        if (opcode >= 0) {
+            OpcodeStats stats = coreStats[opcode];
+            if (stats == null) coreStats[opcode] = stats = new OpcodeStats(opcode, -1);
+            return stats;
+        }
+        else {
+            int major = opcode & 0x7f;
+            int minor = minorOpcode & 0xff;
+            OpcodeStats[] minorStats = extensionStats[major];
+            if (minorStats == null) extensionStats[major] = minorStats = new OpcodeStats[256];
+            OpcodeStats stats = minorStats[minor];
+            if (stats == null) minorStats[minor] = stats = new OpcodeStats(opcode, minor);
+            return stats;
+        }
+    }
+
+    public synchronized void reset() {
+        for (OpcodeStats stats : coreStats) if (stats != null) stats.reset();
+        for (OpcodeStats[] minorStats : extensionStats) {
+            if (minorStats == null) continue;
+            for (OpcodeStats stats : minorStats) if (stats != null) stats.reset();
+        }
+        startTime = System.nanoTime();
+    }
+
+    public synchronized void dump(XServer xServer, PrintWriter writer) {
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+        writer.printf(Locale.ENGLISH, "X request profile (%.1fs)%n", elapsedSeconds);
+        writer.printf(Locale.ENGLISH, "%-32s %10s %12s %10s %10s %10s %10s %10s %10s%n", "request", "count", "bytes", "total_ms", "p50_us", "p90_us", "p99_us", "p99.9_us", "max_us");
+
+        for (OpcodeStats stats : coreStats) {
+            if (stats != null && stats.count > 0) dumpStats(writer, getCoreOpcodeName(stats.opcode), stats);
+        }
+
+        for (OpcodeStats[] minorStats : extensionStats) {
+            if (minorStats == null) continue;
+            for (OpcodeStats stats : minorStats) {
+                if (stats == null || stats.count == 0) continue;
+                Extension extension = xServer.extensions.get(stats.opcode);
+                String name = (extension != null ? extension.getName() : String.valueOf(stats.opcode))+":"+stats.minorOpcode;
+                dumpStats(writer, name, stats);
+            }
+        }
+        writer.flush();
+    }
+
+    private static void dumpStats(PrintWriter writer, String name, OpcodeStats stats) {
+        writer.printf(Locale.ENGLISH, "%-32s %10d %12d %10.2f", name, stats.count, stats.totalBytes, stats.totalNanos / 1e6);
+        for (double percentile : PERCENTILES) writer.printf(Locale.ENGLISH, " %10.1f", stats.getPercentileNanos(percentile) / 1e3);
+        writer.printf(Locale.ENGLISH, " %10.1f%n", stats.maxNanos / 1e3);
+    }
+
+    public void dumpToFile(XServer xServer, File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            dump(xServer, writer);
+        }
+    }
+
+    public void dumpToLogcat(XServer xServer) {
+        StringWriter stringWriter = new StringWriter();
+        dump(xServer, new PrintWriter(stringWriter));
+        for (String line : stringWriter.toString().split("\n")) Log.i(TAG, line);
+    }
+
+    private static synchronized String getCoreOpcodeName(byte opcode) {
+        if (coreOpcodeNames == null) {
+            coreOpcodeNames = new String[128];
+            for (Field field : ClientOpcodes.class.getFields()) {
+                try {
+                    if (!Modifier.isStatic(field.getModifiers()) || field.getType() != byte.class) continue;
+                    byte value = field.getByte(null);
+                    if (value >= 0) coreOpcodeNames[value] = field.getName();
+                }
+                catch (IllegalAccessException e) {}
+            }
+        }
+        String name = opcode >= 0 ? coreOpcodeNames[opcode] : null;
+        return name != null ? name : String.valueOf(opcode);
+    }
+}
@@ -1,10 +1,9 @@
 package com.winlator.xserver;
 
 import android.util.Log;
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.core.CursorLocker;
-import com.winlator.renderer.GLRenderer;
 import com.winlator.winhandler.WinHandler;
 import com.winlator.xserver.extensions.BigReqExtension;
 import com.winlator.xserver.extensions.DRI3Extension;
@@ -13,6 +12,8 @@ import com.winlator.xserver.extensions.MITSHMExtension;
 import com.winlator.xserver.extensions.PresentExtension;
 import com.winlator.xserver.extensions.SyncExtension;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.EnumMap;
 import java.util.concurrent.locks.ReentrantLock;
@@ -22,7 +23,7 @@ public class XServer {
     public static final short VERSION = 11;
     public static final String VENDOR_NAME = "Elbrus Technologies, LLC";
     public static final Charset LATIN1_CHARSET = Charset.forName("latin1");
-    public final SparseArray<Extension> extensions = new SparseArray<>();
+    public final SparseArrayCompat<Extension> extensions = new SparseArrayCompat<>();
     public final ScreenInfo screenInfo;
     public final PixmapManager pixmapManager;
     public final ResourceIDs resourceIDs = new ResourceIDs(128);
@@ -36,8 +37,9 @@ public class XServer {
     public final InputDeviceManager inputDeviceManager;
     public final GrabManager grabManager;
     public final CursorLocker cursorLocker;
+    public final XRequestProfiler requestProfiler = new XRequestProfiler();
     private SHMSegmentManager shmSegmentManager;
-    private GLRenderer renderer;
+    private RendererSink renderer;
     private WinHandler winHandler;
     private final EnumMap<Lockable, ReentrantLock> locks = new EnumMap<>(Lockable.class);
     private boolean relativeMouseMovement = false;
@@ -69,14 +71,18 @@ public class XServer {
         this.relativeMouseMovement = relativeMouseMovement;
     }
 
-    public GLRenderer getRenderer() {
+    public RendererSink getRenderer() {
         return renderer;
     }
 
-    public void setRenderer(GLRenderer renderer) {
+    public void setRenderer(RendererSink renderer) {
         this.renderer = renderer;
     }
 
+    public void queueRenderEvent(Runnable runnable) {
+        if (renderer != null) renderer.queueEvent(runnable);
+    }
+
     public WinHandler getWinHandler() {
         return winHandler;
     }
@@ -93,6 +99,13 @@ public class XServer {
         this.shmSegmentManager = shmSegmentManager;
     }
 
+    public void dumpRequestProfile(File file) throws IOException {
+        if (file != null) {
+            requestProfiler.dumpToFile(this, file);
+        }
+        else requestProfiler.dumpToLogcat(this);
+    }
+
     private class SingleXLock implements XLock {
         private final ReentrantLock lock;
 
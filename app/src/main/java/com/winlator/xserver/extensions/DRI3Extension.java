@@ -6,12 +6,10 @@ import com.winlator.core.Callback;
 import com.winlator.renderer.GPUImage;
 import com.winlator.renderer.Texture;
 import com.winlator.sysvshm.SysVSharedMemory;
-import com.winlator.widget.XServerView;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xconnector.XOutputStream;
 import com.winlator.xconnector.XStreamLock;
-import com.winlator.xenvironment.components.VortekRendererComponent;
 import com.winlator.xserver.Drawable;
 import com.winlator.xserver.Pixmap;
 import com.winlator.xserver.Window;
@@ -126,9 +124,8 @@ public class DRI3Extension implements Extension {
         }
         Texture texture = content.getTexture();
         if (!(texture instanceof GPUImage)) {
-            XServerView xServerView = client.xServer.getRenderer().xServerView;
             Objects.requireNonNull(texture);
-            xServerView.queueEvent(() -> VortekRendererComponent.destroyTexture(texture));
+            client.xServer.queueRenderEvent(texture::destroy);
             content.setTexture(new GPUImage(content.width, content.height, false));
         }
         GPUImage gpuImage = (GPUImage) content.getTexture();
@@ -2,15 +2,13 @@ package com.winlator.xserver.extensions;
 
 import static com.winlator.xserver.XClientRequestHandler.RESPONSE_CODE_SUCCESS;
 
-import android.util.SparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.renderer.GPUImage;
 import com.winlator.renderer.Texture;
-import com.winlator.widget.XServerView;
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xconnector.XOutputStream;
 import com.winlator.xconnector.XStreamLock;
-import com.winlator.xenvironment.components.VortekRendererComponent;
 import com.winlator.xserver.Bitmask;
 import com.winlator.xserver.Drawable;
 import com.winlator.xserver.Pixmap;
@@ -34,7 +32,7 @@ public class PresentExtension implements Extension {
     private static final int FAKE_INTERVAL = 1000000 / 60;
     public enum Kind {PIXMAP, MSC_NOTIFY}
     public enum Mode {COPY, FLIP, SKIP}
-    private final SparseArray<Event> events = new SparseArray<>();
+    private final SparseArrayCompat<Event> events = new SparseArrayCompat<>();
     private SyncExtension syncExtension;
 
     private static abstract class ClientOpcodes {
@@ -149,9 +147,8 @@ public class PresentExtension implements Extension {
         if (GPUImage.isSupported() && !mask.isEmpty()) {
             Drawable content = window.getContent();
             final Texture oldTexture = content.getTexture();
-            XServerView xServerView = client.xServer.getRenderer().xServerView;
             Objects.requireNonNull(oldTexture);
-            xServerView.queueEvent(() -> VortekRendererComponent.destroyTexture(oldTexture));
+            client.xServer.queueRenderEvent(oldTexture::destroy);
             content.setTexture(new GPUImage(content.width, content.height));
         }
 
@@ -1,6 +1,6 @@
 package com.winlator.xserver.extensions;
 
-import android.util.SparseBooleanArray;
+import androidx.collection.SparseArrayCompat;
 
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xconnector.XOutputStream;
@@ -15,7 +15,7 @@ import java.io.IOException;
 
 public class SyncExtension implements Extension {
     public static final byte MAJOR_OPCODE = -104;
-    private final SparseBooleanArray fences = new SparseBooleanArray();
+    private final SparseArrayCompat<Boolean> fences = new SparseArrayCompat<>();
 
     private static abstract class ClientOpcodes {
         private static final byte CREATE_FENCE = 14;
@@ -0,0 +1,145 @@
+package com.winlator.alsaserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyControllerTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAMES_PER_BUFFER = 256;
+    private static final int BLOCKS_PER_SECOND = SAMPLE_RATE / FRAMES_PER_BUFFER;
+
+    /**
+     * Track whose clock only moves when the simulated mixer spends time. The consumer pulls one
+     * period every period frames, finding less than that queued counts as an underrun.
+     */
+    private static class FakeTrack implements LatencyController.Track {
+        private final int period;
+        private final int capacity;
+        private long clock;
+        private long nextPull;
+        private long head;
+        private long queued;
+        private int bufferSize;
+        private int underrunCount;
+
+        private FakeTrack(int period, int capacity) {
+            this.period = period;
+            this.capacity = capacity;
+            this.bufferSize = capacity;
+            this.nextPull = period;
+        }
+
+        private void advance(long frames) {
+            long target = clock + frames;
+            while (nextPull <= target) {
+                if (queued >= period) {
+                    queued -= period;
+                    head += period;
+                }
+                else underrunCount++;
+                nextPull += period;
+            }
+            clock = target;
+        }
+
+        /**
+         * Blocks until the block fits, then takes wakeLatency frames to return.
+         */
+        private void write(int frames, int wakeLatency) {
+            boolean blocked = false;
+            while (queued + frames > bufferSize) {
+                advance(nextPull - clock);
+                blocked = true;
+            }
+            if (blocked) advance(wakeLatency);
+            queued += frames;
+        }
+
+        @Override
+        public int getPlaybackHeadPosition() {
+            return (int)head;
+        }
+
+        @Override
+        public int getUnderrunCount() {
+            return underrunCount;
+        }
+
+        @Override
+        public int getBufferCapacityInFrames() {
+            return capacity;
+        }
+
+        @Override
+        public int setBufferSizeInFrames(int bufferSizeInFrames) {
+            bufferSize = Math.min(bufferSizeInFrames, capacity);
+            return bufferSize;
+        }
+    }
+
+    /**
+     * Runs the mixer loop for the given number of seconds and returns the buffer size at the end of
+     * each second. Every latencyInterval-th write wakes up wakeLatency frames late.
+     */
+    private static int[] run(LatencyController controller, FakeTrack track, int seconds, int latencyInterval, int wakeLatency) {
+        int[] sizes = new int[seconds];
+        int block = 0;
+        for (int second = 0; second < seconds; second++) {
+            for (int i = 0; i < BLOCKS_PER_SECOND; i++, block++) {
+                track.advance(FRAMES_PER_BUFFER / 10);
+                track.write(FRAMES_PER_BUFFER, latencyInterval > 0 && block % latencyInterval == 0 ? wakeLatency : 0);
+                controller.update(track, FRAMES_PER_BUFFER);
+            }
+            sizes[second] = controller.getBufferSizeInFrames();
+        }
+        return sizes;
+    }
+
+    private static void assertSettled(int[] sizes, int fromSecond) {
+        for (int i = fromSecond; i < sizes.length; i++) assertEquals("buffer size at "+i+"s", sizes[fromSecond], sizes[i]);
+    }
+
+    @Test
+    public void testShrinksAndSettlesWithPromptWrites() {
+        FakeTrack track = new FakeTrack(FRAMES_PER_BUFFER, FRAMES_PER_BUFFER * 16);
+        LatencyController controller = new LatencyController(SAMPLE_RATE, FRAMES_PER_BUFFER, 200);
+        controller.reset(track);
+
+        int[] sizes = run(controller, track, 30, 0, 0);
+        assertSettled(sizes, 15);
+        assertEquals(FRAMES_PER_BUFFER * 3, sizes[sizes.length - 1]);
+        assertEquals(0, controller.getUnderrunCount());
+    }
+
+    @Test
+    public void testLateWakeUpsKeepSlack() {
+        FakeTrack track = new FakeTrack(FRAMES_PER_BUFFER, FRAMES_PER_BUFFER * 16);
+        LatencyController controller = new LatencyController(SAMPLE_RATE, FRAMES_PER_BUFFER, 200);
+        controller.reset(track);
+
+        // one write in 25 returns a burst and a half late, which costs up to two pulls
+        int[] sizes = run(controller, track, 30, 25, FRAMES_PER_BUFFER * 3 / 2);
+        assertSettled(sizes, 15);
+        int size = sizes[sizes.length - 1];
+        assertTrue("buffer size "+size, size > FRAMES_PER_BUFFER * 3 && size <= FRAMES_PER_BUFFER * 5);
+        assertEquals(0, controller.getUnderrunCount());
+    }
+
+    @Test
+    public void testUnderrunGrowsBuffer() {
+        FakeTrack track = new FakeTrack(FRAMES_PER_BUFFER, FRAMES_PER_BUFFER * 16);
+        LatencyController controller = new LatencyController(SAMPLE_RATE, FRAMES_PER_BUFFER, 200);
+        controller.reset(track);
+        run(controller, track, 15, 0, 0);
+        int settledSize = controller.getBufferSizeInFrames();
+
+        // a stall of four bursts drains the three burst buffer
+        track.advance(FRAMES_PER_BUFFER * 4);
+        track.write(FRAMES_PER_BUFFER, 0);
+        controller.update(track, FRAMES_PER_BUFFER);
+        assertTrue(controller.getUnderrunCount() > 0);
+        assertEquals(settledSize + FRAMES_PER_BUFFER, controller.getBufferSizeInFrames());
+    }
+}
@@ -0,0 +1,73 @@
+package com.winlator.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BsPatchTest {
+    private static final String OLD_TEXT = "The quick brown fox jumps over the lazy dog. ";
+
+    // BSDIFF40 patch with three control entries: a 100 byte diff with changes followed by 13 extra
+    // bytes and a forward seek, a 600 byte unchanged diff followed by a backward seek, and a final
+    // 30 byte unchanged diff.
+    private static final String PATCH_HEX =
+        "425344494646343040000000000000003a00000000000000e702000000000000425a6839314159265359dba0eb1f0000" +
+        "12634478120801104004004000004020003100d000d2626993c91f5eaca66009702f88c24fa2ee48a70a121b741d63e0" +
+        "425a6839314159265359c2853d980000006011e0020008000240001008a00031064c41189a1a35d65a006f2a40c353c5" +
+        "dc914e142430a14f6600425a6839314159265359c9c005f60000029600400006211c402000221a1a7a820c988540a1de" +
+        "87678bb9229c284864e002fb00";
+
+    private static byte[] getOldData() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) sb.append(OLD_TEXT);
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] getExpectedData(byte[] oldData) {
+        byte[] head = Arrays.copyOfRange(oldData, 0, 100);
+        System.arraycopy("QUICK".getBytes(StandardCharsets.US_ASCII), 0, head, 4, 5);
+        System.arraycopy("cat".getBytes(StandardCharsets.US_ASCII), 0, head, 40, 3);
+        byte[] extra = "INSERTED TEXT".getBytes(StandardCharsets.US_ASCII);
+
+        byte[] expected = new byte[head.length + extra.length + 600 + 30];
+        int position = 0;
+        System.arraycopy(head, 0, expected, position, head.length);
+        position += head.length;
+        System.arraycopy(extra, 0, expected, position, extra.length);
+        position += extra.length;
+        System.arraycopy(oldData, 300, expected, position, 600);
+        position += 600;
+        System.arraycopy(oldData, 50, expected, position, 30);
+        return expected;
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) data[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        return data;
+    }
+
+    @Test
+    public void testApplyFixture() throws IOException {
+        byte[] oldData = getOldData();
+        assertArrayEquals(getExpectedData(oldData), BsPatch.apply(oldData, fromHex(PATCH_HEX)));
+    }
+
+    @Test
+    public void testRejectsBadMagic() {
+        byte[] patch = fromHex(PATCH_HEX);
+        patch[0] = 'X';
+        assertThrows(IOException.class, () -> BsPatch.apply(getOldData(), patch));
+    }
+
+    @Test
+    public void testRejectsTruncatedPatch() {
+        byte[] patch = Arrays.copyOf(fromHex(PATCH_HEX), 100);
+        assertThrows(IOException.class, () -> BsPatch.apply(getOldData(), patch));
+    }
+}
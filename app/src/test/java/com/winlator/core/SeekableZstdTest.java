@@ -0,0 +1,142 @@
+package com.winlator.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public class SeekableZstdTest {
+    private static final int FRAME_SIZE = 4096;
+
+    private static byte[] createInput(int size) {
+        // compressible but not trivially repetitive
+        Random random = new Random(42);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) data[i] = (byte)(random.nextInt(16) + 'a');
+        return data;
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        try (SeekableZstdOutputStream zstdStream = new SeekableZstdOutputStream(outStream, 3, FRAME_SIZE)) {
+            zstdStream.write(data);
+        }
+        return outStream.toByteArray();
+    }
+
+    private static File writeTempFile(byte[] prefix, byte[] data) throws IOException {
+        File file = File.createTempFile("seekable", ".zst");
+        file.deleteOnExit();
+        try (FileOutputStream outStream = new FileOutputStream(file)) {
+            outStream.write(prefix);
+            outStream.write(data);
+        }
+        return file;
+    }
+
+    private static byte[] readAll(InputStream inStream) throws IOException {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int bytesRead;
+        while ((bytesRead = inStream.read(buffer)) != -1) outStream.write(buffer, 0, bytesRead);
+        return outStream.toByteArray();
+    }
+
+    private static SeekableZstdInputStream open(byte[] archive) throws IOException {
+        File file = writeTempFile(new byte[0], archive);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        SeekableZstdInputStream inStream = SeekableZstdInputStream.open(channel, 0, archive.length);
+        if (inStream == null) channel.close();
+        return inStream;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] input = createInput(FRAME_SIZE * 5 + 123);
+        try (SeekableZstdInputStream inStream = open(compress(input))) {
+            assertNotNull(inStream);
+            assertArrayEquals(input, readAll(inStream));
+        }
+    }
+
+    @Test
+    public void testRoundTripAtOffset() throws IOException {
+        byte[] input = createInput(FRAME_SIZE * 2);
+        byte[] archive = compress(input);
+        byte[] prefix = new byte[100];
+        File file = writeTempFile(prefix, archive);
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try (SeekableZstdInputStream inStream = SeekableZstdInputStream.open(channel, prefix.length, archive.length)) {
+            assertNotNull(inStream);
+            assertArrayEquals(input, readAll(inStream));
+            assertEquals(archive.length - SeekableZstdOutputStream.FOOTER_SIZE - 8 - 2 * 8, inStream.getCompressedPosition());
+        }
+    }
+
+    @Test
+    public void testEmptyInput() throws IOException {
+        try (SeekableZstdInputStream inStream = open(compress(new byte[0]))) {
+            assertNotNull(inStream);
+            assertEquals(-1, inStream.read());
+        }
+    }
+
+    @Test
+    public void testCorruptFooterMagic() throws IOException {
+        byte[] archive = compress(createInput(FRAME_SIZE * 3));
+        archive[archive.length - 1] ^= 0x01;
+        assertNull(open(archive));
+    }
+
+    @Test
+    public void testCorruptFrameCount() throws IOException {
+        byte[] archive = compress(createInput(FRAME_SIZE * 3));
+        archive[archive.length - SeekableZstdOutputStream.FOOTER_SIZE] += 1;
+        assertNull(open(archive));
+    }
+
+    @Test
+    public void testCorruptSeekTableEntry() throws IOException {
+        byte[] archive = compress(createInput(FRAME_SIZE * 3));
+        // compressed size of the first frame
+        int entryOffset = archive.length - SeekableZstdOutputStream.FOOTER_SIZE - 3 * 8;
+        archive[entryOffset] += 1;
+        assertNull(open(archive));
+    }
+
+    @Test
+    public void testCorruptSkippableHeader() throws IOException {
+        byte[] archive = compress(createInput(FRAME_SIZE * 3));
+        int headerOffset = archive.length - SeekableZstdOutputStream.FOOTER_SIZE - 3 * 8 - 8;
+        archive[headerOffset] ^= 0x01;
+        assertNull(open(archive));
+    }
+
+    @Test
+    public void testTruncatedArchive() throws IOException {
+        assertNull(open(new byte[10]));
+    }
+
+    @Test
+    public void testCorruptFrameFailsRead() throws IOException {
+        byte[] archive = compress(createInput(FRAME_SIZE * 3));
+        archive[0] ^= (byte)0xff;
+        try (SeekableZstdInputStream inStream = open(archive)) {
+            assertNotNull(inStream);
+            assertThrows(IOException.class, () -> readAll(inStream));
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.winlator.xenvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.winlator.core.TarCompressorUtils;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+public class ImageFsDeltaUpdaterTest {
+    private static final String KEPT = "usr/share/kept.txt";
+    private static final String CHANGED = "usr/share/changed.txt";
+    private static final String ADDED = "usr/lib/added.so";
+    private static final String PATCHED = "usr/bin/patched";
+    private static final String REMOVED = "usr/share/removed.txt";
+    private File tempDir;
+    private File rootDir;
+    private ImageFs imageFs;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("imagefs").toFile();
+        rootDir = new File(tempDir, "imagefs");
+        imageFs = new ImageFs(rootDir);
+        writeFile(rootDir, KEPT, "kept");
+        writeFile(rootDir, CHANGED, "old contents");
+        writeFile(rootDir, PATCHED, getOldPatchedData());
+        writeFile(rootDir, REMOVED, "removed");
+        imageFs.createImgVersionFile(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static String getOldPatchedData() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) sb.append("old binary ").append(i).append('\n');
+        return sb.toString();
+    }
+
+    private static String getNewPatchedData() {
+        return getOldPatchedData().replace("old", "new")+"appended\n";
+    }
+
+    private static File writeFile(File dir, String path, String contents) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String readFile(File dir, String path) throws IOException {
+        return new String(Files.readAllBytes(new File(dir, path).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String getManifestLine(String path, String contents) {
+        byte[] data = contents.getBytes(StandardCharsets.UTF_8);
+        CRC32 checksum = new CRC32();
+        checksum.update(data);
+        return Long.toHexString(checksum.getValue())+" "+data.length+" "+path+"\n";
+    }
+
+    private static void writeOffset(byte[] buffer, int offset, long value) {
+        long magnitude = Math.abs(value);
+        for (int i = 0; i < 8; i++) buffer[offset + i] = (byte)(magnitude >>> (i * 8));
+        if (value < 0) buffer[offset + 7] |= (byte)0x80;
+    }
+
+    private static byte[] compressBlock(byte[] data) throws IOException {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        try (OutputStream bzip2Stream = new BZip2CompressorOutputStream(outStream)) {
+            bzip2Stream.write(data);
+        }
+        return outStream.toByteArray();
+    }
+
+    /**
+     * Builds a BSDIFF40 patch with a single control entry: a diff over the common length of both
+     * files followed by the rest of the new file as extra bytes.
+     */
+    private static byte[] createPatch(String oldContents, String newContents) throws IOException {
+        byte[] oldData = oldContents.getBytes(StandardCharsets.UTF_8);
+        byte[] newData = newContents.getBytes(StandardCharsets.UTF_8);
+        int diffSize = Math.min(oldData.length, newData.length);
+
+        byte[] control = new byte[24];
+        writeOffset(control, 0, diffSize);
+        writeOffset(control, 8, newData.length - diffSize);
+        writeOffset(control, 16, 0);
+        byte[] diff = new byte[diffSize];
+        for (int i = 0; i < diffSize; i++) diff[i] = (byte)(newData[i] - oldData[i]);
+        byte[] extra = new byte[newData.length - diffSize];
+        System.arraycopy(newData, diffSize, extra, 0, extra.length);
+
+        byte[] controlBlock = compressBlock(control);
+        byte[] diffBlock = compressBlock(diff);
+        byte[] extraBlock = compressBlock(extra);
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        byte[] header = new byte[32];
+        System.arraycopy("BSDIFF40".getBytes(StandardCharsets.US_ASCII), 0, header, 0, 8);
+        writeOffset(header, 8, controlBlock.length);
+        writeOffset(header, 16, diffBlock.length);
+        writeOffset(header, 24, newData.length);
+        outStream.write(header);
+        outStream.write(controlBlock);
+        outStream.write(diffBlock);
+        outStream.write(extraBlock);
+        return outStream.toByteArray();
+    }
+
+    /**
+     * Lays out a delta the way the updater reads it and packs it with TarCompressorUtils, so the
+     * test breaks if the archive format and the reader drift apart.
+     */
+    private File createDelta(String manifestChanged, String manifestPatched) throws IOException {
+        File sourceDir = new File(tempDir, "delta");
+        writeFile(sourceDir, CHANGED, "new contents");
+        writeFile(sourceDir, ADDED, "added");
+        writeFile(sourceDir, ".imagefs_delta/removed", REMOVED+"\n");
+        File patchFile = new File(sourceDir, ".imagefs_delta/patches/"+PATCHED+".bsdiff");
+        patchFile.getParentFile().mkdirs();
+        Files.write(patchFile.toPath(), createPatch(getOldPatchedData(), getNewPatchedData()));
+        writeFile(sourceDir, ".imagefs_delta/manifest", "imagefs 2\n"+
+            getManifestLine(KEPT, "kept")+
+            getManifestLine(CHANGED, manifestChanged)+
+            getManifestLine(ADDED, "added")+
+            getManifestLine(PATCHED, manifestPatched));
+
+        File deltaFile = new File(tempDir, "1-2.tzst");
+        TarCompressorUtils.compress(TarCompressorUtils.Type.ZSTD, sourceDir.listFiles(), deltaFile, 3);
+        return deltaFile;
+    }
+
+    private void assertImageUntouched() throws IOException {
+        assertEquals("kept", readFile(rootDir, KEPT));
+        assertEquals("old contents", readFile(rootDir, CHANGED));
+        assertEquals(getOldPatchedData(), readFile(rootDir, PATCHED));
+        assertEquals("removed", readFile(rootDir, REMOVED));
+        assertFalse(new File(rootDir, ADDED).exists());
+        assertFalse(new File(imageFs.getConfigDir(), ".delta").exists());
+        assertEquals(1, imageFs.getVersion());
+    }
+
+    @Test
+    public void testAppliesDelta() throws IOException, InterruptedException {
+        File deltaFile = createDelta("new contents", getNewPatchedData());
+        assertTrue(new ImageFsDeltaUpdater(null, imageFs).apply(deltaFile, null));
+
+        assertEquals("kept", readFile(rootDir, KEPT));
+        assertEquals("new contents", readFile(rootDir, CHANGED));
+        assertEquals("added", readFile(rootDir, ADDED));
+        assertEquals(getNewPatchedData(), readFile(rootDir, PATCHED));
+        assertFalse(new File(rootDir, REMOVED).exists());
+        assertFalse(new File(imageFs.getConfigDir(), ".delta").exists());
+        assertEquals(2, imageFs.getVersion());
+
+        ImageFsManifest manifest = ImageFsManifest.load(rootDir, imageFs.getManifestFile(), null);
+        assertEquals(4, manifest.getEntryCount());
+        assertTrue(manifest.verify(null).isEmpty());
+    }
+
+    @Test
+    public void testReapplySkipsPatchedFiles() throws IOException {
+        File deltaFile = createDelta("new contents", getNewPatchedData());
+        ImageFsDeltaUpdater updater = new ImageFsDeltaUpdater(null, imageFs);
+        assertTrue(updater.apply(deltaFile, null));
+
+        // an upgrade interrupted after moving the files is run again over the new image
+        imageFs.createImgVersionFile(1);
+        assertTrue(updater.apply(deltaFile, null));
+        assertEquals(getNewPatchedData(), readFile(rootDir, PATCHED));
+        assertEquals(2, imageFs.getVersion());
+    }
+
+    @Test
+    public void testMismatchedFileLeavesImageUntouched() throws IOException {
+        File deltaFile = createDelta("other contents", getNewPatchedData());
+        assertFalse(new ImageFsDeltaUpdater(null, imageFs).apply(deltaFile, null));
+        assertImageUntouched();
+    }
+
+    @Test
+    public void testMismatchedPatchLeavesImageUntouched() throws IOException {
+        File deltaFile = createDelta("new contents", getNewPatchedData()+"missing\n");
+        assertFalse(new ImageFsDeltaUpdater(null, imageFs).apply(deltaFile, null));
+        assertImageUntouched();
+    }
+
+    @Test
+    public void testMissingManifestLeavesImageUntouched() throws IOException {
+        File deltaFile = createDelta("new contents", getNewPatchedData());
+        File sourceDir = new File(tempDir, "delta");
+        new File(sourceDir, ".imagefs_delta/manifest").delete();
+        TarCompressorUtils.compress(TarCompressorUtils.Type.ZSTD, sourceDir.listFiles(), deltaFile, 3);
+        assertFalse(new ImageFsDeltaUpdater(null, imageFs).apply(deltaFile, null));
+        assertImageUntouched();
+    }
+}
@@ -0,0 +1,127 @@
+package com.winlator.xenvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.winlator.core.OnExtractFileListener;
+import com.winlator.core.TarCompressorUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+public class ImageFsManifestTest {
+    private File tempDir;
+    private File rootDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("imagefs").toFile();
+        rootDir = new File(tempDir, "imagefs");
+        rootDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static void writeFile(File dir, String path, String contents) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readFile(File dir, String path) throws IOException {
+        return new String(Files.readAllBytes(new File(dir, path).toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Installs archive the way ImageFsInstaller does, journaling every written file and skipping
+     * the ones the journal already lists intact. Returns the paths that were written.
+     */
+    private List<String> install(File archive, ImageFsManifest journal) {
+        List<String> writtenPaths = Collections.synchronizedList(new ArrayList<>());
+        assertTrue(TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, archive, rootDir, new OnExtractFileListener() {
+            @Override
+            public File onExtractFile(File destination, long size) {
+                return destination;
+            }
+
+            @Override
+            public boolean onWriteFile(File destination, long size) {
+                return !journal.isInstalled(destination, size);
+            }
+        }, null, (file, size, checksum) -> {
+            writtenPaths.add(rootDir.toPath().relativize(file.toPath()).toString());
+            journal.add(file, size, checksum);
+        }));
+        Collections.sort(writtenPaths);
+        return writtenPaths;
+    }
+
+    @Test
+    public void testResumeRewritesOnlyDamagedFiles() throws IOException, InterruptedException {
+        File sourceDir = new File(tempDir, "source");
+        writeFile(sourceDir, "usr/bin/intact", "intact");
+        writeFile(sourceDir, "usr/bin/truncated", "truncated");
+        writeFile(sourceDir, "usr/lib/modified", "modified");
+        File archive = new File(tempDir, "imagefs.tzst");
+        TarCompressorUtils.compress(TarCompressorUtils.Type.ZSTD, sourceDir.listFiles(), archive, 3);
+
+        ImageFsManifest journal = new ImageFsManifest(rootDir, "imagefs");
+        assertEquals(Arrays.asList("usr/bin/intact", "usr/bin/truncated", "usr/lib/modified"), install(archive, journal));
+
+        writeFile(rootDir, "usr/bin/truncated", "trunc");
+        writeFile(rootDir, "usr/lib/modified", "MODIFIED");
+        assertEquals(Arrays.asList("usr/bin/truncated", "usr/lib/modified"), install(archive, journal));
+        assertEquals("truncated", readFile(rootDir, "usr/bin/truncated"));
+        assertEquals("modified", readFile(rootDir, "usr/lib/modified"));
+        assertTrue(journal.verify(null).isEmpty());
+    }
+
+    @Test
+    public void testIsInstalledChecksArchiveSize() throws IOException {
+        writeFile(rootDir, "usr/bin/file", "contents");
+        File file = new File(rootDir, "usr/bin/file");
+        ImageFsManifest journal = new ImageFsManifest(rootDir, "imagefs");
+        CRC32 checksum = new CRC32();
+        checksum.update("contents".getBytes(StandardCharsets.UTF_8));
+        journal.add(file, 8, checksum.getValue());
+
+        assertTrue(journal.isInstalled(file, 8));
+        assertFalse(journal.isInstalled(file, 9));
+    }
+
+    @Test
+    public void testExcludeSkipsRewrittenPaths() throws IOException, InterruptedException {
+        writeFile(rootDir, "usr/local/bin/box64", "box64");
+        writeFile(rootDir, "usr/lib/libc.so", "libc");
+        writeFile(rootDir, "home/xuser-1/.wine/system.reg", "registry");
+        ImageFsManifest manifest = new ImageFsManifest(rootDir, "imagefs");
+        for (String path : new String[]{"usr/local/bin/box64", "usr/lib/libc.so", "home/xuser-1/.wine/system.reg"}) {
+            File file = new File(rootDir, path);
+            manifest.add(file, file.length(), 0);
+        }
+
+        manifest.exclude(Arrays.asList("home/", "usr/local/bin/box64"));
+        assertEquals(1, manifest.getEntryCount());
+        assertEquals(Collections.singletonList("usr/lib/libc.so"), manifest.verify(null));
+    }
+}
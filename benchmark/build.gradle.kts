@@ -0,0 +1,76 @@
+import org.jetbrains.kotlin.gradle.dsl.JvmTarget
+
+plugins {
+    alias(libs.plugins.jetbrains.jvm)
+    alias(libs.plugins.jmh)
+}
+
+// The X server core is compiled straight from :app's sources so the benchmarks always measure the
+// current tree. Only the Android-free packages are taken, the few Android and native classes they
+// reference are replaced by the stubs in src/stubs/java.
+val appSources by tasks.registering(Sync::class) {
+    from("../app/src/main/java") {
+        include("com/winlator/xserver/**")
+        include("com/winlator/xconnector/**")
+        include("com/winlator/math/**")
+        include("com/winlator/core/ArrayUtils.java")
+        include("com/winlator/core/Callback.java")
+        include("com/winlator/core/CursorLocker.java")
+        include("com/winlator/core/StringUtils.java")
+        include("com/winlator/winhandler/MouseEventFlags.java")
+        exclude("com/winlator/xconnector/UnixSocketConfig.java")
+    }
+    into(layout.buildDirectory.dir("generated/sources/app"))
+}
+
+sourceSets {
+    main {
+        java.srcDir(appSources)
+        java.srcDir("src/stubs/java")
+    }
+}
+
+kotlin {
+    sourceSets.named("main") {
+        kotlin.srcDir(appSources)
+    }
+    compilerOptions {
+        jvmTarget = JvmTarget.JVM_17
+    }
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+dependencies {
+    implementation(libs.androidx.annotation)
+    implementation(libs.androidx.collection)
+    implementation(libs.org.json)
+}
+
+// ./gradlew :benchmark:jmh [-Pjmh.includes=RequestDispatch] [-Pjmh.resultsFile=/path/to/results.json]
+// Results are written as JMH JSON so runs of two builds can be diffed or loaded into a JMH visualizer.
+jmh {
+    jmhVersion = libs.versions.jmh
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    resultFormat = "JSON"
+    resultsFile = providers.gradleProperty("jmh.resultsFile")
+        .map { layout.projectDirectory.file(it) }
+        .orElse(layout.buildDirectory.file("results/jmh/results.json"))
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.add(it) }
+}
+
+// ./gradlew :benchmark:replayTrace -Ptrace=/path/to/x_connection_trace.bin [-Pscreen=1280x720] [-Piterations=10]
+// Replays a trace written by the "Record X Connections" debug setting against the current X server.
+val replayTrace by tasks.registering(JavaExec::class) {
+    group = "benchmark"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass = "com.winlator.benchmark.TraceReplay"
+    providers.gradleProperty("trace").orNull?.let {
+        args(it, providers.gradleProperty("screen").getOrElse("1280x720"), providers.gradleProperty("iterations").getOrElse("10"))
+    }
+}
@@ -0,0 +1,58 @@
+package com.winlator.benchmark;
+
+import com.winlator.xserver.Atom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Atom} lookups once a realistic number of atoms was interned. Wine interns several hundred
+ * atoms at startup and keeps re-interning the same names afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AtomBenchmark {
+    @Param({"100", "1000"})
+    public int atomCount;
+
+    private String firstName;
+    private String lastName;
+    private int lastId;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < atomCount; i++) Atom.internAtom("_BENCHMARK_ATOM_"+i);
+        firstName = "WM_NAME";
+        lastName = "_BENCHMARK_ATOM_"+(atomCount - 1);
+        lastId = Atom.getId(lastName);
+    }
+
+    @Benchmark
+    public int internPredefinedAtom() {
+        return Atom.internAtom(firstName);
+    }
+
+    @Benchmark
+    public int internExistingAtom() {
+        return Atom.internAtom(lastName);
+    }
+
+    @Benchmark
+    public int getMissingAtomId() {
+        return Atom.getId("_BENCHMARK_MISSING_ATOM");
+    }
+
+    @Benchmark
+    public String getAtomName() {
+        return Atom.getName(lastId);
+    }
+}
@@ -0,0 +1,88 @@
+package com.winlator.benchmark;
+
+import com.winlator.xserver.Drawable;
+import com.winlator.xserver.GraphicsContext;
+import com.winlator.xserver.PixmapManager;
+import com.winlator.xserver.Visual;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pixel operations of {@link Drawable}. On a desktop JVM the native library is not available, so
+ * these measure the pure Java implementation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DrawableBenchmark {
+    @Param({"256", "1024"})
+    public short size;
+
+    private Drawable srcDrawable;
+    private Drawable dstDrawable;
+    private Drawable maskDrawable;
+    private ByteBuffer image;
+
+    @Setup
+    public void setup() {
+        Visual visual = new PixmapManager().visual;
+        srcDrawable = new Drawable(1, size, size, visual);
+        dstDrawable = new Drawable(2, size, size, visual);
+        maskDrawable = new Drawable(3, size, size, visual);
+
+        ByteBuffer data = srcDrawable.getData();
+        for (int i = 0; data.remaining() >= 4; i++) data.putInt(0xff000000 | (i * 0x010203));
+        data.rewind();
+
+        image = ByteBuffer.allocateDirect(size * size * 4).order(ByteOrder.LITTLE_ENDIAN);
+        image.put(data);
+        image.rewind();
+        data.rewind();
+    }
+
+    @Benchmark
+    public void fillRect() {
+        dstDrawable.fillRect(0, 0, size, size, 0xff336699);
+    }
+
+    @Benchmark
+    public void copyArea() {
+        dstDrawable.copyArea((short)0, (short)0, (short)0, (short)0, size, size, srcDrawable);
+    }
+
+    @Benchmark
+    public void copyAreaXor() {
+        dstDrawable.copyArea((short)0, (short)0, (short)0, (short)0, size, size, srcDrawable, GraphicsContext.Function.XOR);
+    }
+
+    @Benchmark
+    public void drawImage() {
+        dstDrawable.drawImage((short)0, (short)0, (short)0, (short)0, size, size, (byte)24, image, size, size);
+    }
+
+    @Benchmark
+    public ByteBuffer getImage() {
+        return srcDrawable.getImage((short)0, (short)0, size, size);
+    }
+
+    @Benchmark
+    public void drawLines() {
+        dstDrawable.drawLines(0xffffffff, 1, (short)0, (short)0, (short)(size - 1), (short)(size - 1), (short)0, (short)(size - 1), (short)(size - 1), (short)0);
+    }
+
+    @Benchmark
+    public void drawAlphaMaskedBitmap() {
+        dstDrawable.drawAlphaMaskedBitmap((byte)0xff, (byte)0xff, (byte)0xff, (byte)0, (byte)0, (byte)0, srcDrawable, maskDrawable);
+    }
+}
@@ -0,0 +1,177 @@
+package com.winlator.benchmark;
+
+import com.winlator.winhandler.WinHandler;
+import com.winlator.xconnector.Client;
+import com.winlator.xconnector.XConnectionReplayer.ReplayClientSocket;
+import com.winlator.xconnector.XInputStream;
+import com.winlator.xserver.ClientOpcodes;
+import com.winlator.xserver.ScreenInfo;
+import com.winlator.xserver.XClient;
+import com.winlator.xserver.XClientConnectionHandler;
+import com.winlator.xserver.XClientRequestHandler;
+import com.winlator.xserver.XServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds batches of requests through {@link XClientRequestHandler} the same way
+ * {@link com.winlator.xconnector.XConnectorEpoll} does for a readable socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestDispatchBenchmark {
+    private static final int REQUEST_COUNT = 256;
+    private static final short PIXMAP_SIZE = 256;
+
+    public enum RequestType {NO_OPERATION, GET_INPUT_FOCUS, GET_GEOMETRY, INTERN_ATOM, POLY_FILL_RECTANGLE, PUT_IMAGE}
+
+    @Param({"NO_OPERATION", "GET_INPUT_FOCUS", "GET_GEOMETRY", "INTERN_ATOM", "POLY_FILL_RECTANGLE", "PUT_IMAGE"})
+    public RequestType requestType;
+
+    private XServer xServer;
+    private XClientConnectionHandler connectionHandler;
+    private final XClientRequestHandler requestHandler = new XClientRequestHandler();
+    private ReplayClientSocket clientSocket;
+    private Client client;
+    private ByteBuffer requests;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        xServer = new XServer(new ScreenInfo(1280, 720));
+        xServer.cursorLocker.setEnabled(false);
+        xServer.setWinHandler(new WinHandler());
+        connectionHandler = new XClientConnectionHandler(xServer);
+
+        clientSocket = new ReplayClientSocket();
+        client = new Client(clientSocket, 262144, 128);
+        connectionHandler.handleNewConnection(client);
+
+        ByteBuffer setup = allocate(12);
+        setup.put((byte)108).put((byte)0).putShort((short)11).putShort((short)0);
+        setup.putShort((short)0).putShort((short)0).putShort((short)0);
+        dispatch(setup);
+
+        int idBase = ((XClient)client.getTag()).resourceIDBase;
+        int pixmapId = idBase + 1;
+        int gcId = idBase + 2;
+        int rootId = xServer.windowManager.rootWindow.id;
+
+        ByteBuffer resources = allocate(32);
+        resources.put(ClientOpcodes.CREATE_PIXMAP).put((byte)24).putShort((short)4);
+        resources.putInt(pixmapId).putInt(rootId).putShort(PIXMAP_SIZE).putShort(PIXMAP_SIZE);
+        resources.put(ClientOpcodes.CREATE_GC).put((byte)0).putShort((short)4);
+        resources.putInt(gcId).putInt(pixmapId).putInt(0);
+        dispatch(resources);
+
+        requests = createRequests(rootId, pixmapId, gcId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connectionHandler.handleConnectionShutdown(client);
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer createRequests(int rootId, int pixmapId, int gcId) {
+        byte[] atomName = "_NET_WM_STATE_FULLSCREEN".getBytes(StandardCharsets.US_ASCII);
+        int atomNamePadding = -atomName.length & 3;
+        short imageSize = 32;
+        int requestSize;
+
+        switch (requestType) {
+            case GET_GEOMETRY:
+                requestSize = 8;
+                break;
+            case INTERN_ATOM:
+                requestSize = 8 + atomName.length + atomNamePadding;
+                break;
+            case POLY_FILL_RECTANGLE:
+                requestSize = 12 + 4 * 8;
+                break;
+            case PUT_IMAGE:
+                requestSize = 24 + imageSize * imageSize * 4;
+                break;
+            default:
+                requestSize = 4;
+                break;
+        }
+
+        ByteBuffer data = allocate(REQUEST_COUNT * requestSize);
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            switch (requestType) {
+                case NO_OPERATION:
+                    data.put(ClientOpcodes.NO_OPERATION).put((byte)0).putShort((short)1);
+                    break;
+                case GET_INPUT_FOCUS:
+                    data.put(ClientOpcodes.GET_INPUT_FOCUS).put((byte)0).putShort((short)1);
+                    break;
+                case GET_GEOMETRY:
+                    data.put(ClientOpcodes.GET_GEOMETRY).put((byte)0).putShort((short)2);
+                    data.putInt(rootId);
+                    break;
+                case INTERN_ATOM:
+                    data.put(ClientOpcodes.INTERN_ATOM).put((byte)0).putShort((short)(requestSize / 4));
+                    data.putShort((short)atomName.length).putShort((short)0);
+                    data.put(atomName);
+                    for (int j = 0; j < atomNamePadding; j++) data.put((byte)0);
+                    break;
+                case POLY_FILL_RECTANGLE:
+                    data.put(ClientOpcodes.POLY_FILL_RECTANGLE).put((byte)0).putShort((short)(requestSize / 4));
+                    data.putInt(pixmapId).putInt(gcId);
+                    for (int j = 0; j < 4; j++) {
+                        data.putShort((short)(j * 48)).putShort((short)(i % 128)).putShort((short)64).putShort((short)64);
+                    }
+                    break;
+                case PUT_IMAGE:
+                    data.put(ClientOpcodes.PUT_IMAGE).put((byte)2).putShort((short)(requestSize / 4));
+                    data.putInt(pixmapId).putInt(gcId);
+                    data.putShort(imageSize).putShort(imageSize);
+                    data.putShort((short)(i % (PIXMAP_SIZE - imageSize))).putShort((short)(i % (PIXMAP_SIZE - imageSize)));
+                    data.put((byte)0).put((byte)24).putShort((short)0);
+                    for (int j = 0; j < imageSize * imageSize; j++) data.putInt(0xff000000 | (i * 0x010101 + j));
+                    break;
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    private void dispatch(ByteBuffer data) throws IOException {
+        data.rewind();
+        clientSocket.addPendingData(data);
+        XInputStream inputStream = client.getInputStream();
+
+        while (clientSocket.hasPendingData()) {
+            if (inputStream.readMoreData(false) <= 0) break;
+            int activePosition = 0;
+            while (requestHandler.handleRequest(client)) activePosition = inputStream.getActivePosition();
+            inputStream.setActivePosition(activePosition);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUEST_COUNT)
+    public void dispatchRequests() throws IOException {
+        dispatch(requests);
+    }
+}
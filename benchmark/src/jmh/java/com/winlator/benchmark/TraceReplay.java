@@ -0,0 +1,50 @@
+package com.winlator.benchmark;
+
+import com.winlator.winhandler.WinHandler;
+import com.winlator.xconnector.XConnectionReplayer;
+import com.winlator.xserver.ScreenInfo;
+import com.winlator.xserver.XClientConnectionHandler;
+import com.winlator.xserver.XClientRequestHandler;
+import com.winlator.xserver.XServer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a trace recorded with "Record X Connections" (wine_logs/x_connection_trace.bin) against
+ * a fresh X server for a number of iterations and prints the time each one took. The screen size
+ * must match the one the trace was recorded with. Ancillary fds (shared memory) are not recreated,
+ * requests using them take the same error paths as with an invalid fd.
+ *
+ * ./gradlew :benchmark:replayTrace -Ptrace=/path/to/x_connection_trace.bin [-Pscreen=1280x720] [-Piterations=10]
+ */
+public final class TraceReplay {
+    private TraceReplay() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceReplay <trace file> [screen size, e.g. 1280x720] [iterations]");
+            System.exit(1);
+        }
+
+        File traceFile = new File(args[0]);
+        ScreenInfo screenInfo = new ScreenInfo(args.length > 1 ? args[1] : "1280x720");
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        for (int i = 0; i < iterations; i++) {
+            XServer xServer = new XServer(screenInfo);
+            xServer.cursorLocker.setEnabled(false);
+            xServer.setWinHandler(new WinHandler());
+
+            XConnectionReplayer replayer = new XConnectionReplayer(new XClientConnectionHandler(xServer), new XClientRequestHandler());
+            replayer.setInitialInputBufferCapacity(262144);
+            XConnectionReplayer.Result result = replayer.replay(traceFile);
+
+            System.out.printf("iteration %d: %.3f ms, %d connections, %d requests, %d bytes read, %d bytes written%n",
+                i + 1, result.elapsedNanos / 1e6, result.connections, result.handledRequests, result.bytesRead, result.bytesWritten);
+        }
+
+        // the cursor locker timer of each X server is not a daemon thread
+        System.exit(0);
+    }
+}
@@ -0,0 +1,151 @@
+package com.winlator.benchmark;
+
+import com.winlator.winhandler.WinHandler;
+import com.winlator.xconnector.XConnectionReplayer.ReplayClientSocket;
+import com.winlator.xconnector.XInputStream;
+import com.winlator.xconnector.XOutputStream;
+import com.winlator.xserver.Bitmask;
+import com.winlator.xserver.ScreenInfo;
+import com.winlator.xserver.Window;
+import com.winlator.xserver.WindowAttributes;
+import com.winlator.xserver.WindowManager;
+import com.winlator.xserver.XClient;
+import com.winlator.xserver.XServer;
+import com.winlator.xserver.errors.XRequestError;
+import com.winlator.xserver.events.Event;
+import com.winlator.xserver.events.Expose;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WindowManager#findPointWindow} and pointer motion routing over a populated window tree,
+ * and event fan-out through {@link Window#sendEvent(int, Event)} to many listening clients.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WindowBenchmark {
+    private static final short SCREEN_WIDTH = 1920;
+    private static final short SCREEN_HEIGHT = 1080;
+    private static final int POINT_COUNT = 1024;
+
+    @State(Scope.Thread)
+    public static class WindowTree {
+        @Param({"16", "256"})
+        public int topLevelWindowCount;
+
+        private XServer xServer;
+        private final short[] points = new short[POINT_COUNT * 2];
+
+        @Setup
+        public void setup() throws XRequestError {
+            xServer = createXServer();
+            XClient owner = createClient(xServer);
+            WindowManager windowManager = xServer.windowManager;
+            int id = owner.resourceIDBase;
+
+            // Overlapping top-level windows, each with a small frame/client/child hierarchy like Wine creates
+            Random random = new Random(1);
+            for (int i = 0; i < topLevelWindowCount; i++) {
+                short width = (short)(160 + random.nextInt(640));
+                short height = (short)(120 + random.nextInt(480));
+                short x = (short)random.nextInt(SCREEN_WIDTH - width);
+                short y = (short)random.nextInt(SCREEN_HEIGHT - height);
+
+                Window frame = createWindow(windowManager, ++id, windowManager.rootWindow, x, y, width, height, owner);
+                Window client = createWindow(windowManager, ++id, frame, (short)4, (short)24, (short)(width - 8), (short)(height - 28), owner);
+                owner.setEventListenerForWindow(client, new Bitmask(Event.POINTER_MOTION));
+                for (int j = 0; j < 4; j++) {
+                    createWindow(windowManager, ++id, client, (short)(j * (width / 4)), (short)0, (short)(width / 4 - 8), (short)32, owner);
+                }
+            }
+
+            for (int i = 0; i < POINT_COUNT; i++) {
+                points[i * 2] = (short)random.nextInt(SCREEN_WIDTH);
+                points[i * 2 + 1] = (short)random.nextInt(SCREEN_HEIGHT);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EventTarget {
+        @Param({"1", "16", "64"})
+        public int listenerCount;
+
+        private Window window;
+        private Expose exposeEvent;
+
+        @Setup
+        public void setup() throws XRequestError {
+            XServer xServer = createXServer();
+            XClient owner = createClient(xServer);
+            window = createWindow(xServer.windowManager, owner.resourceIDBase + 1, xServer.windowManager.rootWindow, (short)0, (short)0, (short)64, (short)64, owner);
+            exposeEvent = new Expose(window);
+
+            for (int i = 0; i < listenerCount; i++) {
+                XClient listener = createClient(xServer);
+                // Half of the clients select an unrelated event, so the interest check is exercised too
+                int eventMask = (i & 1) == 0 ? Event.EXPOSURE : Event.STRUCTURE_NOTIFY;
+                listener.setEventListenerForWindow(window, new Bitmask(eventMask));
+            }
+        }
+    }
+
+    private static XServer createXServer() {
+        XServer xServer = new XServer(new ScreenInfo(SCREEN_WIDTH, SCREEN_HEIGHT));
+        xServer.cursorLocker.setEnabled(false);
+        xServer.setWinHandler(new WinHandler());
+        return xServer;
+    }
+
+    private static XClient createClient(XServer xServer) {
+        ReplayClientSocket clientSocket = new ReplayClientSocket();
+        XInputStream inputStream = new XInputStream(clientSocket, 128);
+        XOutputStream outputStream = new XOutputStream(clientSocket, 128);
+        outputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        XClient client = new XClient(xServer, inputStream, outputStream);
+        client.setAuthenticated(true);
+        return client;
+    }
+
+    private static Window createWindow(WindowManager windowManager, int id, Window parent, short x, short y, short width, short height, XClient owner) throws XRequestError {
+        Window window = windowManager.createWindow(id, parent, x, y, width, height, WindowAttributes.WindowClass.INPUT_ONLY, null, (byte)0, owner);
+        windowManager.mapWindow(window);
+        return window;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINT_COUNT)
+    public void findPointWindow(WindowTree windowTree, Blackhole blackhole) {
+        WindowManager windowManager = windowTree.xServer.windowManager;
+        short[] points = windowTree.points;
+        for (int i = 0; i < POINT_COUNT; i++) {
+            blackhole.consume(windowManager.findPointWindow(points[i * 2], points[i * 2 + 1]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINT_COUNT)
+    public void injectPointerMove(WindowTree windowTree) {
+        XServer xServer = windowTree.xServer;
+        short[] points = windowTree.points;
+        for (int i = 0; i < POINT_COUNT; i++) xServer.injectPointerMove(points[i * 2], points[i * 2 + 1]);
+    }
+
+    @Benchmark
+    public void sendEvent(EventTarget eventTarget) {
+        eventTarget.window.sendEvent(Event.EXPOSURE, eventTarget.exposeEvent);
+    }
+}
@@ -0,0 +1,98 @@
+package com.winlator.benchmark;
+
+import com.winlator.xconnector.XConnectionReplayer.ReplayClientSocket;
+import com.winlator.xconnector.XInputStream;
+import com.winlator.xconnector.XOutputStream;
+import com.winlator.xconnector.XStreamLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class XStreamBenchmark {
+    private static final int MESSAGE_COUNT = 256;
+    private static final String ATOM_NAME = "_NET_WM_STATE_FULLSCREEN";
+    private ReplayClientSocket clientSocket;
+    private XInputStream inputStream;
+    private XOutputStream outputStream;
+    private ByteBuffer requests;
+
+    @Setup
+    public void setup() {
+        clientSocket = new ReplayClientSocket();
+        inputStream = new XInputStream(clientSocket, 262144);
+        inputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        outputStream = new XOutputStream(clientSocket, 128);
+        outputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+
+        // Same layout as a PolyFillRectangle request with two rectangles
+        requests = ByteBuffer.allocateDirect(MESSAGE_COUNT * 28).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            requests.put((byte)70).put((byte)0).putShort((short)7);
+            requests.putInt(0x200000 + i).putInt(0x200001);
+            requests.putShort((short)i).putShort((short)i).putShort((short)64).putShort((short)64);
+            requests.putShort((short)0).putShort((short)0).putShort((short)8).putShort((short)8);
+        }
+        requests.flip();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public void decodeRequests(Blackhole blackhole) throws IOException {
+        requests.rewind();
+        clientSocket.addPendingData(requests);
+        inputStream.readMoreData(false);
+
+        while (inputStream.available() >= 4) {
+            blackhole.consume(inputStream.readByte());
+            blackhole.consume(inputStream.readByte());
+            int length = inputStream.readUnsignedShort() * 4 - 4;
+            blackhole.consume(inputStream.readInt());
+            blackhole.consume(inputStream.readInt());
+            for (length -= 8; length > 0; length -= 2) blackhole.consume(inputStream.readShort());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public void encodeReplies() throws IOException {
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            // Same layout as a GetGeometry reply
+            try (XStreamLock lock = outputStream.lock()) {
+                outputStream.writeByte((byte)1);
+                outputStream.writeByte((byte)24);
+                outputStream.writeShort((short)i);
+                outputStream.writeInt(0);
+                outputStream.writeInt(0x100);
+                outputStream.writeShort((short)0);
+                outputStream.writeShort((short)0);
+                outputStream.writeShort((short)1280);
+                outputStream.writeShort((short)720);
+                outputStream.writeShort((short)0);
+                outputStream.writePad(10);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public void encodeStrings() throws IOException {
+        try (XStreamLock lock = outputStream.lock()) {
+            for (int i = 0; i < MESSAGE_COUNT; i++) outputStream.writeString8(ATOM_NAME);
+        }
+    }
+}
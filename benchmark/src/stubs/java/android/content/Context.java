@@ -0,0 +1,14 @@
+package android.content;
+
+import android.content.res.Resources;
+
+/**
+ * Desktop JVM stand-in for the framework class, only what the compiled app sources reference.
+ */
+public abstract class Context {
+    public abstract Resources getResources();
+
+    public abstract String getPackageName();
+
+    public abstract String getString(int resId);
+}
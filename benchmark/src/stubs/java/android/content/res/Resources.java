@@ -0,0 +1,8 @@
+package android.content.res;
+
+/**
+ * Desktop JVM stand-in for the framework class, only what the compiled app sources reference.
+ */
+public abstract class Resources {
+    public abstract int getIdentifier(String name, String defType, String defPackage);
+}
@@ -0,0 +1,16 @@
+package android.util;
+
+import androidx.collection.SparseArrayCompat;
+
+/**
+ * Desktop JVM stand-in for the framework class, backed by the identical androidx implementation.
+ */
+public class SparseArray<E> extends SparseArrayCompat<E> {
+    public SparseArray() {
+        super();
+    }
+
+    public SparseArray(int initialCapacity) {
+        super(initialCapacity);
+    }
+}
@@ -0,0 +1,18 @@
+package android.view;
+
+/**
+ * Desktop JVM stand-in for the framework class.
+ */
+public class InputDevice {
+    public static final int SOURCE_CLASS_BUTTON = 0x00000001;
+    public static final int SOURCE_KEYBOARD = 0x00000100 | SOURCE_CLASS_BUTTON;
+    private final int sources;
+
+    public InputDevice(int sources) {
+        this.sources = sources;
+    }
+
+    public int getSources() {
+        return sources;
+    }
+}
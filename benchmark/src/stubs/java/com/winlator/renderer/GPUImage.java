@@ -0,0 +1,33 @@
+package com.winlator.renderer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Desktop JVM stand-in for the AHardwareBuffer backed texture, reported as unsupported so the X
+ * server always takes the plain memory path.
+ */
+public class GPUImage extends Texture {
+    public GPUImage(short width, short height) {
+        this(width, height, true);
+    }
+
+    public GPUImage(short width, short height, boolean cpuAccess) {
+        throw new UnsupportedOperationException("GPUImage is not available on a desktop JVM.");
+    }
+
+    public short getStride() {
+        return 0;
+    }
+
+    public int getNativeHandle() {
+        return -1;
+    }
+
+    public ByteBuffer getVirtualData() {
+        return null;
+    }
+
+    public static boolean isSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,18 @@
+package com.winlator.renderer;
+
+/**
+ * Desktop JVM stand-in for the GL texture, there is no GL context so only the dirty flag is tracked.
+ */
+public class Texture {
+    protected boolean needsUpdate = true;
+
+    public boolean isNeedsUpdate() {
+        return needsUpdate;
+    }
+
+    public void setNeedsUpdate(boolean needsUpdate) {
+        this.needsUpdate = needsUpdate;
+    }
+
+    public void destroy() {}
+}
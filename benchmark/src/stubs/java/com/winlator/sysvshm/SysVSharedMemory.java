@@ -0,0 +1,20 @@
+package com.winlator.sysvshm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Desktop JVM stand-in for the ashmem backed segment store, segments are plain direct buffers.
+ */
+public class SysVSharedMemory {
+    public ByteBuffer attach(int shmid) {
+        return null;
+    }
+
+    public void detach(ByteBuffer data) {}
+
+    public static ByteBuffer mapSHMSegment(int fd, long size, int offset, boolean readonly) {
+        return ByteBuffer.allocateDirect((int)size);
+    }
+
+    public static void unmapSHMSegment(ByteBuffer data, long size) {}
+}
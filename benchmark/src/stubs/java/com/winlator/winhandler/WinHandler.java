@@ -0,0 +1,12 @@
+package com.winlator.winhandler;
+
+/**
+ * Desktop JVM stand-in, there is no Wine side to forward input or focus changes to.
+ */
+public class WinHandler {
+    public void mouseEvent(int flags, int dx, int dy, int wheelDelta) {}
+
+    public void bringToFront(String processName) {}
+
+    public void bringToFront(String processName, long handle) {}
+}
@@ -0,0 +1,12 @@
+package com.winlator.xconnector;
+
+/**
+ * Desktop JVM stand-in, benchmarks never bind a real socket.
+ */
+public class UnixSocketConfig {
+    public final String path;
+
+    public UnixSocketConfig(String path) {
+        this.path = path;
+    }
+}